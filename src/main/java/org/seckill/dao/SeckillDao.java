@@ -2,6 +2,7 @@ package org.seckill.dao;
 
 import org.apache.ibatis.annotations.Param;
 import org.seckill.entity.Seckill;
+import org.seckill.entity.SeckillStock;
 
 import java.util.Date;
 import java.util.List;
@@ -20,6 +21,16 @@ public interface SeckillDao {
      */
     int reduceNumber(@Param("seckillId") long seckillId, @Param("killTime") Date killTime);
 
+    /**
+     * 批量减库存，库存不足时不更新
+     * 不校验秒杀时间：调用方在准入时（executeSeckillByRedis）或锁定商品行后（CombinedKillWriter）校验，
+     * 排队队列中已准入的订单可能在结束时间之后才写库
+     * @param seckillId
+     * @param count 减少的数量
+     * @return 更新的行数，0表示库存不足
+     */
+    int reduceNumberBy(@Param("seckillId") long seckillId, @Param("count") int count);
+
     /**
      * 根据id查询秒杀对象
      * @param seckillId
@@ -27,6 +38,13 @@ public interface SeckillDao {
      */
     Seckill queryById(long seckillId);
 
+    /**
+     * 根据多个id一次查询秒杀对象
+     * @param seckillIds 不能为空
+     * @return 存在的秒杀对象，顺序不保证
+     */
+    List<Seckill> queryByIds(@Param("seckillIds") List<Long> seckillIds);
+
     /**
      * 根据偏移量查询秒杀商品列表
      * @param offet
@@ -35,9 +53,77 @@ public interface SeckillDao {
      */
     List<Seckill> queryAll(@Param("offet") int offet, @Param("limit") int limit);
 
+    /**
+     * 按创建时间倒序分页查询秒杀商品列表（键集分页）
+     * 从上一页最后一条记录之后开始读取，走idx_create_time索引，不需要扫描并丢弃前面的行
+     * @param afterTime 上一页最后一条的创建时间，为null时查询第一页
+     * @param afterId 上一页最后一条的seckillId，创建时间相同时按id倒序区分
+     * @param limit
+     * @return
+     */
+    List<Seckill> queryPage(@Param("afterTime") Date afterTime, @Param("afterId") long afterId,
+                            @Param("limit") int limit);
+
+    /**
+     * 查询开始时间在[from, to)之间的秒杀商品，按开始时间升序，用于开售前预热
+     * 走idx_start_time索引
+     * @param from
+     * @param to
+     * @param limit
+     * @return
+     */
+    List<Seckill> queryStartingBetween(@Param("from") Date from, @Param("to") Date to,
+                                       @Param("limit") int limit);
+
+    /**
+     * 查询并锁定商品行，读取的是seckill表中的原始库存，用于拆分库存分片
+     * @param seckillId
+     * @return
+     */
+    Seckill queryByIdForUpdate(long seckillId);
+
+    /**
+     * 插入商品的库存分片，numbers的下标为分片序号
+     * @param seckillId
+     * @param numbers 各分片的库存
+     * @return 插入的行数
+     */
+    int insertStockShards(@Param("seckillId") long seckillId, @Param("numbers") List<Integer> numbers);
+
+    /**
+     * 库存已移入分片，number清零并记录分片数
+     * @param seckillId
+     * @param shards
+     * @return 更新的行数，0表示已经拆分过
+     */
+    int markStockSharded(@Param("seckillId") long seckillId, @Param("shards") int shards);
+
+    /**
+     * 扣减一个库存分片，分片库存不足时不更新
+     * @param seckillId
+     * @param shardNo
+     * @param count
+     * @return 更新的行数，0表示分片库存不足
+     */
+    int reduceShardBy(@Param("seckillId") long seckillId, @Param("shardNo") int shardNo,
+                      @Param("count") int count);
+
+    /**
+     * 非锁定读查询商品的所有库存分片
+     * @param seckillId
+     * @return 按分片序号排列
+     */
+    List<SeckillStock> queryStockShards(long seckillId);
+
     /**
      * 使用存储过程执行秒杀
      * @param paramMap
      */
     void killPyProcedure(Map<String, Object> paramMap);
+
+    /**
+     * 使用存储过程在库存分片上执行秒杀，参数比killPyProcedure多shards和home（用户分配的分片）
+     * @param paramMap
+     */
+    void killByShardedProcedure(Map<String, Object> paramMap);
 }
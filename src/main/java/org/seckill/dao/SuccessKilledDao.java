@@ -3,6 +3,8 @@ package org.seckill.dao;
 import org.apache.ibatis.annotations.Param;
 import org.seckill.entity.SuccessKilled;
 
+import java.util.List;
+
 /**
  * Created by 徐豪 on 2017/7/27/027.
  */
@@ -16,6 +18,14 @@ public interface SuccessKilledDao {
      */
     int insertSuccessKilled(@Param("seckillId") long seckillId,@Param("userPhone") long userPhone);
 
+    /**
+     * 批量插入购买明细，一条多行insert ignore，重复的记录被忽略
+     * @param seckillId
+     * @param userPhones
+     * @return 实际插入的行数
+     */
+    int insertSuccessKilledBatch(@Param("seckillId") long seckillId, @Param("userPhones") List<Long> userPhones);
+
     /**
      * 根据id查询SuccessKilled并携带秒杀产品对象
      * @param seckillId
@@ -23,5 +33,30 @@ public interface SuccessKilledDao {
      */
     SuccessKilled queryByIdWithSeckill(@Param("seckillId")long seckillId,@Param("userPhone") long userPhone);
 
+    /**
+     * 批量查询SuccessKilled并携带秒杀产品对象
+     * @param seckillId
+     * @param userPhones 不能为空
+     * @return 存在的购买明细，顺序不保证
+     */
+    List<SuccessKilled> queryByIdsWithSeckill(@Param("seckillId") long seckillId,
+                                              @Param("userPhones") List<Long> userPhones);
+
+    /**
+     * 查询已经存在购买明细的用户
+     * @param seckillId
+     * @param userPhones 不能为空
+     * @return 已存在明细的userPhone
+     */
+    List<Long> queryUserPhones(@Param("seckillId") long seckillId, @Param("userPhones") List<Long> userPhones);
+
+    /**
+     * 批量删除购买明细，用于在同一个事务中撤销库存不足的用户
+     * @param seckillId
+     * @param userPhones 不能为空
+     * @return 删除的行数
+     */
+    int deleteSuccessKilledBatch(@Param("seckillId") long seckillId, @Param("userPhones") List<Long> userPhones);
+
 
 }
@@ -0,0 +1,27 @@
+package org.seckill.dao.cache;
+
+import org.seckill.entity.Seckill;
+
+/**
+ * redis中缓存的秒杀商品及其过期时间
+ */
+public class CachedSeckill {
+
+    private final Seckill seckill;
+
+    //过期的时间戳（毫秒），没有设置过期时间为Long.MAX_VALUE
+    private final long expireAt;
+
+    public CachedSeckill(Seckill seckill, long expireAt) {
+        this.seckill = seckill;
+        this.expireAt = expireAt;
+    }
+
+    public Seckill getSeckill() {
+        return seckill;
+    }
+
+    public long getExpireAt() {
+        return expireAt;
+    }
+}
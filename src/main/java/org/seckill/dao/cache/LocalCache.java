@@ -0,0 +1,144 @@
+package org.seckill.dao.cache;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内缓存，限制条目数和存活时间
+ * 读取只访问ConcurrentHashMap，不加锁；超过条目数时按写入顺序淘汰最早的条目
+ * 缓存的对象会被多个线程共享，调用方不能修改取出的对象
+ */
+public class LocalCache<K, V> {
+
+    private final ConcurrentMap<K, Entry<K, V>> entries = new ConcurrentHashMap<K, Entry<K, V>>();
+
+    //按写入顺序排列的条目，用于淘汰
+    private final Queue<Entry<K, V>> order = new ConcurrentLinkedQueue<Entry<K, V>>();
+
+    //order的近似长度，ConcurrentLinkedQueue.size()需要遍历整个队列；每次清理后按实际保留的条目数校正
+    private final AtomicInteger orderSize = new AtomicInteger();
+
+    //同一时刻只有一个线程清理无效条目，其他线程不等待
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    private final int maxSize;
+
+    private final long ttlMillis;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    public LocalCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public V get(K key){
+        Entry<K, V> entry = entries.get(key);
+        if (entry == null){
+            misses.increment();
+            return null;
+        }
+        if (entry.expireAt < System.currentTimeMillis()){
+            //过期
+            entries.remove(key, entry);
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    public void put(K key, V value){
+        Entry<K, V> entry = new Entry<K, V>(key, value, System.currentTimeMillis() + ttlMillis);
+        entries.put(key, entry);
+        order.offer(entry);
+        orderSize.incrementAndGet();
+        while (entries.size() > maxSize){
+            Entry<K, V> eldest = order.poll();
+            if (eldest == null){
+                break;
+            }
+            orderSize.decrementAndGet();
+            //条目已被覆盖或删除时remove失败，继续淘汰下一个
+            if (entries.remove(eldest.key, eldest)){
+                evictions.increment();
+            }
+        }
+        //覆盖和删除留下的无效条目，队列过长时清理
+        if (orderSize.get() > maxSize * 2 && sweeping.compareAndSet(false, true)){
+            try {
+                sweep();
+            } finally {
+                sweeping.set(false);
+            }
+        }
+    }
+
+    /**
+     * 遍历一次队列删除无效条目，迭代器删除是O(1)的
+     */
+    private void sweep(){
+        int live = 0;
+        Iterator<Entry<K, V>> iterator = order.iterator();
+        while (iterator.hasNext()){
+            Entry<K, V> entry = iterator.next();
+            if (entries.get(entry.key) != entry){
+                iterator.remove();
+            } else {
+                live++;
+            }
+        }
+        orderSize.set(live);
+    }
+
+    public void invalidate(K key){
+        entries.remove(key);
+    }
+
+    public void invalidateAll(){
+        entries.clear();
+        order.clear();
+        orderSize.set(0);
+    }
+
+    public int size(){
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private static final class Entry<K, V> {
+
+        final K key;
+
+        final V value;
+
+        final long expireAt;
+
+        Entry(K key, V value, long expireAt) {
+            this.key = key;
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+}
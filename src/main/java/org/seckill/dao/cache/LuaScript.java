@@ -0,0 +1,64 @@
+package org.seckill.dao.cache;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * classpath下的lua脚本
+ * 首次执行时SCRIPT LOAD，之后只发送sha1执行EVALSHA；
+ * redis重启或脚本缓存被清空时返回NOSCRIPT，重新加载后再执行一次。
+ * key和参数都是二进制的，整数返回Long，多条批量回复返回List<byte[]>
+ */
+public class LuaScript {
+
+    private final byte[] source;
+
+    private volatile byte[] sha;
+
+    private LuaScript(byte[] source) {
+        this.source = source;
+    }
+
+    public static LuaScript load(String path){
+        InputStream in = LuaScript.class.getClassLoader().getResourceAsStream(path);
+        if (in == null){
+            throw new IllegalArgumentException("lua script not found: " + path);
+        }
+        try {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int n;
+                while ((n = in.read(buffer)) != -1){
+                    out.write(buffer, 0, n);
+                }
+                return new LuaScript(out.toByteArray());
+            } finally {
+                in.close();
+            }
+        } catch (IOException e){
+            throw new IllegalStateException("load lua script failed: " + path, e);
+        }
+    }
+
+    public Object eval(Jedis jedis, List<byte[]> keys, List<byte[]> args){
+        byte[] current = sha;
+        if (current == null){
+            current = sha = jedis.scriptLoad(source);
+        }
+        try {
+            return jedis.evalsha(current, keys, args);
+        } catch (JedisDataException e){
+            if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")){
+                throw e;
+            }
+            sha = jedis.scriptLoad(source);
+            return jedis.evalsha(sha, keys, args);
+        }
+    }
+}
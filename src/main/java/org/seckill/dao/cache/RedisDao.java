@@ -1,50 +1,147 @@
 package org.seckill.dao.cache;
 
-import com.dyuproject.protostuff.LinkedBuffer;
-import com.dyuproject.protostuff.ProtostuffIOUtil;
-import com.dyuproject.protostuff.runtime.RuntimeSchema;
 import org.seckill.entity.Seckill;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
-
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by 徐豪 on 2017/7/29/029.
+ * key和成员的编码见RedisKeys：商品的key为固定前缀 + 8字节商品id，用户为8字节手机号
+ * 多个redis节点时按商品id一致性哈希选择节点（见RedisRing），同一商品的缓存、库存、排队和结果都在同一个节点上，
+ * lua脚本仍然是单节点的原子操作；就绪队列和活动商品集合每个节点一份，节点间的发布/订阅使用第一个节点
  */
 public class RedisDao {
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
-    //序列化
-    private RuntimeSchema<Seckill> schema = RuntimeSchema.createFrom(Seckill.class);
+    //准入脚本返回值，前四个与SeckillStatEnum的状态一致
+    public static final int ADMIT_SUCCESS = 1;
+    public static final int ADMIT_SOLD_OUT = 0;
+    public static final int ADMIT_REPEAT = -1;
+    public static final int ADMIT_ERROR = -2;
+    //库存未初始化，只在脚本和调用方之间使用，取值不与SeckillStatEnum的任何状态重合
+    public static final int ADMIT_NOT_INIT = -100;
+
+    //用户的秒杀状态
+    public static final int KILL_NONE = 0;
+    public static final int KILL_QUEUED = 1;
+    public static final int KILL_SUCCESS = 2;
+    public static final int KILL_FAILURE = 3;
+
+    //获取消费租约的返回值，成功时返回放回排队队列的用户数（>=0）
+    public static final long LEASE_HELD = -1;
+    public static final long LEASE_ERROR = -2;
+
+    //每个节点连接池的最大连接数，每个阻塞中的消费者和事件订阅都会独占一个连接
+    private static final int MAX_CONNECTIONS = 128;
+
+    private static final byte[] NX = {'N', 'X'};
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final LuaScript admitScript = LuaScript.load("lua/seckill_admit.lua");
+
+    private final LuaScript cancelScript = LuaScript.load("lua/seckill_cancel.lua");
+
+    private final LuaScript popScript = LuaScript.load("lua/seckill_pop.lua");
+
+    private final LuaScript requeueScript = LuaScript.load("lua/seckill_requeue.lua");
 
-    private final JedisPool jedisPool;
+    private final LuaScript leaseAcquireScript = LuaScript.load("lua/seckill_lease_acquire.lua");
+
+    private final LuaScript leaseRenewScript = LuaScript.load("lua/seckill_lease_renew.lua");
+
+    //按配置顺序的各节点连接池
+    private final JedisPool[] pools;
+
+    private final RedisRing ring;
 
     public RedisDao(String ip, int port){
-        jedisPool = new JedisPool(ip, port);
+        this(Collections.singletonList(ip + ":" + port));
+    }
+
+    /**
+     * @param nodes redis节点，格式为host:port；所有应用节点的配置必须相同，第一个节点负责发布/订阅
+     */
+    public RedisDao(List<String> nodes){
+        if (nodes.isEmpty()){
+            throw new IllegalArgumentException("no redis node");
+        }
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(MAX_CONNECTIONS);
+        config.setMaxIdle(MAX_CONNECTIONS);
+        pools = new JedisPool[nodes.size()];
+        List<String> names = new ArrayList<String>(nodes.size());
+        for (int i = 0; i < pools.length; i++) {
+            String node = nodes.get(i).trim();
+            int index = node.lastIndexOf(':');
+            if (index <= 0){
+                throw new IllegalArgumentException("illegal redis node: " + node);
+            }
+            pools[i] = new JedisPool(config, node.substring(0, index), Integer.parseInt(node.substring(index + 1)));
+            names.add(node);
+        }
+        ring = new RedisRing(names);
+    }
+
+    /**
+     * redis节点数
+     */
+    public int getNodeCount(){
+        return pools.length;
+    }
+
+    /**
+     * 商品所在节点的连接池
+     */
+    private JedisPool poolOf(long seckillId){
+        return pools.length == 1 ? pools[0] : pools[ring.nodeOf(seckillId)];
+    }
+
+    /**
+     * 按所在节点对商品分组，保持每组内的原始顺序
+     */
+    private <T> Map<Integer, List<T>> groupByNode(List<T> items, List<Long> seckillIds){
+        Map<Integer, List<T>> groups = new LinkedHashMap<Integer, List<T>>();
+        for (int i = 0; i < items.size(); i++) {
+            int node = pools.length == 1 ? 0 : ring.nodeOf(seckillIds.get(i));
+            List<T> group = groups.get(node);
+            if (group == null){
+                group = new ArrayList<T>();
+                groups.put(node, group);
+            }
+            group.add(items.get(i));
+        }
+        return groups;
     }
 
     public Seckill getSeckill(long seckillId){
         //redis操作逻辑
         try{
-            Jedis jedis= jedisPool.getResource();
+            Jedis jedis = poolOf(seckillId).getResource();
             try {
-                String key = "seckill:" + seckillId;
-                //jedis默认没有实现内部序列化操作，所以不能直接放对象
                 // 得到->byte[]  -> 反序列化 -> Object(Seckill)
-                //采用自定义序列化：protostuff时间快一倍，空间压缩5-10分之一
-                byte[] bytes = jedis.get(key.getBytes());
+                byte[] bytes = jedis.get(RedisKeys.of(seckillId).seckill);
                 //如果有缓存
                 if (bytes != null){
-                    //创建个空对象用于写入反序列化对象
-                    Seckill seckill = schema.newMessage();
-                    //写入反序列化对象
-                    ProtostuffIOUtil.mergeFrom(bytes, seckill, schema);
-                    //seckill被反序列化
-                    return seckill;
+                    return SeckillCodec.decode(bytes);
                 }
             } finally {
                 //无论是否发生异常都关闭jedis
@@ -57,18 +154,47 @@ public class RedisDao {
         return null;
     }
 
+    /**
+     * 读取缓存的秒杀商品和剩余存活时间，GET和PTTL通过pipeline一次网络往返
+     * @return 缓存中没有或redis异常时返回null
+     */
+    public CachedSeckill getSeckillEntry(long seckillId){
+
+        try{
+            Jedis jedis = poolOf(seckillId).getResource();
+            try {
+                byte[] key = RedisKeys.of(seckillId).seckill;
+                Pipeline pipeline = jedis.pipelined();
+                Response<byte[]> bytes = pipeline.get(key);
+                Response<Long> ttl = pipeline.pttl(key);
+                pipeline.sync();
+                if (bytes.get() == null){
+                    return null;
+                }
+                //-1表示没有设置过期时间；GET之后、PTTL之前过期返回-2，按已过期处理
+                long pttl = ttl.get();
+                long now = System.currentTimeMillis();
+                return new CachedSeckill(SeckillCodec.decode(bytes.get()),
+                        pttl == -1 ? Long.MAX_VALUE : now + Math.max(0, pttl));
+            } finally {
+                jedis.close();
+            }
+        } catch(Exception e){
+            logger.error(e.getMessage(),e);
+        }
+
+        return null;
+    }
+
     public String pubSeckill(Seckill seckill){
         //set Object(Seckill) -> 序列化 -> byte[]
         try{
-            Jedis jedis = jedisPool.getResource();
+            Jedis jedis = poolOf(seckill.getSeckillId()).getResource();
             try {
-                String key = "seckill:"+seckill.getSeckillId();
-                //如果对象比较大，使用默认的缓存提高速度
-                byte[] bytes = ProtostuffIOUtil.toByteArray(seckill,schema,
-                        LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE));
+                byte[] bytes = SeckillCodec.encode(seckill);
                 //缓存超时的时间
                 int timeout = 60 * 60;
-                String result = jedis.setex(key.getBytes(), timeout, bytes);
+                String result = jedis.setex(RedisKeys.of(seckill.getSeckillId()).seckill, timeout, bytes);
                 return result;
             } finally {
                 jedis.close();
@@ -80,76 +206,238 @@ public class RedisDao {
     }
 
     /**
-     * 判断库存队列是否初始化
-     * 库存队列key：goodsQueue:(商品id)
+     * 批量读取缓存的秒杀商品，每个节点MGET一次网络往返
+     * @return seckillId -> Seckill，只包含缓存中存在的商品
      */
-    public boolean goodsQueueExists(long seckillId){
+    public Map<Long, Seckill> getSeckills(List<Long> seckillIds){
+        if (seckillIds.isEmpty()){
+            return Collections.emptyMap();
+        }
+        try{
+            Map<Long, Seckill> seckills = new HashMap<Long, Seckill>();
+            //每个节点一次MGET
+            for (Map.Entry<Integer, List<Long>> group : groupByNode(seckillIds, seckillIds).entrySet()){
+                List<Long> ids = group.getValue();
+                Jedis jedis = pools[group.getKey()].getResource();
+                try {
+                    byte[][] keys = new byte[ids.size()][];
+                    for (int i = 0; i < keys.length; i++) {
+                        keys[i] = RedisKeys.of(ids.get(i)).seckill;
+                    }
+                    List<byte[]> values = jedis.mget(keys);
+                    for (int i = 0; i < keys.length; i++) {
+                        byte[] bytes = values.get(i);
+                        if (bytes != null){
+                            seckills.put(ids.get(i), SeckillCodec.decode(bytes));
+                        }
+                    }
+                } finally {
+                    jedis.close();
+                }
+            }
+            return seckills;
+        } catch(Exception e){
+            logger.error(e.getMessage(),e);
+        }
+        return Collections.emptyMap();
+    }
 
-        try {
-            Jedis jedis = jedisPool.getResource();
-            try{
-                if(jedis.exists("goodsQueue:"+seckillId)){
-                    return true;
-                } else {
-                    return false;
+    /**
+     * 批量缓存秒杀商品，每个节点pipeline一次网络往返
+     */
+    public void pubSeckills(List<Seckill> seckills){
+        if (seckills.isEmpty()){
+            return;
+        }
+        try{
+            List<Long> seckillIds = new ArrayList<Long>(seckills.size());
+            for (Seckill seckill : seckills){
+                seckillIds.add(seckill.getSeckillId());
+            }
+            //缓存超时的时间
+            int timeout = 60 * 60;
+            for (Map.Entry<Integer, List<Seckill>> group : groupByNode(seckills, seckillIds).entrySet()){
+                Jedis jedis = pools[group.getKey()].getResource();
+                try {
+                    Pipeline pipeline = jedis.pipelined();
+                    for (Seckill seckill : group.getValue()){
+                        pipeline.setex(RedisKeys.of(seckill.getSeckillId()).seckill, timeout,
+                                SeckillCodec.encode(seckill));
+                    }
+                    pipeline.sync();
+                } finally {
+                    jedis.close();
                 }
+            }
+        } catch(Exception e){
+            logger.error(e.getMessage(),e);
+        }
+    }
+
+    /**
+     * 删除缓存的秒杀商品
+     */
+    public void removeSeckill(long seckillId){
+
+        try{
+            Jedis jedis = poolOf(seckillId).getResource();
+            try {
+                jedis.del(RedisKeys.of(seckillId).seckill);
+            } finally {
+                jedis.close();
+            }
+        } catch(Exception e){
+            logger.error(e.getMessage(),e);
+        }
+    }
+
+    /**
+     * 初始化库存计数，只有第一次调用会成功，O(1)
+     * 库存计数key：stock:(商品id)，值为十进制文本，供DECR扣减
+     * @return 本次调用是否完成了初始化
+     */
+    public boolean initStock(long seckillId, int number){
+
+        try{
+            Jedis jedis = poolOf(seckillId).getResource();
+            try {
+                //SET NX：多个请求同时初始化时只有一个成功
+                return "OK".equals(jedis.set(RedisKeys.of(seckillId).stock, RedisKeys.decimal(number), NX));
             } finally {
                 jedis.close();
             }
-        } catch (Exception e){
-            logger.error(e.getMessage(), e);
+        } catch(Exception e){
+            logger.error(e.getMessage(),e);
         }
         return false;
     }
 
     /**
-     * 初始化库存队列
+     * 秒杀准入：判重、扣减库存、记录用户、进入排队队列在一次原子调用中完成
+     * @return ADMIT_SUCCESS/ADMIT_SOLD_OUT/ADMIT_REPEAT/ADMIT_NOT_INIT，redis异常返回ADMIT_ERROR
      */
-    public void initGoodsQueue(long seckillId, int number){
+    public int admit(long seckillId, long userPhone){
 
         try{
-            Jedis jedis = jedisPool.getResource();
+            Jedis jedis = poolOf(seckillId).getResource();
             try {
-                //往库存队列插入和库存一样数量的值
-                for (int i = 0; i <number ; i++) {
-                     jedis.lpush("goodsQueue:"+seckillId,String.valueOf(i));
-                }
+                RedisKeys.ItemKeys keys = RedisKeys.of(seckillId);
+                Object result = admitScript.eval(jedis, keys.admitKeys,
+                        Arrays.asList(RedisKeys.encodeLong(userPhone), keys.id));
+                return ((Long) result).intValue();
             } finally {
                 jedis.close();
             }
         } catch(Exception e){
             logger.error(e.getMessage(),e);
         }
+        return ADMIT_ERROR;
+    }
 
+    /**
+     * 撤销准入：用户还在排队队列中时移出队列、删除用户并归还库存，在一次原子调用中完成
+     * @return 是否已撤销；用户已被消费者取出或redis异常返回false
+     */
+    public boolean cancelAdmit(long seckillId, long userPhone){
+
+        try{
+            Jedis jedis = poolOf(seckillId).getResource();
+            try {
+                Object result = cancelScript.eval(jedis, RedisKeys.of(seckillId).admitKeys,
+                        Collections.singletonList(RedisKeys.encodeLong(userPhone)));
+                return ((Long) result) == 1;
+            } finally {
+                jedis.close();
+            }
+        } catch(Exception e){
+            logger.error(e.getMessage(),e);
+        }
+        return false;
     }
 
     /**
-     * 判断用户是否秒杀成功，防止重复秒杀
+     * 判断用户是否秒杀成功（已写入数据库）
+     * 秒杀成功的用户保存在集合 results:(商品id) 中，SISMEMBER判断是O(1)的，与成功人数无关
      * @param userPhone
      * @return
      */
     public boolean userExistsResultsQueue(long seckillId,long userPhone){
 
         try{
-            Jedis jedis = jedisPool.getResource();
+            Jedis jedis = poolOf(seckillId).getResource();
 
             try {
-                String resultsQueue = "resultsQueue:" + seckillId;
-                String value = "user:" + userPhone;
-                //不存在结果队列表示还没有人秒杀成功
-                if (!jedis.exists(resultsQueue)){
-                    return false;
+                return jedis.sismember(RedisKeys.of(seckillId).results, RedisKeys.encodeLong(userPhone));
+            } finally {
+                jedis.close();
+            }
+        } catch(Exception e){
+            logger.error(e.getMessage(),e);
+        }
+
+        return false;
+    }
+
+    /**
+     * 批量判断用户是否秒杀成功，使用pipeline一次网络往返完成
+     * @param seckillId
+     * @param userPhones
+     * @return userPhone -> 是否秒杀成功，redis异常时返回空map
+     */
+    public Map<Long, Boolean> usersExistResults(long seckillId, List<Long> userPhones){
+
+        try{
+            Jedis jedis = poolOf(seckillId).getResource();
+            try {
+                byte[] results = RedisKeys.of(seckillId).results;
+                Pipeline pipeline = jedis.pipelined();
+                List<Response<Boolean>> responses = new ArrayList<Response<Boolean>>(userPhones.size());
+                for (Long userPhone : userPhones){
+                    responses.add(pipeline.sismember(results, RedisKeys.encodeLong(userPhone)));
                 }
-                //取出所有结果队列
-                List<String> resultList = jedis.lrange(resultsQueue, 0, -1);
+                pipeline.sync();
+                Map<Long, Boolean> map = new LinkedHashMap<Long, Boolean>();
+                for (int i = 0; i < userPhones.size(); i++) {
+                    map.put(userPhones.get(i), responses.get(i).get());
+                }
+                return map;
+            } finally {
+                jedis.close();
+            }
+        } catch(Exception e){
+            logger.error(e.getMessage(),e);
+        }
 
-                //判断当前用户是否在结果队列里
-                if (resultList.contains(value)){
-                    return true;
+        return Collections.emptyMap();
+    }
+
+    /**
+     * 查询用户的秒杀状态，pipeline一次网络往返
+     * @return KILL_SUCCESS 已写库，KILL_FAILURE 写库失败，KILL_QUEUED 已准入等待写库或订单消息尚未得到结果，
+     * KILL_NONE 其他（ActiveMQ方式的最终结果只在数据库中）
+     */
+    public int getKillState(long seckillId, long userPhone){
+
+        try{
+            Jedis jedis = poolOf(seckillId).getResource();
+            try {
+                RedisKeys.ItemKeys keys = RedisKeys.of(seckillId);
+                byte[] user = RedisKeys.encodeLong(userPhone);
+                Pipeline pipeline = jedis.pipelined();
+                Response<Boolean> success = pipeline.sismember(keys.results, user);
+                Response<Boolean> failure = pipeline.sismember(keys.failures, user);
+                Response<Boolean> admitted = pipeline.sismember(keys.users, user);
+                Response<Boolean> pending = pipeline.sismember(keys.pending, user);
+                pipeline.sync();
+                if (success.get()){
+                    return KILL_SUCCESS;
+                } else if (failure.get()){
+                    return KILL_FAILURE;
+                } else if (admitted.get() || pending.get()){
+                    return KILL_QUEUED;
                 } else {
-                    return false;
+                    return KILL_NONE;
                 }
-
             } finally {
                 jedis.close();
             }
@@ -157,19 +445,61 @@ public class RedisDao {
             logger.error(e.getMessage(),e);
         }
 
+        return KILL_QUEUED;
+    }
+
+    /**
+     * 记录已发送订单消息、消费者尚未广播最终结果的用户，集合 pending:(商品id)
+     * 每次加入都刷新集合的过期时间：消息进入死信队列的用户得不到结果，集合过期后不再按排队中返回
+     * @return 是否已记录，redis异常返回false
+     */
+    public boolean addPendingOrder(long seckillId, long userPhone, int expireSeconds){
+
+        try{
+            Jedis jedis = poolOf(seckillId).getResource();
+            try {
+                byte[] pending = RedisKeys.of(seckillId).pending;
+                Pipeline pipeline = jedis.pipelined();
+                pipeline.sadd(pending, RedisKeys.encodeLong(userPhone));
+                pipeline.expire(pending, expireSeconds);
+                pipeline.sync();
+                return true;
+            } finally {
+                jedis.close();
+            }
+        } catch(Exception e){
+            logger.error(e.getMessage(),e);
+        }
         return false;
     }
 
     /**
-     * 获得库存队列的大小
+     * 消费者广播最终结果前移除用户的排队标记
      */
-    public long getGoodsQueueNumber(long seckillId){
+    public void removePendingOrders(long seckillId, List<Long> userPhones){
 
         try{
-            Jedis jedis = jedisPool.getResource();
+            Jedis jedis = poolOf(seckillId).getResource();
+            try {
+                jedis.srem(RedisKeys.of(seckillId).pending, members(userPhones));
+            } finally {
+                jedis.close();
+            }
+        } catch(Exception e){
+            logger.error(e.getMessage(),e);
+        }
+    }
+
+    /**
+     * 获得剩余库存，未初始化返回0
+     */
+    public long getStock(long seckillId){
+
+        try{
+            Jedis jedis = poolOf(seckillId).getResource();
             try {
-                String goodsQueue = "goodsQueue:" + seckillId;
-                return jedis.llen(goodsQueue);
+                byte[] stock = jedis.get(RedisKeys.of(seckillId).stock);
+                return stock == null ? 0 : RedisKeys.parseDecimal(stock);
             } finally {
                 jedis.close();
             }
@@ -186,10 +516,9 @@ public class RedisDao {
     public long getWaitQueueNumber(long seckillId){
 
         try{
-            Jedis jedis = jedisPool.getResource();
+            Jedis jedis = poolOf(seckillId).getResource();
             try {
-                String waitQueue = "waitQueue:" + seckillId;
-                return jedis.llen(waitQueue);
+                return jedis.llen(RedisKeys.of(seckillId).waitQueue);
             } finally {
                 jedis.close();
             }
@@ -201,28 +530,171 @@ public class RedisDao {
     }
 
     /**
-     * 将当前用户放入秒杀排队队列中并且弹出一个库存队列中的值
+     * 阻塞等待节点上有新用户进入排队队列的商品
+     * 排队队列由空变为非空时，准入脚本把商品id放入商品所在节点的就绪队列 readyItems
+     * @param node 节点下标，0到getNodeCount()-1
+     * @param timeoutSeconds 最多阻塞的秒数，必须大于0
+     * @return 商品id，超时返回null
+     * @throws redis.clients.jedis.exceptions.JedisException redis异常，由调用方退避后重试
      */
-    public boolean pushWaitQueue(long seckillId, long userPhone){
+    public Long takeReadyItem(int node, int timeoutSeconds){
+
+        Jedis jedis = pools[node].getResource();
+        try {
+            //返回 [key, value]
+            List<byte[]> item = jedis.brpop(timeoutSeconds, RedisKeys.READY_ITEMS);
+            if (item == null || item.size() < 2){
+                return null;
+            }
+            return RedisKeys.decodeLong(item.get(1));
+        } finally {
+            jedis.close();
+        }
+    }
+
+    /**
+     * 非阻塞地取出排队队列中最多max个用户，同时移入处理中队列
+     * @return 取出的用户手机号，队列为空时返回空列表
+     */
+    public List<Long> popWaitQueue(long seckillId, int max){
 
         try{
-            Jedis jedis = jedisPool.getResource();
+            Jedis jedis = poolOf(seckillId).getResource();
+            try {
+                return moveWaitQueue(jedis, seckillId, max);
+            } finally {
+                jedis.close();
+            }
+        } catch(Exception e){
+            logger.error(e.getMessage(),e);
+        }
+
+        return Collections.emptyList();
+    }
 
+    @SuppressWarnings("unchecked")
+    private List<Long> moveWaitQueue(Jedis jedis, long seckillId, int max){
+        List<byte[]> users = (List<byte[]>) popScript.eval(jedis, RedisKeys.of(seckillId).queueKeys,
+                Collections.singletonList(RedisKeys.decimal(max)));
+        List<Long> userPhones = new ArrayList<Long>(users.size());
+        for (byte[] user : users){
+            userPhones.add(RedisKeys.decodeLong(user));
+        }
+        return userPhones;
+    }
+
+    /**
+     * 获得处理中（已取出未确认）队列的大小
+     */
+    public long getProcessingNumber(long seckillId){
+
+        try{
+            Jedis jedis = poolOf(seckillId).getResource();
             try {
-                String waitQueue = "waitQueue:" + seckillId;
-                String goodsQueue = "goodsQueue:" + seckillId;
+                return jedis.llen(RedisKeys.of(seckillId).processing);
+            } finally {
+                jedis.close();
+            }
+        } catch(Exception e){
+            logger.error(e.getMessage(),e);
+        }
 
-                //判断库存队列中是否还有库存
-                if ("nil".equals(jedis.lpop(goodsQueue))){
-                    //弹出库存队列中的栈顶的值，返回nil表示栈空
-                    return false;
-                } else {
-                    String value = "user:" + userPhone;
-                    //有库存将当前用户放入排队队列等待数据库处理
-                    jedis.rpush(waitQueue,value);
-                    return true;
+        return 0;
+    }
+
+    /**
+     * 写库提交后确认，从处理中队列删除这些用户
+     */
+    public void ackWaitQueue(long seckillId, List<Long> userPhones){
+
+        try{
+            Jedis jedis = poolOf(seckillId).getResource();
+            try {
+                byte[] processing = RedisKeys.of(seckillId).processing;
+                Pipeline pipeline = jedis.pipelined();
+                for (Long userPhone : userPhones){
+                    pipeline.lrem(processing, 1, RedisKeys.encodeLong(userPhone));
                 }
+                pipeline.sync();
+            } finally {
+                jedis.close();
+            }
+        } catch(Exception e){
+            logger.error(e.getMessage(),e);
+        }
+    }
+
+    /**
+     * 写库失败可以重试时，将这批用户从处理中队列移回排队队列的出队端
+     * @return 移回的用户数，redis异常返回-1，这些用户留在处理中队列，下次获得消费租约时放回
+     */
+    public long requeueWaitQueue(long seckillId, List<Long> userPhones){
+
+        try{
+            Jedis jedis = poolOf(seckillId).getResource();
+            try {
+                Object count = requeueScript.eval(jedis, RedisKeys.of(seckillId).queueKeys,
+                        Arrays.asList(members(userPhones)));
+                return (Long) count;
+            } finally {
+                jedis.close();
+            }
+        } catch(Exception e){
+            logger.error(e.getMessage(),e);
+        }
+
+        return -1;
+    }
+
+    /**
+     * 获取商品的消费租约，多个应用节点中同一时刻只有租约的持有者消费该商品的排队队列
+     * 租约key：lease:(商品id)，值为持有者，过期时间leaseMillis；
+     * 获得租约时上一个持有者已释放或已失效，处理中队列里未确认的用户一并放回排队队列重新处理，
+     * 重复处理由insert ignore保证幂等
+     * @param owner 持有者，每个应用进程唯一
+     * @return 放回排队队列的用户数；其他持有者的租约未过期返回LEASE_HELD，redis异常返回LEASE_ERROR
+     */
+    public long acquireConsumerLease(long seckillId, String owner, long leaseMillis){
+
+        try{
+            Jedis jedis = poolOf(seckillId).getResource();
+            try {
+                Object result = leaseAcquireScript.eval(jedis, RedisKeys.of(seckillId).leaseKeys,
+                        Arrays.asList(owner.getBytes(UTF_8), RedisKeys.decimal(leaseMillis)));
+                return (Long) result;
+            } finally {
+                jedis.close();
+            }
+        } catch(Exception e){
+            logger.error(e.getMessage(),e);
+        }
+
+        return LEASE_ERROR;
+    }
+
+    /**
+     * 续约消费租约
+     * @return 是否仍然持有租约，租约已过期或redis异常返回false
+     */
+    public boolean renewConsumerLease(long seckillId, String owner, long leaseMillis){
+        return leaseCommand(seckillId, owner, leaseMillis);
+    }
+
+    /**
+     * 释放消费租约，其他节点可以立即获得
+     */
+    public void releaseConsumerLease(long seckillId, String owner){
+        leaseCommand(seckillId, owner, 0);
+    }
+
+    private boolean leaseCommand(long seckillId, String owner, long leaseMillis){
 
+        try{
+            Jedis jedis = poolOf(seckillId).getResource();
+            try {
+                Object result = leaseRenewScript.eval(jedis, Collections.singletonList(RedisKeys.of(seckillId).lease),
+                        Arrays.asList(owner.getBytes(UTF_8), RedisKeys.decimal(leaseMillis)));
+                return ((Long) result) == 1;
             } finally {
                 jedis.close();
             }
@@ -234,40 +706,73 @@ public class RedisDao {
     }
 
     /**
-     * 将排队队列中的栈顶元素弹出
+     * 记录/移除正在消费排队队列的商品，进程重启后据此恢复消费者
+     * 集合key：activeItems，记录在商品所在的节点上
      */
-    public String popWaitQueue(long seckillId){
+    public void addActiveItem(long seckillId){
 
         try{
-            Jedis jedis = jedisPool.getResource();
+            Jedis jedis = poolOf(seckillId).getResource();
             try {
-                String waitQueue = "waitQueue:" + seckillId;
-                //将当前用户从排队队列中弹出
-                String user = jedis.lpop(waitQueue);
-                return user;
+                jedis.sadd(RedisKeys.ACTIVE_ITEMS, RedisKeys.of(seckillId).id);
             } finally {
                 jedis.close();
             }
         } catch(Exception e){
             logger.error(e.getMessage(),e);
         }
+    }
 
-        return null;
+    public void removeActiveItem(long seckillId){
+
+        try{
+            Jedis jedis = poolOf(seckillId).getResource();
+            try {
+                jedis.srem(RedisKeys.ACTIVE_ITEMS, RedisKeys.of(seckillId).id);
+            } finally {
+                jedis.close();
+            }
+        } catch(Exception e){
+            logger.error(e.getMessage(),e);
+        }
+    }
+
+    /**
+     * 所有节点上的活动商品，某个节点异常时跳过该节点
+     */
+    public Set<Long> getActiveItems(){
+
+        Set<Long> items = new HashSet<Long>();
+        for (JedisPool pool : pools){
+            try{
+                Jedis jedis = pool.getResource();
+                try {
+                    for (byte[] item : jedis.smembers(RedisKeys.ACTIVE_ITEMS)){
+                        items.add(RedisKeys.decodeLong(item));
+                    }
+                } finally {
+                    jedis.close();
+                }
+            } catch(Exception e){
+                logger.error(e.getMessage(),e);
+            }
+        }
+
+        return items;
     }
 
     /**
-     * 将用户插入到结果队列中
+     * 将用户加入到秒杀成功集合中
      * @param seckillId
-     * @param user
-     * @return
+     * @param userPhones
+     * @return 新加入的个数，已存在的不计算在内
      */
-    public long pushUserToResultsQueue(long seckillId, String user){
+    public long pushUserToResultsQueue(long seckillId, List<Long> userPhones){
 
         try{
-            Jedis jedis = jedisPool.getResource();
+            Jedis jedis = poolOf(seckillId).getResource();
             try {
-                String resultsQueue = "resultsQueue:" + seckillId;
-                long result = jedis.rpush(resultsQueue, user);
+                long result = jedis.sadd(RedisKeys.of(seckillId).results, members(userPhones));
                 return result;
             } finally {
                 jedis.close();
@@ -280,15 +785,14 @@ public class RedisDao {
     }
 
     /**
-     * 将插入失败的记录放入失败队列中
+     * 将写库失败的用户放入失败集合中 failures:(商品id)
      */
-    public long pushUserToFailureQueue(long seckillId, String user){
+    public long pushUserToFailureQueue(long seckillId, List<Long> userPhones){
 
         try{
-            Jedis jedis = jedisPool.getResource();
+            Jedis jedis = poolOf(seckillId).getResource();
             try {
-                String failureQueue = "failureQueue:" + seckillId;
-                long result =jedis.rpush(failureQueue,user);
+                long result = jedis.sadd(RedisKeys.of(seckillId).failures, members(userPhones));
                 return result;
             } finally {
                 jedis.close();
@@ -299,6 +803,50 @@ public class RedisDao {
         return 0;
     }
 
+    private static byte[][] members(List<Long> userPhones){
+        byte[][] members = new byte[userPhones.size()][];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = RedisKeys.encodeLong(userPhones.get(i));
+        }
+        return members;
+    }
+
+    /**
+     * 向频道发布消息，发布和订阅都在第一个节点上
+     * @param channel
+     * @param message
+     * @return 收到消息的订阅者数量
+     */
+    public long publish(String channel, String message){
+
+        try{
+            Jedis jedis = pools[0].getResource();
+            try {
+                return jedis.publish(channel, message);
+            } finally {
+                jedis.close();
+            }
+        } catch(Exception e){
+            logger.error(e.getMessage(),e);
+        }
+        return 0;
+    }
+
+    /**
+     * 按模式订阅频道，该方法会一直阻塞直到取消订阅
+     * 连接异常直接抛出，由调用方决定是否重连
+     * @param pubSub
+     * @param pattern
+     */
+    public void psubscribe(JedisPubSub pubSub, String pattern){
+        Jedis jedis = pools[0].getResource();
+        try {
+            jedis.psubscribe(pubSub, pattern);
+        } finally {
+            jedis.close();
+        }
+    }
+
     /**
      * 判断用户是否秒杀成功
      * @param userPhone
@@ -0,0 +1,125 @@
+package org.seckill.dao.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 基于redis发布/订阅的节点间事件总线
+ * 所有频道都以"seckill."开头，由一个后台线程统一按模式订阅，再按频道分发给本地监听器，
+ * 这样不管注册多少监听器每个节点都只占用一个订阅连接
+ */
+public class RedisEventBus {
+
+    /**
+     * 事件监听器，在订阅线程中回调，不能执行耗时操作
+     */
+    public interface Listener {
+        void onEvent(String message);
+    }
+
+    private static final String PATTERN = "seckill.*";
+
+    //订阅连接断开后的重连间隔
+    private static final long RECONNECT_INTERVAL = 3000;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final RedisDao redisDao;
+
+    private final ConcurrentMap<String, List<Listener>> listeners =
+            new ConcurrentHashMap<String, List<Listener>>();
+
+    private volatile boolean running;
+
+    private volatile JedisPubSub pubSub;
+
+    private Thread thread;
+
+    public RedisEventBus(RedisDao redisDao){
+        this.redisDao = redisDao;
+    }
+
+    public void addListener(String channel, Listener listener){
+        List<Listener> list = listeners.get(channel);
+        if (list == null){
+            List<Listener> created = new CopyOnWriteArrayList<Listener>();
+            list = listeners.putIfAbsent(channel, created);
+            if (list == null){
+                list = created;
+            }
+        }
+        list.add(listener);
+    }
+
+    /**
+     * 广播事件，本节点同样会收到该事件
+     */
+    public void publish(String channel, String message){
+        redisDao.publish(channel, message);
+    }
+
+    public void start(){
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running){
+                    pubSub = new JedisPubSub() {
+                        @Override
+                        public void onPMessage(String pattern, String channel, String message) {
+                            dispatch(channel, message);
+                        }
+                    };
+                    try {
+                        //阻塞直到取消订阅或连接断开
+                        redisDao.psubscribe(pubSub, PATTERN);
+                    } catch (Exception e){
+                        if (running){
+                            logger.warn("redis event bus disconnected: {}", e.getMessage());
+                        }
+                    }
+                    if (running){
+                        try {
+                            Thread.sleep(RECONNECT_INTERVAL);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }, "redis-event-bus");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop(){
+        running = false;
+        JedisPubSub current = pubSub;
+        if (current != null && current.isSubscribed()){
+            current.punsubscribe();
+        }
+        if (thread != null){
+            thread.interrupt();
+        }
+    }
+
+    private void dispatch(String channel, String message){
+        List<Listener> list = listeners.get(channel);
+        if (list == null){
+            return;
+        }
+        for (Listener listener : list){
+            try {
+                listener.onEvent(message);
+            } catch (Exception e){
+                logger.error(e.getMessage(), e);
+            }
+        }
+    }
+}
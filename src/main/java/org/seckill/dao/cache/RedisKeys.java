@@ -0,0 +1,157 @@
+package org.seckill.dao.cache;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * redis的key和成员的二进制编码
+ * 商品的key为 固定前缀 + 8字节大端序的商品id，用户成员为8字节大端序的手机号，商品成员为8字节的商品id；
+ * 前缀保留原来的名字，仍然可以按 stock:* 这样的模式扫描。
+ * 一个商品的所有key只在第一次访问时生成，之后从直接映射的槽位中取出，命中时不分配任何对象
+ */
+final class RedisKeys {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    //就绪队列和活动商品集合，不属于某个商品，每个redis节点一份
+    static final byte[] READY_ITEMS = ascii("readyItems");
+
+    static final byte[] ACTIVE_ITEMS = ascii("activeItems");
+
+    private static final byte[] SECKILL = ascii("seckill:");
+    private static final byte[] STOCK = ascii("stock:");
+    private static final byte[] USERS = ascii("users:");
+    private static final byte[] WAIT_QUEUE = ascii("waitQueue:");
+    private static final byte[] PROCESSING = ascii("processing:");
+    private static final byte[] RESULTS = ascii("results:");
+    private static final byte[] FAILURES = ascii("failures:");
+    private static final byte[] LEASE = ascii("lease:");
+    private static final byte[] PENDING = ascii("pending:");
+
+    //槽位数，同时在售的商品远少于槽位数，冲突时重新生成即可
+    private static final int SLOTS = 1024;
+
+    //不加锁：ItemKeys的字段都是final的，其他线程要么看到完整的对象，要么看到旧值或null后自己生成
+    private static final ItemKeys[] slots = new ItemKeys[SLOTS];
+
+    private RedisKeys() {
+    }
+
+    /**
+     * 商品的全部key
+     */
+    static ItemKeys of(long seckillId){
+        int index = (int) (seckillId ^ (seckillId >>> 32)) * 0x9E3779B9 >>> 22;
+        ItemKeys keys = slots[index];
+        if (keys == null || keys.seckillId != seckillId){
+            keys = new ItemKeys(seckillId);
+            slots[index] = keys;
+        }
+        return keys;
+    }
+
+    /**
+     * 8字节大端序编码，用于手机号和商品id
+     */
+    static byte[] encodeLong(long value){
+        byte[] bytes = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+        return bytes;
+    }
+
+    static long decodeLong(byte[] bytes){
+        if (bytes.length != 8){
+            throw new IllegalArgumentException("illegal long member, length=" + bytes.length);
+        }
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xff);
+        }
+        return value;
+    }
+
+    /**
+     * 解析redis计数器的十进制文本，不经过String
+     */
+    static long parseDecimal(byte[] bytes){
+        if (bytes.length == 0){
+            throw new NumberFormatException("empty counter");
+        }
+        boolean negative = bytes[0] == '-';
+        long value = 0;
+        for (int i = negative ? 1 : 0; i < bytes.length; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9){
+                throw new NumberFormatException("illegal counter: " + new String(bytes, ASCII));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    static byte[] decimal(long value){
+        return ascii(Long.toString(value));
+    }
+
+    private static byte[] ascii(String s){
+        return s.getBytes(ASCII);
+    }
+
+    private static byte[] concat(byte[] prefix, byte[] id){
+        byte[] key = Arrays.copyOf(prefix, prefix.length + id.length);
+        System.arraycopy(id, 0, key, prefix.length, id.length);
+        return key;
+    }
+
+    /**
+     * 一个商品的key，生成后不再修改
+     */
+    static final class ItemKeys {
+
+        final long seckillId;
+
+        //商品id成员，放入就绪队列和活动商品集合
+        final byte[] id;
+
+        final byte[] seckill;
+        final byte[] stock;
+        final byte[] users;
+        final byte[] waitQueue;
+        final byte[] processing;
+        final byte[] results;
+        final byte[] failures;
+        final byte[] lease;
+        final byte[] pending;
+
+        //seckill_admit.lua的KEYS
+        final List<byte[]> admitKeys;
+
+        //seckill_pop.lua和seckill_requeue.lua的KEYS
+        final List<byte[]> queueKeys;
+
+        //seckill_lease_acquire.lua的KEYS
+        final List<byte[]> leaseKeys;
+
+        private ItemKeys(long seckillId) {
+            this.seckillId = seckillId;
+            this.id = encodeLong(seckillId);
+            this.seckill = concat(SECKILL, id);
+            this.stock = concat(STOCK, id);
+            this.users = concat(USERS, id);
+            this.waitQueue = concat(WAIT_QUEUE, id);
+            this.processing = concat(PROCESSING, id);
+            this.results = concat(RESULTS, id);
+            this.failures = concat(FAILURES, id);
+            this.lease = concat(LEASE, id);
+            this.pending = concat(PENDING, id);
+            this.admitKeys = Collections.unmodifiableList(Arrays.asList(stock, users, waitQueue, READY_ITEMS));
+            this.queueKeys = Collections.unmodifiableList(Arrays.asList(waitQueue, processing));
+            this.leaseKeys = Collections.unmodifiableList(Arrays.asList(lease, waitQueue, processing));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.seckill.dao.cache;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * redis节点的一致性哈希环，按商品id选择节点
+ * 每个节点按名称（host:port）的MD5在环上放置VIRTUAL_NODES个虚拟节点，商品id散列后顺时针找到第一个虚拟节点；
+ * 位置只由节点名称决定，与配置顺序无关，增加一个节点只迁移约1/(N+1)的商品，且都迁移到新节点上。
+ * 环保存在排序的数组中，查找是一次二分查找，不分配对象
+ */
+final class RedisRing {
+
+    //每个节点的虚拟节点数，越多分布越均匀
+    static final int VIRTUAL_NODES = 160;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //虚拟节点在环上的位置，升序
+    private final long[] points;
+
+    //虚拟节点所属节点在配置中的下标
+    private final int[] owners;
+
+    RedisRing(List<String> names) {
+        int size = names.size() * VIRTUAL_NODES;
+        long[][] entries = new long[size][];
+        int n = 0;
+        for (int node = 0; node < names.size(); node++) {
+            //一次MD5得到两个位置
+            for (int i = 0; i < VIRTUAL_NODES / 2; i++) {
+                byte[] digest = md5(names.get(node) + "-" + i);
+                entries[n++] = new long[]{toLong(digest, 0), node};
+                entries[n++] = new long[]{toLong(digest, 8), node};
+            }
+        }
+        Arrays.sort(entries, 0, n, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] o1, long[] o2) {
+                int c = Long.compare(o1[0], o2[0]);
+                //位置相同（几乎不会发生）时按节点下标，保证各进程结果一致
+                return c != 0 ? c : Long.compare(o1[1], o2[1]);
+            }
+        });
+        points = new long[n];
+        owners = new int[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = entries[i][0];
+            owners[i] = (int) entries[i][1];
+        }
+    }
+
+    /**
+     * 商品所在节点在配置中的下标
+     */
+    int nodeOf(long seckillId){
+        int index = Arrays.binarySearch(points, hash(seckillId));
+        if (index < 0){
+            index = -index - 1;
+            if (index == points.length){
+                index = 0;
+            }
+        }
+        return owners[index];
+    }
+
+    /**
+     * 连续的商品id散列到整个环上
+     */
+    private static long hash(long seckillId){
+        long h = seckillId;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static byte[] md5(String value){
+        try {
+            return MessageDigest.getInstance("MD5").digest(value.getBytes(UTF_8));
+        } catch (NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long toLong(byte[] bytes, int offset){
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+}
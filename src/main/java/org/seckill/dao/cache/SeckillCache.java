@@ -0,0 +1,261 @@
+package org.seckill.dao.cache;
+
+import org.seckill.entity.Seckill;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 秒杀商品两级缓存
+ * L1：进程内LocalCache，限制条目数和存活时间；L2：redis
+ * 通过put写入时广播失效消息，其他节点删除L1中的旧值，下次读取时从redis加载新值
+ * 取出的Seckill在线程之间共享，不能修改
+ */
+public class SeckillCache {
+
+    /**
+     * 两级缓存都没有（或需要提前刷新）时从数据库加载
+     */
+    public interface Loader {
+        Seckill load(long seckillId);
+    }
+
+    //提前刷新的系数，越大越早刷新
+    private static final double BETA = 1.0;
+
+    //还没有加载过的商品，假定的加载耗时（毫秒）
+    private static final long DEFAULT_LOAD_MILLIS = 10;
+
+    //失效消息的频道，商品列表页缓存也订阅该频道
+    public static final String CHANNEL = "seckill.invalidate";
+
+    private final RedisDao redisDao;
+
+    private final RedisEventBus redisEventBus;
+
+    private final LocalCache<Long, Seckill> local;
+
+    private final long localTtlMillis;
+
+    //seckillId -> 正在进行的加载，同一商品同一时刻只有一个
+    private final ConcurrentMap<Long, FutureTask<Seckill>> loading =
+            new ConcurrentHashMap<Long, FutureTask<Seckill>>();
+
+    //seckillId -> 最近一次从数据库加载并写入缓存的耗时（毫秒）
+    private final ConcurrentMap<Long, Long> loadMillis = new ConcurrentHashMap<Long, Long>();
+
+    private final LongAdder loads = new LongAdder();
+
+    private final LongAdder earlyRefreshes = new LongAdder();
+
+    private final LongAdder loadWaits = new LongAdder();
+
+    //本节点标识，忽略自己发出的失效消息
+    private final String nodeId = UUID.randomUUID().toString();
+
+    public SeckillCache(RedisDao redisDao, RedisEventBus redisEventBus, int maxSize, int ttlSeconds) {
+        this.redisDao = redisDao;
+        this.redisEventBus = redisEventBus;
+        this.localTtlMillis = ttlSeconds * 1000L;
+        this.local = new LocalCache<Long, Seckill>(maxSize, localTtlMillis);
+        redisEventBus.addListener(CHANNEL, new RedisEventBus.Listener() {
+            @Override
+            public void onEvent(String message) {
+                //消息格式：nodeId:seckillId
+                int index = message.lastIndexOf(':');
+                if (!nodeId.equals(message.substring(0, index))){
+                    local.invalidate(Long.parseLong(message.substring(index + 1)));
+                }
+            }
+        });
+    }
+
+    /**
+     * 先读L1，未命中再读redis并写入L1
+     * @return 两级缓存都没有时返回null
+     */
+    public Seckill get(long seckillId){
+        Seckill seckill = local.get(seckillId);
+        if (seckill == null){
+            seckill = redisDao.getSeckill(seckillId);
+            if (seckill != null){
+                local.put(seckillId, seckill);
+            }
+        }
+        return seckill;
+    }
+
+    /**
+     * 读取秒杀商品，缓存中没有时通过loader加载并写入两级缓存
+     * 1. 单飞：L1未命中后，同一商品在本节点同一时刻只有一个线程访问redis和数据库，其他线程等待它的结果，
+     *    redis中的key过期时每个节点最多一个请求查询数据库
+     * 2. 提前刷新（XFetch）：从redis读到的值满足
+     *    now + L1存活时间 + 加载耗时 × BETA × (-ln(random)) >= 过期时间 时直接重新加载。
+     *    本节点下一次读redis最晚在L1存活时间之后，所以要把它算进去；越接近过期、加载越慢，越可能提前刷新，
+     *    各节点在过期前随机地刷新一次，热点key不会在高峰期过期。提前刷新失败时仍然返回redis中的值
+     * @return 数据库中也没有时返回null
+     */
+    public Seckill get(final long seckillId, final Loader loader){
+        Seckill seckill = local.get(seckillId);
+        if (seckill != null){
+            return seckill;
+        }
+        FutureTask<Seckill> task = new FutureTask<Seckill>(new Callable<Seckill>() {
+            @Override
+            public Seckill call() throws Exception {
+                return readThrough(seckillId, loader);
+            }
+        });
+        FutureTask<Seckill> running = loading.putIfAbsent(seckillId, task);
+        if (running == null){
+            try {
+                task.run();
+            } finally {
+                loading.remove(seckillId, task);
+            }
+            running = task;
+        } else {
+            loadWaits.increment();
+        }
+        try {
+            return running.get();
+        } catch (ExecutionException e){
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException){
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error){
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while loading seckill " + seckillId, e);
+        }
+    }
+
+    private Seckill readThrough(long seckillId, Loader loader){
+        CachedSeckill cached = redisDao.getSeckillEntry(seckillId);
+        if (cached != null && !shouldRefresh(seckillId, cached.getExpireAt())){
+            local.put(seckillId, cached.getSeckill());
+            return cached.getSeckill();
+        }
+        long start = System.currentTimeMillis();
+        Seckill seckill;
+        try {
+            seckill = loader.load(seckillId);
+        } catch (RuntimeException e){
+            if (cached == null){
+                throw e;
+            }
+            //提前刷新失败，redis中的值还没有过期
+            local.put(seckillId, cached.getSeckill());
+            return cached.getSeckill();
+        }
+        if (seckill != null){
+            put(seckill);
+            loadMillis.put(seckillId, Math.max(1, System.currentTimeMillis() - start));
+            if (cached == null){
+                loads.increment();
+            } else {
+                earlyRefreshes.increment();
+            }
+        }
+        return seckill;
+    }
+
+    private boolean shouldRefresh(long seckillId, long expireAt){
+        Long delta = loadMillis.get(seckillId);
+        double gap = (delta == null ? DEFAULT_LOAD_MILLIS : delta) * BETA
+                * -Math.log(ThreadLocalRandom.current().nextDouble());
+        return System.currentTimeMillis() + localTtlMillis + gap >= expireAt;
+    }
+
+    /**
+     * 批量读取，L1未命中的商品通过一次MGET从redis读取
+     * @return seckillId -> Seckill，只包含两级缓存中存在的商品
+     */
+    public Map<Long, Seckill> getAll(List<Long> seckillIds){
+        Map<Long, Seckill> seckills = new HashMap<Long, Seckill>();
+        List<Long> misses = new ArrayList<Long>();
+        for (Long seckillId : seckillIds){
+            Seckill seckill = local.get(seckillId);
+            if (seckill == null){
+                misses.add(seckillId);
+            } else {
+                seckills.put(seckillId, seckill);
+            }
+        }
+        if (!misses.isEmpty()){
+            for (Map.Entry<Long, Seckill> entry : redisDao.getSeckills(misses).entrySet()){
+                local.put(entry.getKey(), entry.getValue());
+                seckills.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return seckills;
+    }
+
+    /**
+     * 写入redis和L1，并通知其他节点删除L1中的旧值
+     */
+    public void put(Seckill seckill){
+        redisDao.pubSeckill(seckill);
+        local.put(seckill.getSeckillId(), seckill);
+        redisEventBus.publish(CHANNEL, nodeId + ":" + seckill.getSeckillId());
+    }
+
+    /**
+     * 批量写入，redis通过一次pipeline写入
+     */
+    public void putAll(List<Seckill> seckills){
+        redisDao.pubSeckills(seckills);
+        for (Seckill seckill : seckills){
+            local.put(seckill.getSeckillId(), seckill);
+            redisEventBus.publish(CHANNEL, nodeId + ":" + seckill.getSeckillId());
+        }
+    }
+
+    /**
+     * 数据库中的商品被修改后调用，删除redis和所有节点的L1，下次读取时从数据库重新加载
+     */
+    public void invalidate(long seckillId){
+        redisDao.removeSeckill(seckillId);
+        local.invalidate(seckillId);
+        redisEventBus.publish(CHANNEL, nodeId + ":" + seckillId);
+    }
+
+    public LocalCache<Long, Seckill> getLocal() {
+        return local;
+    }
+
+    /**
+     * redis中没有、从数据库加载的次数
+     */
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    /**
+     * 过期前提前刷新的次数
+     */
+    public long getEarlyRefreshes() {
+        return earlyRefreshes.sum();
+    }
+
+    /**
+     * 等待其他线程加载结果的次数
+     */
+    public long getLoadWaits() {
+        return loadWaits.sum();
+    }
+}
@@ -0,0 +1,44 @@
+package org.seckill.dao.cache;
+
+import com.dyuproject.protostuff.LinkedBuffer;
+import com.dyuproject.protostuff.ProtostuffIOUtil;
+import com.dyuproject.protostuff.runtime.RuntimeSchema;
+import org.seckill.entity.Seckill;
+
+/**
+ * 秒杀商品的protostuff序列化
+ * jedis默认没有实现内部序列化操作，所以不能直接放对象，
+ * 采用自定义序列化：protostuff时间快一倍，空间压缩5-10分之一
+ * 序列化使用线程本地的缓冲区，每次写缓存不再分配新的LinkedBuffer
+ */
+public final class SeckillCodec {
+
+    private static final RuntimeSchema<Seckill> SCHEMA = RuntimeSchema.createFrom(Seckill.class);
+
+    private static final ThreadLocal<LinkedBuffer> BUFFER = new ThreadLocal<LinkedBuffer>(){
+        @Override
+        protected LinkedBuffer initialValue() {
+            return LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE);
+        }
+    };
+
+    private SeckillCodec() {
+    }
+
+    public static byte[] encode(Seckill seckill){
+        //如果对象比较大，使用默认的缓存提高速度；用完清空，下次从头写入
+        LinkedBuffer buffer = BUFFER.get();
+        try {
+            return ProtostuffIOUtil.toByteArray(seckill, SCHEMA, buffer);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    public static Seckill decode(byte[] bytes){
+        //创建个空对象用于写入反序列化对象
+        Seckill seckill = SCHEMA.newMessage();
+        ProtostuffIOUtil.mergeFrom(bytes, seckill, SCHEMA);
+        return seckill;
+    }
+}
@@ -0,0 +1,85 @@
+package org.seckill.dto;
+
+/**
+ * 单个商品的对账结果：本节点订单日志、redis库存计数和数据库库存
+ */
+public class Reconciliation {
+
+    private final long seckillId;
+
+    //本节点日志中该商品的订单数（按用户去重）
+    private final long journaled;
+
+    //日志中的订单已写入success_killed的数量
+    private final long persisted;
+
+    //redis库存计数
+    private final long redisStock;
+
+    //redis排队队列和处理中队列的订单数，已扣减redis库存但还未写库
+    private final long queued;
+
+    //数据库库存：seckill.number，库存已分片时为各分片之和
+    private final long dbStock;
+
+    public Reconciliation(long seckillId, long journaled, long persisted,
+                          long redisStock, long queued, long dbStock) {
+        this.seckillId = seckillId;
+        this.journaled = journaled;
+        this.persisted = persisted;
+        this.redisStock = redisStock;
+        this.queued = queued;
+        this.dbStock = dbStock;
+    }
+
+    public long getSeckillId() {
+        return seckillId;
+    }
+
+    public long getJournaled() {
+        return journaled;
+    }
+
+    public long getPersisted() {
+        return persisted;
+    }
+
+    /**
+     * 本节点日志中还没有写库的订单数，排队消费者写库或日志补写后归零
+     */
+    public long getUnpersisted() {
+        return journaled - persisted;
+    }
+
+    public long getRedisStock() {
+        return redisStock;
+    }
+
+    public long getQueued() {
+        return queued;
+    }
+
+    public long getDbStock() {
+        return dbStock;
+    }
+
+    /**
+     * 已扣减redis库存、既不在排队队列中也没有写库的订单数：
+     * 消费者写库失败或redis丢失了排队数据，应由各节点的日志补写；正常情况为0
+     */
+    public long getUnexplained() {
+        return dbStock - redisStock - queued;
+    }
+
+    @Override
+    public String toString() {
+        return "Reconciliation{" +
+                "seckillId=" + seckillId +
+                ", journaled=" + journaled +
+                ", persisted=" + persisted +
+                ", redisStock=" + redisStock +
+                ", queued=" + queued +
+                ", dbStock=" + dbStock +
+                '}';
+    }
+}
@@ -0,0 +1,47 @@
+package org.seckill.dto;
+
+import org.seckill.entity.Seckill;
+
+import java.util.List;
+
+/**
+ * 秒杀商品列表的一页
+ * 缓存后在线程之间共享，不能修改
+ */
+public class SeckillPage {
+
+    //本页的秒杀商品，按创建时间倒序
+    private List<Seckill> list;
+
+    //下一页的游标，没有下一页时为null
+    private String next;
+
+    public SeckillPage(List<Seckill> list, String next) {
+        this.list = list;
+        this.next = next;
+    }
+
+    public List<Seckill> getList() {
+        return list;
+    }
+
+    public void setList(List<Seckill> list) {
+        this.list = list;
+    }
+
+    public String getNext() {
+        return next;
+    }
+
+    public void setNext(String next) {
+        this.next = next;
+    }
+
+    @Override
+    public String toString() {
+        return "SeckillPage{" +
+                "list=" + list +
+                ", next='" + next + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,95 @@
+package org.seckill.dto;
+
+import org.seckill.enums.WarmupStateEnum;
+
+/**
+ * 单个商品的预热状态，不可变，状态变化时整体替换
+ */
+public class WarmupStatus {
+
+    private final long seckillId;
+
+    //秒杀开始时间
+    private final long startTime;
+
+    //秒杀结束时间
+    private final long endTime;
+
+    //计划预热的时间
+    private final long warmupTime;
+
+    private final WarmupStateEnum stateEnum;
+
+    //预热耗时（毫秒），完成或失败后才有值
+    private final long elapsed;
+
+    //失败原因
+    private final String error;
+
+    public WarmupStatus(long seckillId, long startTime, long endTime, long warmupTime) {
+        this(seckillId, startTime, endTime, warmupTime, WarmupStateEnum.PENDING, 0, null);
+    }
+
+    private WarmupStatus(long seckillId, long startTime, long endTime, long warmupTime,
+                         WarmupStateEnum stateEnum, long elapsed, String error) {
+        this.seckillId = seckillId;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.warmupTime = warmupTime;
+        this.stateEnum = stateEnum;
+        this.elapsed = elapsed;
+        this.error = error;
+    }
+
+    public WarmupStatus to(WarmupStateEnum stateEnum, long elapsed, String error){
+        return new WarmupStatus(seckillId, startTime, endTime, warmupTime, stateEnum, elapsed, error);
+    }
+
+    public long getSeckillId() {
+        return seckillId;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public long getWarmupTime() {
+        return warmupTime;
+    }
+
+    public int getState() {
+        return stateEnum.getState();
+    }
+
+    public String getStateInfo() {
+        return stateEnum.getStateInfo();
+    }
+
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public WarmupStateEnum stateEnum() {
+        return stateEnum;
+    }
+
+    @Override
+    public String toString() {
+        return "WarmupStatus{" +
+                "seckillId=" + seckillId +
+                ", startTime=" + startTime +
+                ", warmupTime=" + warmupTime +
+                ", state=" + stateEnum +
+                ", elapsed=" + elapsed +
+                ", error='" + error + '\'' +
+                '}';
+    }
+}
@@ -19,6 +19,9 @@ public class Seckill {
 
     private Date createTime;
 
+    //库存分片数，0表示库存在seckill表的number中；大于0时库存拆分在seckill_stock表中
+    private int stockShards;
+
     public long getSeckillId() {
         return seckillId;
     }
@@ -67,6 +70,14 @@ public class Seckill {
         this.createTime = createTime;
     }
 
+    public int getStockShards() {
+        return stockShards;
+    }
+
+    public void setStockShards(int stockShards) {
+        this.stockShards = stockShards;
+    }
+
     @Override
     public String toString() {
         return "Seckill{" +
@@ -76,6 +87,7 @@ public class Seckill {
                 ", startTime=" + startTime +
                 ", endTime=" + endTime +
                 ", createTime=" + createTime +
+                ", stockShards=" + stockShards +
                 '}';
     }
 }
@@ -0,0 +1,47 @@
+package org.seckill.entity;
+
+/**
+ * 秒杀商品的一个库存分片，对应seckill_stock表的一行
+ */
+public class SeckillStock {
+
+    private long seckillId;
+
+    //分片序号，从0开始
+    private int shardNo;
+
+    private int number;
+
+    public long getSeckillId() {
+        return seckillId;
+    }
+
+    public void setSeckillId(long seckillId) {
+        this.seckillId = seckillId;
+    }
+
+    public int getShardNo() {
+        return shardNo;
+    }
+
+    public void setShardNo(int shardNo) {
+        this.shardNo = shardNo;
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    public void setNumber(int number) {
+        this.number = number;
+    }
+
+    @Override
+    public String toString() {
+        return "SeckillStock{" +
+                "seckillId=" + seckillId +
+                ", shardNo=" + shardNo +
+                ", number=" + number +
+                '}';
+    }
+}
@@ -5,11 +5,14 @@ package org.seckill.enums;
  * Created by 徐豪 on 2017/7/28/028.
  */
 public enum  SeckillStatEnum {
+    QUEUED(2, "排队中"),
     SUCCESS(1, "秒杀成功"),
     END(0, "秒杀结束"),
     REPEAT_KILL(-1, "重复秒杀"),
     INNER_ERROR(-2, "系统异常"),
-    DATA_REWRITE(-3, "数据篡改");
+    DATA_REWRITE(-3, "数据篡改"),
+    BUSY(-4, "系统繁忙，请稍后重试"),
+    TOO_FREQUENT(-5, "请求过于频繁，请稍后重试");
 
     private int state;
     private String stateInfo;
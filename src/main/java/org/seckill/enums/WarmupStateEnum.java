@@ -0,0 +1,27 @@
+package org.seckill.enums;
+
+/**
+ * 开售前预热状态
+ */
+public enum WarmupStateEnum {
+    PENDING(0, "等待预热"),
+    RUNNING(1, "预热中"),
+    READY(2, "预热完成"),
+    FAILED(-1, "预热失败");
+
+    private int state;
+    private String stateInfo;
+
+    WarmupStateEnum(int state, String stateInfo) {
+        this.state = state;
+        this.stateInfo = stateInfo;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    public String getStateInfo() {
+        return stateInfo;
+    }
+}
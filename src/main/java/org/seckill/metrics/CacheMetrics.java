@@ -0,0 +1,76 @@
+package org.seckill.metrics;
+
+import org.seckill.dao.cache.LocalCache;
+import org.seckill.dao.cache.SeckillCache;
+import org.seckill.service.support.SeckillPageCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * 注册进程内缓存的命中、未命中、淘汰和条目数指标，以及秒杀商品缓存的加载、提前刷新和单飞等待次数
+ */
+@Component
+public class CacheMetrics {
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Autowired
+    private SeckillCache seckillCache;
+
+    @Autowired
+    private SeckillPageCache seckillPageCache;
+
+    @PostConstruct
+    public void init(){
+        bind("seckill_cache_l1", seckillCache.getLocal());
+        bind("seckill_page_cache", seckillPageCache.getLocal());
+        metricsRegistry.counter("seckill_cache_loads_total", new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                return seckillCache.getLoads();
+            }
+        });
+        metricsRegistry.counter("seckill_cache_early_refreshes_total", new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                return seckillCache.getEarlyRefreshes();
+            }
+        });
+        metricsRegistry.counter("seckill_cache_load_waits_total", new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                return seckillCache.getLoadWaits();
+            }
+        });
+    }
+
+    private void bind(String prefix, final LocalCache<?, ?> cache){
+        metricsRegistry.counter(prefix + "_hits_total", new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                return cache.getHits();
+            }
+        });
+        metricsRegistry.counter(prefix + "_misses_total", new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                return cache.getMisses();
+            }
+        });
+        metricsRegistry.counter(prefix + "_evictions_total", new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                return cache.getEvictions();
+            }
+        });
+        metricsRegistry.gauge(prefix + "_size", new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                return cache.size();
+            }
+        });
+    }
+}
@@ -0,0 +1,93 @@
+package org.seckill.metrics;
+
+import com.mchange.v2.c3p0.PooledDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.sql.SQLException;
+
+/**
+ * 注册c3p0连接池的连接数、使用中连接数、等待连接的线程数和获取连接的耗时指标
+ */
+@Component
+public class DataSourceMetrics {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Autowired(required = false)
+    private PooledDataSource pooledDataSource;
+
+    @Autowired(required = false)
+    private TimedDataSource timedDataSource;
+
+    @PostConstruct
+    public void init(){
+        if (timedDataSource != null){
+            metricsRegistry.histogram("seckill_db_connection_checkout_micros", timedDataSource.getCheckoutLatency());
+        }
+        if (pooledDataSource == null){
+            return;
+        }
+        metricsRegistry.gauge("seckill_db_pool_connections", new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                try {
+                    return pooledDataSource.getNumConnectionsDefaultUser();
+                } catch (SQLException e){
+                    return failed(e);
+                }
+            }
+        });
+        metricsRegistry.gauge("seckill_db_pool_busy_connections", new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                try {
+                    return pooledDataSource.getNumBusyConnectionsDefaultUser();
+                } catch (SQLException e){
+                    return failed(e);
+                }
+            }
+        });
+        metricsRegistry.gauge("seckill_db_pool_idle_connections", new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                try {
+                    return pooledDataSource.getNumIdleConnectionsDefaultUser();
+                } catch (SQLException e){
+                    return failed(e);
+                }
+            }
+        });
+        metricsRegistry.gauge("seckill_db_pool_threads_awaiting_checkout", new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                try {
+                    return pooledDataSource.getNumThreadsAwaitingCheckoutDefaultUser();
+                } catch (SQLException e){
+                    return failed(e);
+                }
+            }
+        });
+        metricsRegistry.counter("seckill_db_pool_failed_checkouts_total", new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                try {
+                    return pooledDataSource.getNumFailedCheckoutsDefaultUser();
+                } catch (SQLException e){
+                    return failed(e);
+                }
+            }
+        });
+    }
+
+    private long failed(SQLException e){
+        logger.warn("read c3p0 pool status failed: {}", e.getMessage());
+        return -1;
+    }
+}
@@ -0,0 +1,72 @@
+package org.seckill.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 固定分桶的直方图，记录时只做一次数组查找和几次LongAdder累加，不加锁
+ */
+public class Histogram {
+
+    private final long[] bounds;
+
+    //buckets[i]记录 <= bounds[i] 的个数，最后一个桶记录超过所有上界的值
+    private final LongAdder[] buckets;
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final AtomicLong max = new AtomicLong();
+
+    public Histogram(long... bounds) {
+        this.bounds = bounds.clone();
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long value){
+        int i = 0;
+        while (i < bounds.length && value > bounds[i]){
+            i++;
+        }
+        buckets[i].increment();
+        count.increment();
+        sum.add(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)){
+            current = max.get();
+        }
+    }
+
+    public long[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * 各个桶的累计个数（<= 上界），与getBounds一一对应，最后一个是总数
+     */
+    public long[] getCumulativeCounts(){
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i].sum();
+            counts[i] = total;
+        }
+        return counts;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+}
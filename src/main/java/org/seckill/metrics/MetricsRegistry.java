@@ -0,0 +1,172 @@
+package org.seckill.metrics;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内指标注册表，按名称获取或创建指标，
+ * 输出为prometheus文本格式供采集端定时拉取；
+ * 带标签的指标名称由name(...)生成，如 seckill_wait_queue_depth{seckill_id="1000"}
+ */
+@Component
+public class MetricsRegistry {
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+    //由其他对象维护数值的指标，采集时读取取值
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+    private final ConcurrentMap<String, String> gaugeTypes = new ConcurrentHashMap<String, String>();
+
+    /**
+     * 采集时读取的指标值
+     */
+    public interface Gauge {
+        long value();
+    }
+
+    /**
+     * 生成带标签的指标名称
+     * @param labels 标签名和标签值交替排列
+     */
+    public static String name(String name, String... labels){
+        if (labels.length == 0){
+            return name;
+        }
+        StringBuilder sb = new StringBuilder(name).append('{');
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0){
+                sb.append(',');
+            }
+            sb.append(labels[i]).append("=\"").append(labels[i + 1]).append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    public LongAdder counter(String name){
+        LongAdder counter = counters.get(name);
+        if (counter == null){
+            LongAdder created = new LongAdder();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null){
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * 获取直方图，第一次获取时按bounds创建，之后bounds被忽略
+     */
+    public Histogram histogram(String name, long... bounds){
+        Histogram histogram = histograms.get(name);
+        if (histogram == null){
+            Histogram created = new Histogram(bounds);
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null){
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * 注册由其他对象创建的直方图
+     */
+    public void histogram(String name, Histogram histogram){
+        histograms.put(name, histogram);
+    }
+
+    /**
+     * 注册瞬时值指标，如队列长度
+     */
+    public void gauge(String name, Gauge gauge){
+        gaugeTypes.put(name, "gauge");
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * 注册由其他对象累计的计数指标，如缓存命中数
+     */
+    public void counter(String name, Gauge gauge){
+        gaugeTypes.put(name, "counter");
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * 移除瞬时值指标，如秒杀结束后的商品队列长度
+     */
+    public void removeGauge(String name){
+        gauges.remove(name);
+        gaugeTypes.remove(name);
+    }
+
+    public String scrape(){
+        StringBuilder sb = new StringBuilder();
+        //同名不同标签的指标只输出一次TYPE，按名称排序后同名的指标相邻
+        String lastType = null;
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<String, LongAdder>(counters).entrySet()){
+            lastType = type(sb, lastType, entry.getKey(), "counter");
+            sb.append(entry.getKey()).append(' ').append(entry.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, Gauge> entry : new TreeMap<String, Gauge>(gauges).entrySet()){
+            String type = gaugeTypes.get(entry.getKey());
+            if (type == null){
+                //采集期间被移除
+                continue;
+            }
+            lastType = type(sb, lastType, entry.getKey(), type);
+            sb.append(entry.getKey()).append(' ').append(entry.getValue().value()).append('\n');
+        }
+        for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(histograms).entrySet()){
+            String name = baseName(entry.getKey());
+            String labels = entry.getKey().substring(name.length());
+            Histogram histogram = entry.getValue();
+            long[] bounds = histogram.getBounds();
+            long[] counts = histogram.getCumulativeCounts();
+            lastType = type(sb, lastType, name, "histogram");
+            for (int i = 0; i < bounds.length; i++) {
+                sb.append(name).append("_bucket").append(withLe(labels, String.valueOf(bounds[i])))
+                        .append(' ').append(counts[i]).append('\n');
+            }
+            sb.append(name).append("_bucket").append(withLe(labels, "+Inf"))
+                    .append(' ').append(counts[bounds.length]).append('\n');
+            sb.append(name).append("_sum").append(labels).append(' ').append(histogram.getSum()).append('\n');
+            sb.append(name).append("_count").append(labels).append(' ').append(histogram.getCount()).append('\n');
+        }
+        for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(histograms).entrySet()){
+            String name = baseName(entry.getKey());
+            String labels = entry.getKey().substring(name.length());
+            lastType = type(sb, lastType, name + "_max", "gauge");
+            sb.append(name).append("_max").append(labels).append(' ').append(entry.getValue().getMax()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String type(StringBuilder sb, String lastType, String name, String type){
+        String base = baseName(name);
+        if (!base.equals(lastType)){
+            sb.append("# TYPE ").append(base).append(' ').append(type).append('\n');
+        }
+        return base;
+    }
+
+    private static String baseName(String name){
+        int index = name.indexOf('{');
+        return index < 0 ? name : name.substring(0, index);
+    }
+
+    private static String withLe(String labels, String le){
+        if (labels.isEmpty()){
+            return "{le=\"" + le + "\"}";
+        }
+        return labels.substring(0, labels.length() - 1) + ",le=\"" + le + "\"}";
+    }
+}
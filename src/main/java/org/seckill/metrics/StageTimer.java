@@ -0,0 +1,39 @@
+package org.seckill.metrics;
+
+/**
+ * 分阶段计时，一次调用的每个阶段记录到各自的直方图，单位微秒
+ * 调用方在开始时取System.nanoTime()，每个阶段结束时调用lap，返回值作为下一阶段的开始时间；
+ * 不分配对象，可以放在每次请求都会执行的路径上
+ */
+public class StageTimer {
+
+    //1微秒到5秒
+    private static final long[] BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000,
+            10000, 20000, 50000, 100000, 200000, 500000, 1000000, 2000000, 5000000};
+
+    private final Histogram[] stages;
+
+    /**
+     * @param name 指标名称
+     * @param strategy 执行策略，作为strategy标签
+     * @param stages 阶段名称，作为stage标签，下标即lap的stage参数
+     */
+    public StageTimer(MetricsRegistry registry, String name, String strategy, String... stages) {
+        this.stages = new Histogram[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            this.stages[i] = registry.histogram(
+                    MetricsRegistry.name(name, "strategy", strategy, "stage", stages[i]), BOUNDS);
+        }
+    }
+
+    /**
+     * 记录一个阶段的耗时
+     * @param since 阶段开始的System.nanoTime()
+     * @return 当前的System.nanoTime()
+     */
+    public long lap(int stage, long since){
+        long now = System.nanoTime();
+        stages[stage].record((now - since) / 1000);
+        return now;
+    }
+}
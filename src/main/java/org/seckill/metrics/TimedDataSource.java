@@ -0,0 +1,47 @@
+package org.seckill.metrics;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 记录从连接池获取连接的耗时，连接池满时请求在这里排队
+ */
+public class TimedDataSource extends DelegatingDataSource {
+
+    private final Histogram checkoutLatency = new Histogram(10, 50, 100, 500, 1000, 5000, 10000,
+            50000, 100000, 500000, 1000000);
+
+    public TimedDataSource(DataSource targetDataSource) {
+        super(targetDataSource);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return super.getConnection();
+        } finally {
+            checkoutLatency.record((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return super.getConnection(username, password);
+        } finally {
+            checkoutLatency.record((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    /**
+     * 获取连接的耗时，单位微秒
+     */
+    public Histogram getCheckoutLatency() {
+        return checkoutLatency;
+    }
+}
@@ -4,23 +4,38 @@ import org.apache.commons.collections.MapUtils;
 import org.seckill.dao.SeckillDao;
 import org.seckill.dao.SuccessKilledDao;
 import org.seckill.dao.cache.RedisDao;
+import org.seckill.dao.cache.SeckillCache;
 import org.seckill.dto.Exposer;
 import org.seckill.dto.SeckillExecution;
+import org.seckill.dto.SeckillPage;
 import org.seckill.entity.Seckill;
 import org.seckill.entity.SuccessKilled;
 import org.seckill.enums.SeckillStatEnum;
 import org.seckill.exception.RepeatKillException;
 import org.seckill.exception.SeckillCloseException;
 import org.seckill.exception.SeckillException;
+import org.seckill.metrics.MetricsRegistry;
+import org.seckill.metrics.StageTimer;
 import org.seckill.service.interfaces.SeckillService;
+import org.seckill.service.interfaces.TokenService;
+import org.seckill.service.journal.OrderJournal;
+import org.seckill.service.queue.ConsumerScheduler;
+import org.seckill.service.queue.OrderMessageProducer;
+import org.seckill.service.support.AdaptiveLimiter;
+import org.seckill.service.support.KillCombiner;
+import org.seckill.service.support.SeckillPageCache;
+import org.seckill.service.support.ShardedStock;
+import org.seckill.service.support.SoldOutFlags;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
-import org.springframework.util.DigestUtils;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -41,205 +56,387 @@ public class SeckillServiceImpl implements SeckillService {
     @Autowired
     private RedisDao redisDao;
 
+    @Autowired
+    private SeckillCache seckillCache;
+
     @Autowired
     private SuccessKilledDao successKilledDao;
 
-    private final String salt = "wadgydg&d9*(*2q5~war3waef";
+    @Autowired
+    private SoldOutFlags soldOutFlags;
+
+    @Autowired
+    private ConsumerScheduler consumerScheduler;
+
+    @Autowired
+    private TokenService tokenService;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Autowired
+    private SeckillPageCache seckillPageCache;
+
+    @Autowired
+    private ShardedStock shardedStock;
+
+    @Autowired
+    private KillCombiner killCombiner;
+
+    @Autowired
+    private OrderJournal orderJournal;
+
+    //在Spring-activemq.xml中装配，没有加载该配置时ActiveMQ方式不可用
+    @Autowired(required = false)
+    private OrderMessageProducer orderMessageProducer;
+
+    //列表页每页条数
+    @Value("${seckill.list.pageSize:20}")
+    private int pageSize;
+
+    //库存分片数，大于1时商品第一次秒杀前将库存拆分到分片中
+    @Value("${seckill.stock.shards:0}")
+    private int stockShards;
+
+    //访问数据库的执行方式的并发上限
+    @Value("${seckill.limiter.initialLimit:20}")
+    private int limiterInitialLimit;
+
+    @Value("${seckill.limiter.minLimit:5}")
+    private int limiterMinLimit;
+
+    @Value("${seckill.limiter.maxLimit:200}")
+    private int limiterMaxLimit;
+
+    //ActiveMQ方式发送订单消息后，结果接口按排队中返回的最长秒数
+    @Value("${seckill.mq.pendingSeconds:600}")
+    private int mqPendingSeconds;
+
+    //各执行策略的阶段耗时，阶段下标
+    private static final int STAGE_TOKEN = 0;
+    private static final int STAGE_TOTAL = 1;
+    //executeSeckill
+    private static final int STAGE_LOAD = 2;
+    private static final int STAGE_KILL = 3;
+    //executeSeckillByRedis
+    private static final int STAGE_ADMIT = 2;
+    private static final int STAGE_INIT = 3;
+    private static final int STAGE_JOURNAL = 4;
+    //executeSeckillByActiveMQ
+    private static final int STAGE_MQ_LOAD = 2;
+    private static final int STAGE_SEND = 3;
+    //executeSeckillProcedure
+    private static final int STAGE_PROCEDURE = 2;
+    private static final int STAGE_PROCEDURE_QUERY = 3;
+
+    private StageTimer transactionStages;
+
+    private StageTimer redisStages;
+
+    private StageTimer procedureStages;
+
+    private StageTimer mqStages;
+
+    //事务和存储过程两种执行方式共用一个连接池，共用一个并发限制
+    private AdaptiveLimiter databaseLimiter;
+
+    private final SeckillCache.Loader seckillLoader = new SeckillCache.Loader() {
+        @Override
+        public Seckill load(long seckillId) {
+            return seckillDao.queryById(seckillId);
+        }
+    };
+
+    @PostConstruct
+    public void init(){
+        databaseLimiter = new AdaptiveLimiter(metricsRegistry, "database",
+                limiterInitialLimit, limiterMinLimit, limiterMaxLimit);
+        String name = "seckill_execute_stage_micros";
+        transactionStages = new StageTimer(metricsRegistry, name, "transaction",
+                "token", "total", "load", "kill");
+        redisStages = new StageTimer(metricsRegistry, name, "redis",
+                "token", "total", "admit", "init", "journal");
+        procedureStages = new StageTimer(metricsRegistry, name, "procedure",
+                "token", "total", "procedure", "query");
+        mqStages = new StageTimer(metricsRegistry, name, "activemq",
+                "token", "total", "load", "send");
+    }
 
     @Override
     public List<Seckill> getSeckillList() {
-        return seckillDao.queryAll(0, 4);
+        return getSeckillPage(null).getList();
+    }
+
+    @Override
+    public SeckillPage getSeckillPage(String cursor) {
+        SeckillPage page = seckillPageCache.get(cursor);
+        if (page != null){
+            return page;
+        }
+        long generation = seckillPageCache.generation();
+        //游标格式：上一页最后一条的 createTime毫秒数_seckillId
+        Date afterTime = null;
+        long afterId = 0;
+        if (cursor != null){
+            int index = cursor.indexOf('_');
+            try {
+                afterTime = new Date(Long.parseLong(cursor.substring(0, index)));
+                afterId = Long.parseLong(cursor.substring(index + 1));
+            } catch (RuntimeException e){
+                throw new IllegalArgumentException("illegal cursor: " + cursor);
+            }
+        }
+        //多查一条判断是否还有下一页
+        List<Seckill> list = seckillDao.queryPage(afterTime, afterId, pageSize + 1);
+        String next = null;
+        if (list.size() > pageSize){
+            list = new ArrayList<Seckill>(list.subList(0, pageSize));
+            Seckill last = list.get(pageSize - 1);
+            next = last.getCreateTime().getTime() + "_" + last.getSeckillId();
+        }
+        page = new SeckillPage(list, next);
+        seckillPageCache.put(cursor, page, generation);
+        return page;
     }
 
     @Override
     public Seckill getById(long seckillId) {
-        return seckillDao.queryById(seckillId);
+        return loadSeckill(seckillId);
     }
 
     @Override
-    public Exposer exportSeckillUrl(long seckillId) {
-        //优化点：缓存优化
-        // 1.访问redis
-        Seckill seckill = redisDao.getSeckill(seckillId);
+    public Exposer exportSeckillUrl(long seckillId, long userPhone) {
+        Seckill seckill = loadSeckill(seckillId);
         if (seckill == null){
-            // 2.访问数据库，根据id查询到Seckill
-            seckill = seckillDao.queryById(seckillId);
-            if (seckill == null){
-                //没有该秒杀
-                return new Exposer(false, seckillId);
-            } else {
-                //3.写入redis
-                redisDao.pubSeckill(seckill);
+            //没有该秒杀
+            return new Exposer(false, seckillId);
+        }
+        return exposerOf(seckill, userPhone, System.currentTimeMillis());
+    }
+
+    private Seckill loadSeckill(long seckillId){
+        //优化点：缓存优化
+        // 1.访问本地缓存，未命中再访问redis
+        // 2.redis中没有或即将过期时访问数据库，根据id查询到Seckill，写入redis和本地缓存；
+        //   同一商品本节点只有一个请求查询数据库，其他请求等待它的结果
+        return seckillCache.get(seckillId, seckillLoader);
+    }
+
+    /**
+     * 商品的库存分片数，开启分片且商品尚未拆分时先拆分库存
+     * @return 0表示库存在seckill表中
+     */
+    private int shardsOf(Seckill seckill){
+        if (seckill.getStockShards() > 0 || stockShards <= 1){
+            return seckill.getStockShards();
+        }
+        int shards = shardedStock.split(seckill.getSeckillId(), stockShards);
+        //商品行已修改，删除各节点缓存中的旧值
+        seckillCache.invalidate(seckill.getSeckillId());
+        return shards;
+    }
+
+    @Override
+    public List<Exposer> exportSeckillUrls(List<Long> seckillIds, long userPhone) {
+        // 1.批量访问本地缓存和redis
+        Map<Long, Seckill> seckills = seckillCache.getAll(seckillIds);
+        List<Long> misses = new ArrayList<Long>();
+        for (Long seckillId : seckillIds){
+            if (!seckills.containsKey(seckillId)){
+                misses.add(seckillId);
+            }
+        }
+        if (!misses.isEmpty()){
+            // 2.未命中的商品一次查询数据库，再批量写入缓存
+            List<Seckill> loaded = seckillDao.queryByIds(misses);
+            for (Seckill seckill : loaded){
+                seckills.put(seckill.getSeckillId(), seckill);
             }
+            seckillCache.putAll(loaded);
+        }
+
+        long now = System.currentTimeMillis();
+        List<Exposer> exposers = new ArrayList<Exposer>(seckillIds.size());
+        for (Long seckillId : seckillIds){
+            Seckill seckill = seckills.get(seckillId);
+            exposers.add(seckill == null ? new Exposer(false, seckillId) : exposerOf(seckill, userPhone, now));
         }
+        return exposers;
+    }
 
+    private Exposer exposerOf(Seckill seckill, long userPhone, long now){
+        long seckillId = seckill.getSeckillId();
         //秒杀尚未开始或者秒杀已经结束
         Date startTime = seckill.getStartTime();
         Date endTime = seckill.getEndTime();
-        Date now = new Date();
-        if(now.getTime() < startTime.getTime() || now.getTime() > endTime.getTime()){
-            return new Exposer(false, seckillId, now.getTime(), startTime.getTime(),endTime.getTime());
+        if(now < startTime.getTime() || now > endTime.getTime()){
+            return new Exposer(false, seckillId, now, startTime.getTime(),endTime.getTime());
         }
 
-
-        String md5 = getMd5(seckillId);
+        //按用户签发令牌，其他用户拿到该令牌也无法使用
+        String md5 = tokenService.issue(seckillId, userPhone);
         return new Exposer(true, md5, seckillId);
     }
 
-    private String getMd5(long seckillId){
-        String base = seckillId + "/" + salt;
-        String md5 = DigestUtils.md5DigestAsHex(base.getBytes());
-        return md5;
-    }
-
-    @Override
-    @Transactional
     /**
-     * 使用注解控制事务方法的优点：
-     * 1. 开发团队达成一致约定，明确标注事务方法的编程风格。
-     * 2. 保证事务方法的执行时间尽可能短，不要穿插其他网络操作RPC/HTTP请求或者剥离到事务方法外部
-     * 3. 不是所有的方法都需要事务，如只有一条修改操作，只读操作不需要事务控制。
+     * 同一商品的并发请求由KillCombiner合并为一个事务执行，事务在CombinedKillWriter中，
+     * 等待合并期间不占用数据库连接
      */
+    @Override
     public SeckillExecution executeSeckill(long seckillId, long userPhone, String md5) throws SeckillException, RepeatKillException, SeckillCloseException {
 
-        //如果没有传递md5值或者md5值不对，表示数据被篡改
-        if(md5 == null || !md5.equals(getMd5(seckillId))){
+        long start = System.nanoTime();
+        //如果没有传递令牌或者令牌不对，表示数据被篡改
+        if(!tokenService.verify(seckillId, userPhone, md5)){
             throw new SeckillException("seckill data rewrite");
         }
+        long lap = transactionStages.lap(STAGE_TOKEN, start);
+        //超过并发上限立即返回，不在获取数据库连接处排队
+        if (!databaseLimiter.tryAcquire()){
+            return new SeckillExecution(seckillId, SeckillStatEnum.BUSY);
+        }
+        long acquired = lap;
 
-        //执行秒杀逻辑：减库存 + 购买行为
-        Date nowTime = new Date();
-
+        SeckillExecution execution;
         try {
-            /**
-             * 秒杀关键：在减库存这条sql语句，在没有执行完之前，事务一直持有行级锁
-             * 别的事务只能等待事务提交或者回滚之后拿到这个行级锁
-             * 所以通过缩短事务持久减库存这条行级锁的时间可以优化
-             * 解决：先插入购买行为，如果是重复秒杀直接事务回滚，不用继续执行减库存这条sql从而不用持有
-             * 这条高并发的行级锁，如果不是重复秒杀再执行减库存的语句，这样就少了一步持有行级锁的时间了
-             */
-            //减库存
-            /*int updateCount = seckillDao.reduceNumber(seckillId, nowTime);
-            if(updateCount < 0){
-                //没有更新到记录，秒杀结束
+            Seckill seckill = loadSeckill(seckillId);
+            if (seckill == null){
                 throw new SeckillCloseException("seckill is closed");
-            } else {
-                //记录购买行为
-                int insertCount = successKilledDao.insertSuccessKilled(seckillId, userPhone);
-                //唯一：seckillId, userPhone
-                if(insertCount <= 0){
-                    //重复秒杀
-                    throw new RepeatKillException("seckill repeated");
-                } else {
-                    //秒杀成功
-                    SuccessKilled successKilled = successKilledDao.queryByIdWithSeckill(seckillId, userPhone);
-                    return new SeckillExecution(seckillId, SeckillStatEnum.SUCCESS, successKilled);
-                }
-            }*/
-            //记录购买行为
-            int insertCount = successKilledDao.insertSuccessKilled(seckillId, userPhone);
-            //唯一：seckillId, userPhone
-            if(insertCount <= 0){
-                //重复秒杀，事务直接回滚
-                throw new RepeatKillException("seckill repeated");
-            } else {
-                SuccessKilled successKilled = successKilledDao.queryByIdWithSeckill(seckillId, userPhone);
-                //减库存，热点商品竞争，执行该sql语句时事务会同时开启行级锁，其他事务不能再对该表进行操作
-                int updateCount = seckillDao.reduceNumber(seckillId, nowTime);
-                if(updateCount <= 0){
-                    //没有更新到记录，秒杀结束，事务回滚，之前的插入记录也被回滚
-                    throw new SeckillCloseException("seckill is closed");
-                } else {
-                    //秒杀成功，事务提交
-                    return new SeckillExecution(seckillId, SeckillStatEnum.SUCCESS, successKilled);
-                }
             }
+            int shards = shardsOf(seckill);
+            lap = transactionStages.lap(STAGE_LOAD, lap);
+            execution = killCombiner.kill(seckill, shards, userPhone);
+            transactionStages.lap(STAGE_KILL, lap);
         } catch (SeckillCloseException e1){
             throw e1;
-        } catch (RepeatKillException e2){
-            throw e2;
         } catch (Exception e){
             logger.error(e.getMessage(), e);
             //所有编译期异常转换为运行期异常
             throw new SeckillException("seckill inner error :" + e.getMessage());
+        } finally {
+            databaseLimiter.release(acquired);
+            transactionStages.lap(STAGE_TOTAL, start);
         }
+        SeckillStatEnum stat = SeckillStatEnum.stateOf(execution.getState());
+        if (stat == SeckillStatEnum.REPEAT_KILL){
+            //重复秒杀，事务已回滚
+            throw new RepeatKillException("seckill repeated");
+        } else if (stat == SeckillStatEnum.END){
+            //没有更新到记录，秒杀结束，插入记录已回滚
+            throw new SeckillCloseException("seckill is closed");
+        } else if (stat != SeckillStatEnum.SUCCESS){
+            throw new SeckillException("seckill inner error");
+        }
+        return execution;
     }
 
     @Override
     public SeckillExecution executeSeckillByRedis(long seckillId, long userPhone, String md5) {
 
-        //如果没有传递md5值或者md5值不对，表示数据被篡改
-        if(md5 == null || !md5.equals(getMd5(seckillId))){
-            throw new SeckillException("seckill data rewrite");
-        }
+        long start = System.nanoTime();
+        try {
+            //如果没有传递令牌或者令牌不对，表示数据被篡改
+            if(!tokenService.verify(seckillId, userPhone, md5)){
+                throw new SeckillException("seckill data rewrite");
+            }
+            long lap = redisStages.lap(STAGE_TOKEN, start);
+
+            //本地售罄标记，已售罄的商品直接返回，不再访问redis
+            if (soldOutFlags.isSoldOut(seckillId)){
+                return new SeckillExecution(seckillId, SeckillStatEnum.END);
+            }
+            long generation = soldOutFlags.generation(seckillId);
+            //秒杀时间只在准入时校验：已准入的订单可能在结束时间之后才由消费者写库
+            if (!isOpen(loadSeckill(seckillId), System.currentTimeMillis())){
+                return new SeckillExecution(seckillId, SeckillStatEnum.END);
+            }
 
-        //判断商品库存队列是否初始化
-        if ( !redisDao.goodsQueueExists(seckillId) ){
-            Seckill seckill = seckillDao.queryById(seckillId);
-            //获得商品的库存
-            int number = seckill.getNumber();
-            //获得秒杀的结束时间
-            long endTime = seckill.getEndTime().getTime();
-            //初始化库存队列
-            redisDao.initGoodsQueue(seckillId, number);
-            //开启线程处理等待队列中的消息
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    System.err.println("线程启动...");
-                    //商品库存为0或者秒杀结束时间小于当前时间，就停止，表示秒杀结束
-                    while (redisDao.getGoodsQueueNumber(seckillId) > 0 || endTime < new Date().getTime()){
-
-                        String user = redisDao.popWaitQueue(seckillId);
-                        //返回nil表示栈顶为空,当栈顶不为空时并且user不等于null时
-                        if ( user != null && !"nil".equals(user) && !"null".equals(user) ){
-                            //进行秒杀行为：减库存 + 购买行为
-                            int result = seckillDao.reduceNumber(seckillId, new Date());
-                            if (result > 0){
-                                //返回的user字符串为 user:(userPhone)
-                                String userPhone = user.split(":")[1];
-                                //插入购买记录
-                                int m = successKilledDao.insertSuccessKilled(seckillId, Long.parseLong(userPhone));
-                                if (m > 0){
-                                    //将秒杀成功结果放到结果队列中
-                                    redisDao.pushUserToResultsQueue(seckillId, user);
-                                }
-                            }
-                        } else {
-                            //栈顶为空时，线程睡眠1毫秒
-                            try {
-                                Thread.sleep(1);
-                            } catch (InterruptedException e) {
-                                e.printStackTrace();
-                            }
-                        }
-                    }
-                    System.err.println("线程结束...");
+            /**
+             * 判重、扣减库存、记录用户、进入排队队列由redis中的lua脚本一次原子完成，
+             * 不会出现多个请求同时判断库存>0导致超卖的情况
+             */
+            int result = redisDao.admit(seckillId, userPhone);
+            lap = redisStages.lap(STAGE_ADMIT, lap);
+            if (result == RedisDao.ADMIT_NOT_INIT){
+                //库存计数未初始化，从数据库读取库存，多个请求同时初始化时只有一个成功
+                Seckill seckill = seckillDao.queryById(seckillId);
+                if (seckill == null){
+                    throw new SeckillException("seckill not exists");
                 }
-            }).start();
-        }
+                if (initStock(seckill)){
+                    generation = soldOutFlags.generation(seckillId);
+                }
+                result = redisDao.admit(seckillId, userPhone);
+                redisStages.lap(STAGE_INIT, lap);
+            }
+
+            if (result == RedisDao.ADMIT_SOLD_OUT){
+                //库存已空，标记售罄并广播给其他节点
+                soldOutFlags.markSoldOut(seckillId, generation);
+                return new SeckillExecution(seckillId, SeckillStatEnum.END);
+            }
+            if (result == RedisDao.ADMIT_REPEAT){
+                return new SeckillExecution(seckillId, SeckillStatEnum.REPEAT_KILL);
+            }
+            if (result != RedisDao.ADMIT_SUCCESS){
+                //redis异常，或者初始化后库存计数仍不存在
+                return new SeckillExecution(seckillId, SeckillStatEnum.INNER_ERROR);
+            }
 
-        //判断结果队列有没有该用户，防止用户重复秒杀
-        if (redisDao.userExistsResultsQueue(seckillId, userPhone)){
-            return new SeckillExecution(seckillId, SeckillStatEnum.REPEAT_KILL);
+            //订单写入本地日志并等待组提交落盘后再返回成功，排队数据丢失时由JournalReplayer按日志补写数据库
+            long journalStart = System.nanoTime();
+            boolean journaled = orderJournal.append(seckillId, userPhone);
+            redisStages.lap(STAGE_JOURNAL, journalStart);
+            if (!journaled){
+                return unjournaled(seckillId, userPhone);
+            }
+            return new SeckillExecution(seckillId, SeckillStatEnum.SUCCESS, null);
+        } finally {
+            redisStages.lap(STAGE_TOTAL, start);
         }
+    }
 
-        /**
-         * 判断当前库存，>0则将用户放入排队队列，<=0则返回秒杀失败，
-         * 使用lpop保证操作的原子性，防止多线程出现llen判断>0，临界值的时候出现多个线程挤进来
-         * 最后导致超卖的情况
-         */
-        if ( !(redisDao.pushWaitQueue(seckillId, userPhone))){
-            return new SeckillExecution(seckillId, SeckillStatEnum.END);
+    /**
+     * 订单日志写入或落盘失败，不返回秒杀成功：
+     * 用户还在排队队列中时撤销准入，归还库存和用户名额，返回BUSY由用户重试；
+     * 已被消费者取出时无法撤销，订单正在写库，返回QUEUED，由结果接口查询最终结果
+     */
+    private SeckillExecution unjournaled(long seckillId, long userPhone){
+        metricsRegistry.counter("seckill_journal_failed_total").increment();
+        if (redisDao.cancelAdmit(seckillId, userPhone)){
+            logger.warn("order not journaled, admission cancelled, seckillId={}, userPhone={}", seckillId, userPhone);
+            return new SeckillExecution(seckillId, SeckillStatEnum.BUSY);
         }
+        logger.warn("order not journaled, already dequeued, seckillId={}, userPhone={}", seckillId, userPhone);
+        return new SeckillExecution(seckillId, SeckillStatEnum.QUEUED);
+    }
 
-        //SuccessKilled successKilled = successKilledDao.queryByIdWithSeckill(seckillId, userPhone);
-        //此处不做数据库是否更新完成，忽略系统异常产生的结果
-        return new SeckillExecution(seckillId, SeckillStatEnum.SUCCESS, null);
+    /**
+     * 商品存在且当前在秒杀时间内
+     */
+    private static boolean isOpen(Seckill seckill, long now){
+        return seckill != null && now >= seckill.getStartTime().getTime() && now <= seckill.getEndTime().getTime();
     }
 
     /**
-     * 实现效果没有redis好
+     * 初始化redis库存计数，多个请求或节点同时初始化时只有一个成功
+     * 库存已拆分时按各分片的库存之和初始化（redis重启、节点变化后计数丢失）
+     * @return 是否由本次调用初始化
+     */
+    private boolean initStock(Seckill seckill){
+        long seckillId = seckill.getSeckillId();
+        if (!redisDao.initStock(seckillId, shardedStock.remaining(seckill))){
+            return false;
+        }
+        //库存重新初始化，清除各节点的售罄标记
+        soldOutFlags.reset(seckillId);
+        //开始调度消费排队队列
+        consumerScheduler.start(seckillId, seckill.getEndTime().getTime());
+        return true;
+    }
+
+    /**
+     * 请求线程只校验并发送订单消息，返回QUEUED；OrderMessageConsumer批量写库后通过KillResultNotifier通知结果
      * @param seckillId
      * @param userPhone
      * @param md5
@@ -248,19 +445,55 @@ public class SeckillServiceImpl implements SeckillService {
     @Override
     public SeckillExecution executeSeckillByActiveMQ(long seckillId, long userPhone, String md5) {
 
-        //如果没有传递md5值或者md5值不对，表示数据被篡改
-        /*if(md5 == null || !md5.equals(getMd5(seckillId))){
-            throw new SeckillException("seckill data rewrite");
-        }*/
+        long start = System.nanoTime();
+        try {
+            //如果没有传递令牌或者令牌不对，表示数据被篡改
+            if(!tokenService.verify(seckillId, userPhone, md5)){
+                throw new SeckillException("seckill data rewrite");
+            }
+            long lap = mqStages.lap(STAGE_TOKEN, start);
+            if (orderMessageProducer == null){
+                throw new SeckillException("activemq is not configured");
+            }
 
-        return null;
+            //本地售罄标记由消费者在库存不足时设置，已售罄的商品不再发送消息
+            if (soldOutFlags.isSoldOut(seckillId)){
+                return new SeckillExecution(seckillId, SeckillStatEnum.END);
+            }
+            if (!isOpen(loadSeckill(seckillId), System.currentTimeMillis())){
+                return new SeckillExecution(seckillId, SeckillStatEnum.END);
+            }
+            lap = mqStages.lap(STAGE_MQ_LOAD, lap);
+
+            //消息在broker中时redis和数据库都没有该订单，先记录排队标记，消费者广播最终结果前结果接口返回QUEUED
+            if (!redisDao.addPendingOrder(seckillId, userPhone, mqPendingSeconds)){
+                return new SeckillExecution(seckillId, SeckillStatEnum.INNER_ERROR);
+            }
+            try {
+                orderMessageProducer.send(seckillId, userPhone);
+            } catch (Exception e){
+                logger.error(e.getMessage(), e);
+                redisDao.removePendingOrders(seckillId, Collections.singletonList(userPhone));
+                return new SeckillExecution(seckillId, SeckillStatEnum.INNER_ERROR);
+            }
+            mqStages.lap(STAGE_SEND, lap);
+            return new SeckillExecution(seckillId, SeckillStatEnum.QUEUED);
+        } finally {
+            mqStages.lap(STAGE_TOTAL, start);
+        }
     }
 
     @Override
     public SeckillExecution executeSeckillProcedure(long seckillId, long userPhone, String md5) {
-        if (md5 == null || !md5.equals(getMd5(seckillId))){
+        long start = System.nanoTime();
+        if (!tokenService.verify(seckillId, userPhone, md5)){
             return new SeckillExecution(seckillId,SeckillStatEnum.DATA_REWRITE);
         }
+        long lap = procedureStages.lap(STAGE_TOKEN, start);
+        if (!databaseLimiter.tryAcquire()){
+            return new SeckillExecution(seckillId, SeckillStatEnum.BUSY);
+        }
+        long acquired = lap;
         Date killTime = new Date();
         Map<String,Object> map = new HashMap<String,Object>();
         map.put("seckillId", seckillId);
@@ -269,12 +502,22 @@ public class SeckillServiceImpl implements SeckillService {
         map.put("result", null);
         //执行存储过程，result被赋值
         try{
-            seckillDao.killPyProcedure(map);
+            Seckill seckill = loadSeckill(seckillId);
+            int shards = seckill == null ? 0 : shardsOf(seckill);
+            if (shards > 0){
+                map.put("shards", shards);
+                map.put("home", ShardedStock.shardOf(userPhone, shards));
+                seckillDao.killByShardedProcedure(map);
+            } else {
+                seckillDao.killPyProcedure(map);
+            }
+            lap = procedureStages.lap(STAGE_PROCEDURE, lap);
             //获取result
             int result = MapUtils.getInteger(map, "result", -2);
             if (result == 1){
                 SuccessKilled sk = successKilledDao.
                         queryByIdWithSeckill(seckillId, userPhone);
+                procedureStages.lap(STAGE_PROCEDURE_QUERY, lap);
                 return new SeckillExecution(seckillId,SeckillStatEnum.SUCCESS,sk);
             } else {
                 return new SeckillExecution(seckillId, SeckillStatEnum.stateOf(result));
@@ -282,6 +525,53 @@ public class SeckillServiceImpl implements SeckillService {
         } catch(Exception e){
             logger.error(e.getMessage(),e);
             return new SeckillExecution(seckillId, SeckillStatEnum.INNER_ERROR);
+        } finally {
+            databaseLimiter.release(acquired);
+            procedureStages.lap(STAGE_TOTAL, start);
+        }
+    }
+
+    @Override
+    public Seckill warmup(long seckillId) {
+        Seckill seckill = loadSeckill(seckillId);
+        if (seckill == null){
+            return null;
+        }
+        //先初始化redis库存计数，拆分库存分片会把商品行的库存清零
+        if (initStock(seckill)){
+            logger.info("stock initialized by warmup, seckillId={}, shards={}", seckillId, seckill.getStockShards());
+        }
+        if (shardsOf(seckill) != seckill.getStockShards()){
+            //拆分后商品行已修改，重新读取写入缓存
+            seckill = loadSeckill(seckillId);
+        }
+        tokenService.prepare(seckillId);
+        return seckill;
+    }
+
+    @Override
+    public Map<Long, Boolean> queryWinners(long seckillId, List<Long> userPhones) {
+        if (userPhones == null || userPhones.isEmpty()){
+            return new HashMap<Long, Boolean>();
+        }
+        return redisDao.usersExistResults(seckillId, userPhones);
+    }
+
+    @Override
+    public SeckillExecution getKillResult(long seckillId, long userPhone) {
+        switch (redisDao.getKillState(seckillId, userPhone)){
+            case RedisDao.KILL_SUCCESS:
+                SuccessKilled successKilled = successKilledDao.queryByIdWithSeckill(seckillId, userPhone);
+                return new SeckillExecution(seckillId, SeckillStatEnum.SUCCESS, successKilled);
+            case RedisDao.KILL_FAILURE:
+                return new SeckillExecution(seckillId, SeckillStatEnum.INNER_ERROR);
+            case RedisDao.KILL_QUEUED:
+                return new SeckillExecution(seckillId, SeckillStatEnum.QUEUED);
+            default:
+                //ActiveMQ方式的订单广播最终结果后移除排队标记，结果只在数据库中
+                SuccessKilled killed = successKilledDao.queryByIdWithSeckill(seckillId, userPhone);
+                return killed == null ? new SeckillExecution(seckillId, SeckillStatEnum.END)
+                        : new SeckillExecution(seckillId, SeckillStatEnum.SUCCESS, killed);
         }
     }
 }
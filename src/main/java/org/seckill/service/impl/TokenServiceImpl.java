@@ -0,0 +1,133 @@
+package org.seckill.service.impl;
+
+import org.seckill.service.interfaces.TokenService;
+import org.seckill.util.SipHash;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 令牌 = SipHash-2-4(商品密钥, 手机号, 时间窗口) 的16位十六进制
+ * 商品密钥由全局密钥和商品id经SHA-256派生，只在第一次使用时计算一次，按商品id直接映射缓存；
+ * 校验时逐字符解码并异或累加比较，不分配对象，耗时与令牌内容无关
+ */
+@Service("tokenService")
+public class TokenServiceImpl implements TokenService {
+
+    private static final int TOKEN_LENGTH = 16;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    //商品密钥缓存的槽数，必须是2的幂
+    private static final int KEY_SLOTS = 1024;
+
+    //商品密钥缓存：按商品id直接映射，冲突时覆盖重新派生；读取不装箱，校验路径上没有对象分配
+    private final AtomicReferenceArray<ItemKey> keys = new AtomicReferenceArray<ItemKey>(KEY_SLOTS);
+
+    @Value("${seckill.token.secret:wadgydg&d9*(*2q5~war3waef}")
+    private String secret;
+
+    @Value("${seckill.token.windowSeconds:300}")
+    private long windowSeconds;
+
+    @Override
+    public void prepare(long seckillId) {
+        keyOf(seckillId);
+    }
+
+    @Override
+    public String issue(long seckillId, long userPhone) {
+        ItemKey key = keyOf(seckillId);
+        long mac = SipHash.hash(key.k0, key.k1, userPhone, currentWindow());
+        char[] token = new char[TOKEN_LENGTH];
+        for (int i = 0; i < TOKEN_LENGTH; i++) {
+            token[i] = HEX[(int) (mac >>> (60 - 4 * i)) & 0xf];
+        }
+        return new String(token);
+    }
+
+    @Override
+    public boolean verify(long seckillId, long userPhone, String token) {
+        if (token == null || token.length() != TOKEN_LENGTH){
+            return false;
+        }
+        ItemKey key = keyOf(seckillId);
+        long window = currentWindow();
+        //当前窗口和上一个窗口都计算，避免在窗口边界签发的令牌立即失效
+        long current = SipHash.hash(key.k0, key.k1, userPhone, window);
+        long previous = SipHash.hash(key.k0, key.k1, userPhone, window - 1);
+        int diffCurrent = 0;
+        int diffPrevious = 0;
+        int invalid = 0;
+        for (int i = 0; i < TOKEN_LENGTH; i++) {
+            int nibble = decode(token.charAt(i));
+            invalid |= nibble >>> 31;
+            int shift = 60 - 4 * i;
+            diffCurrent |= nibble ^ ((int) (current >>> shift) & 0xf);
+            diffPrevious |= nibble ^ ((int) (previous >>> shift) & 0xf);
+        }
+        return invalid == 0 & (diffCurrent == 0 | diffPrevious == 0);
+    }
+
+    private long currentWindow(){
+        return System.currentTimeMillis() / (windowSeconds * 1000);
+    }
+
+    private ItemKey keyOf(long seckillId){
+        int slot = (int) (seckillId ^ (seckillId >>> 32)) & (KEY_SLOTS - 1);
+        ItemKey key = keys.get(slot);
+        if (key == null || key.seckillId != seckillId){
+            key = deriveKey(seckillId);
+            keys.set(slot, key);
+        }
+        return key;
+    }
+
+    private ItemKey deriveKey(long seckillId){
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((secret + "/" + seckillId).getBytes(Charset.forName("UTF-8")));
+            long k0 = 0;
+            long k1 = 0;
+            for (int i = 0; i < 8; i++) {
+                k0 = (k0 << 8) | (hash[i] & 0xff);
+                k1 = (k1 << 8) | (hash[i + 8] & 0xff);
+            }
+            return new ItemKey(seckillId, k0, k1);
+        } catch (NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 十六进制字符转为0-15，非法字符返回-1
+     */
+    private static int decode(char c){
+        if (c >= '0' && c <= '9'){
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f'){
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
+    private static final class ItemKey {
+
+        final long seckillId;
+
+        final long k0;
+
+        final long k1;
+
+        ItemKey(long seckillId, long k0, long k1) {
+            this.seckillId = seckillId;
+            this.k0 = k0;
+            this.k1 = k1;
+        }
+    }
+}
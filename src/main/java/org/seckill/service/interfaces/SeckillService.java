@@ -2,12 +2,14 @@ package org.seckill.service.interfaces;
 
 import org.seckill.dto.Exposer;
 import org.seckill.dto.SeckillExecution;
+import org.seckill.dto.SeckillPage;
 import org.seckill.entity.Seckill;
 import org.seckill.exception.RepeatKillException;
 import org.seckill.exception.SeckillCloseException;
 import org.seckill.exception.SeckillException;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * 业务接口：站在"使用者"角度设计接口
@@ -17,13 +19,22 @@ import java.util.List;
 public interface SeckillService {
 
     /**
-     * 查询所有秒杀记录
+     * 查询秒杀记录列表的第一页
      * @return
      */
     List<Seckill> getSeckillList();
 
     /**
-     * 查询单个秒杀记录
+     * 按创建时间倒序分页查询秒杀记录，重复查询同一页时读取本地缓存
+     * @param cursor 上一页返回的next，查询第一页时为null
+     * @return
+     * @throws IllegalArgumentException 游标格式错误
+     */
+    SeckillPage getSeckillPage(String cursor);
+
+    /**
+     * 查询单个秒杀记录，先读缓存
+     * 返回的对象在线程之间共享，不能修改；其中的库存可能不是最新值
      * @param seckillId
      * @return
      */
@@ -32,12 +43,23 @@ public interface SeckillService {
     /**
      * 秒杀开启时输出秒杀接口地址，
      * 否则输出系统时间和秒杀时间
+     * 秒杀地址中的令牌只对该用户有效，并在一段时间后过期
      * @param seckillId
+     * @param userPhone
+     */
+    Exposer exportSeckillUrl(long seckillId, long userPhone);
+
+    /**
+     * 批量输出秒杀接口地址，缓存未命中的商品一次查询数据库
+     * @param seckillIds
+     * @param userPhone
+     * @return 与seckillIds顺序一致，不存在的秒杀exposed为false
      */
-    Exposer exportSeckillUrl(long seckillId);
+    List<Exposer> exportSeckillUrls(List<Long> seckillIds, long userPhone);
 
     /**
      * 执行秒杀操作
+     * 数据库繁忙（超过自适应并发上限）时立即返回BUSY，可以稍后重试
      * @param seckillId
      * @param userPhone
      * @param md5
@@ -56,19 +78,45 @@ public interface SeckillService {
 
     /**
      * 根据ActiveMQ队列实现秒杀
+     * 订单消息发送成功即返回QUEUED，秒杀结果由消费者写库后通知，通过getKillResult查询
      * @param seckillId
      * @param userPhone
      * @param md5
-     * @return
+     * @return QUEUED 已发送订单消息，END 秒杀结束或已售罄，INNER_ERROR 发送失败
      */
     SeckillExecution executeSeckillByActiveMQ(long seckillId, long userPhone, String md5);
 
     /**
      * 执行秒杀操作
+     * 与executeSeckill共用并发上限，超过时立即返回BUSY
      * @param seckillId
      * @param userPhone
      * @param md5
      */
     SeckillExecution executeSeckillProcedure(long seckillId, long userPhone, String md5);
 
+    /**
+     * 批量查询用户是否秒杀成功（订单已写入数据库），用于结果页
+     * @param seckillId
+     * @param userPhones
+     * @return userPhone -> 是否秒杀成功
+     */
+    Map<Long, Boolean> queryWinners(long seckillId, List<Long> userPhones);
+
+    /**
+     * 查询排队秒杀的当前结果
+     * @param seckillId
+     * @param userPhone
+     * @return SUCCESS 已写库，INNER_ERROR 写库失败，QUEUED 排队中，END 未抢到
+     */
+    SeckillExecution getKillResult(long seckillId, long userPhone);
+
+    /**
+     * 开售前预热商品：写入redis和本地缓存，拆分库存分片，初始化redis库存计数并开始调度消费，派生令牌密钥
+     * 可以重复调用，已经完成的步骤不会重复执行
+     * @param seckillId
+     * @return 预热后的商品，不存在时返回null
+     */
+    Seckill warmup(long seckillId);
+
 }
@@ -0,0 +1,31 @@
+package org.seckill.service.interfaces;
+
+/**
+ * 秒杀地址令牌：按商品、用户和时间窗口签发，
+ * 令牌只对签发的用户在当前和上一个时间窗口内有效
+ */
+public interface TokenService {
+
+    /**
+     * 预先计算并缓存商品的签名密钥
+     * @param seckillId
+     */
+    void prepare(long seckillId);
+
+    /**
+     * 签发令牌
+     * @param seckillId
+     * @param userPhone
+     * @return
+     */
+    String issue(long seckillId, long userPhone);
+
+    /**
+     * 校验令牌，比较时间与令牌内容无关
+     * @param seckillId
+     * @param userPhone
+     * @param token
+     * @return 令牌是否有效
+     */
+    boolean verify(long seckillId, long userPhone, String token);
+}
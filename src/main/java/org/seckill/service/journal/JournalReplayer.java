@@ -0,0 +1,220 @@
+package org.seckill.service.journal;
+
+import org.seckill.dao.SeckillDao;
+import org.seckill.dao.SuccessKilledDao;
+import org.seckill.dao.cache.RedisDao;
+import org.seckill.dto.Reconciliation;
+import org.seckill.entity.Seckill;
+import org.seckill.entity.SeckillStock;
+import org.seckill.exception.SeckillCloseException;
+import org.seckill.metrics.MetricsRegistry;
+import org.seckill.service.queue.OrderBatchWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单日志补写和对账
+ * 启动时和之后每隔checkpointSeconds检查已封闭的日志段：查询段中的订单哪些还没有写入success_killed，
+ * 缺失的订单按商品批量补写（insert ignore，按实际插入行数减库存，与排队消费者重复写入也不会多减），
+ * 整段都已写库后删除该段；数据库异常时保留该段，下次检查重试。
+ * 本次运行封闭的段要等待checkpointSeconds后才检查，正常情况下排队消费者已经写完，补写不会与之竞争
+ */
+@Component
+public class JournalReplayer {
+
+    //一次查询或补写的最大用户数
+    private static final int CHUNK = 500;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private OrderJournal orderJournal;
+
+    @Autowired
+    private SeckillDao seckillDao;
+
+    @Autowired
+    private SuccessKilledDao successKilledDao;
+
+    @Autowired
+    private OrderBatchWriter orderBatchWriter;
+
+    @Autowired
+    private RedisDao redisDao;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Value("${seckill.journal.checkpointSeconds:60}")
+    private long checkpointSeconds;
+
+    private ScheduledExecutorService checkpointer;
+
+    @PostConstruct
+    public void init(){
+        if (!orderJournal.isEnabled()){
+            return;
+        }
+        checkpointer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "order-journal-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        //启动后立即补写上次运行留下的段
+        checkpointer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkpoint();
+            }
+        }, 0, checkpointSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown(){
+        if (checkpointer != null){
+            checkpointer.shutdownNow();
+        }
+    }
+
+    private void checkpoint(){
+        long sealedBefore = System.currentTimeMillis() - checkpointSeconds * 1000;
+        for (Long sequence : orderJournal.sealedSegments(sealedBefore)){
+            try {
+                long replayed = replay(sequence);
+                orderJournal.release(sequence);
+                logger.info("journal segment checkpointed, sequence={}, replayed={}", sequence, replayed);
+            } catch (Exception e){
+                //保留该段，下次重试；后面的段也等这一段完成后再处理
+                logger.error("journal checkpoint failed, sequence=" + sequence, e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 补写日志段中还没有写库的订单
+     * @return 补写的订单数
+     */
+    private long replay(long sequence){
+        final Map<Long, Set<Long>> orders = new LinkedHashMap<Long, Set<Long>>();
+        orderJournal.read(sequence, new OrderJournal.Visitor() {
+            @Override
+            public void visit(long seckillId, long userPhone) {
+                Set<Long> userPhones = orders.get(seckillId);
+                if (userPhones == null){
+                    userPhones = new LinkedHashSet<Long>();
+                    orders.put(seckillId, userPhones);
+                }
+                userPhones.add(userPhone);
+            }
+        });
+        long replayed = 0;
+        for (Map.Entry<Long, Set<Long>> entry : orders.entrySet()){
+            long seckillId = entry.getKey();
+            for (List<Long> chunk : chunks(entry.getValue())){
+                List<Long> missing = missing(seckillId, chunk);
+                if (!missing.isEmpty()){
+                    replayed += write(seckillId, missing);
+                }
+            }
+        }
+        return replayed;
+    }
+
+    private int write(long seckillId, List<Long> userPhones){
+        int inserted;
+        try {
+            inserted = orderBatchWriter.write(seckillId, userPhones);
+        } catch (SeckillCloseException e){
+            //数据库库存已不足，重试也不会成功，记录下来人工处理
+            logger.error("journal replay rejected, stock not enough, seckillId={}, userPhones={}",
+                    seckillId, userPhones);
+            metricsRegistry.counter("seckill_journal_rejected_total").add(userPhones.size());
+            return 0;
+        }
+        metricsRegistry.counter("seckill_journal_replayed_total").add(inserted);
+        //补写成功的订单加入结果集合，结果页可以查到；失败不影响补写
+        redisDao.pushUserToResultsQueue(seckillId, userPhones);
+        return inserted;
+    }
+
+    /**
+     * 对比本节点日志、redis库存计数和数据库库存
+     * @return 商品不存在返回null
+     */
+    public Reconciliation reconcile(final long seckillId){
+        Seckill seckill = seckillDao.queryById(seckillId);
+        if (seckill == null){
+            return null;
+        }
+        long dbStock = seckill.getNumber();
+        if (seckill.getStockShards() > 0){
+            for (SeckillStock shard : seckillDao.queryStockShards(seckillId)){
+                dbStock += shard.getNumber();
+            }
+        }
+        final Set<Long> journaled = new LinkedHashSet<Long>();
+        orderJournal.readAll(new OrderJournal.Visitor() {
+            @Override
+            public void visit(long id, long userPhone) {
+                if (id == seckillId){
+                    journaled.add(userPhone);
+                }
+            }
+        });
+        long unpersisted = 0;
+        for (List<Long> chunk : chunks(journaled)){
+            unpersisted += missing(seckillId, chunk).size();
+        }
+        long queued = redisDao.getWaitQueueNumber(seckillId) + redisDao.getProcessingNumber(seckillId);
+        return new Reconciliation(seckillId, journaled.size(), journaled.size() - unpersisted,
+                redisDao.getStock(seckillId), queued, dbStock);
+    }
+
+    private List<Long> missing(long seckillId, List<Long> userPhones){
+        Set<Long> persisted = new HashSet<Long>(successKilledDao.queryUserPhones(seckillId, userPhones));
+        List<Long> missing = new ArrayList<Long>();
+        for (Long userPhone : userPhones){
+            if (!persisted.contains(userPhone)){
+                missing.add(userPhone);
+            }
+        }
+        return missing;
+    }
+
+    private static List<List<Long>> chunks(Set<Long> userPhones){
+        List<List<Long>> chunks = new ArrayList<List<Long>>();
+        List<Long> chunk = new ArrayList<Long>(CHUNK);
+        for (Long userPhone : userPhones){
+            chunk.add(userPhone);
+            if (chunk.size() == CHUNK){
+                chunks.add(chunk);
+                chunk = new ArrayList<Long>(CHUNK);
+            }
+        }
+        if (!chunk.isEmpty()){
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+}
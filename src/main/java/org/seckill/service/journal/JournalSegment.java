@@ -0,0 +1,161 @@
+package org.seckill.service.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 日志段：一个预先分配大小并整体映射到内存的文件，由定长记录顺序组成
+ * 记录 = seckillId(8) + userPhone(8) + 校验值(4)，文件预分配时全部为0，
+ * 校验值不匹配的第一条记录即为段尾（未写入或写入一半时进程退出）
+ */
+class JournalSegment {
+
+    static final int RECORD_SIZE = 20;
+
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+
+    private final long sequence;
+
+    private final File file;
+
+    private final MappedByteBuffer buffer;
+
+    private final int capacity;
+
+    //已写入的记录数，只在OrderJournal的写锁内修改
+    private int count;
+
+    //封闭时间，上次运行留下的段为0
+    private volatile long sealedAt;
+
+    private JournalSegment(long sequence, File file, MappedByteBuffer buffer, int count) {
+        this.sequence = sequence;
+        this.file = file;
+        this.buffer = buffer;
+        this.capacity = buffer.capacity() / RECORD_SIZE;
+        this.count = count;
+    }
+
+    /**
+     * 创建新的段文件并预分配空间
+     */
+    static JournalSegment create(File dir, long sequence, int capacity) throws IOException {
+        File file = new File(dir, fileName(sequence));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength((long) capacity * RECORD_SIZE);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            return new JournalSegment(sequence, file, buffer, 0);
+        } finally {
+            //映射建立后关闭文件不影响映射
+            raf.close();
+        }
+    }
+
+    /**
+     * 打开已有的段文件，记录数为段尾之前的有效记录
+     */
+    static JournalSegment open(File file, long sequence) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            JournalSegment segment = new JournalSegment(sequence, file, buffer, 0);
+            while (segment.count < segment.capacity && segment.valid(segment.count)){
+                segment.count++;
+            }
+            return segment;
+        } finally {
+            raf.close();
+        }
+    }
+
+    static String fileName(long sequence){
+        return String.format("orders-%020d.journal", sequence);
+    }
+
+    /**
+     * 从文件名解析段序号，不是日志段文件返回-1
+     */
+    static long sequenceOf(String name){
+        if (!name.startsWith("orders-") || !name.endsWith(".journal")){
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring("orders-".length(), name.length() - ".journal".length()));
+        } catch (NumberFormatException e){
+            return -1;
+        }
+    }
+
+    boolean isFull(){
+        return count == capacity;
+    }
+
+    /**
+     * 写入下一条记录，调用方持有写锁并保证段未满
+     */
+    void append(long seckillId, long userPhone){
+        int offset = count * RECORD_SIZE;
+        buffer.putLong(offset, seckillId);
+        buffer.putLong(offset + 8, userPhone);
+        buffer.putInt(offset + 16, checksum(seckillId, userPhone));
+        count++;
+    }
+
+    int count(){
+        return count;
+    }
+
+    long seckillIdAt(int index){
+        return buffer.getLong(index * RECORD_SIZE);
+    }
+
+    long userPhoneAt(int index){
+        return buffer.getLong(index * RECORD_SIZE + 8);
+    }
+
+    /**
+     * 把映射区域的修改写回磁盘
+     */
+    void force(){
+        buffer.force();
+    }
+
+    void seal(){
+        sealedAt = System.currentTimeMillis();
+    }
+
+    long sealedAt(){
+        return sealedAt;
+    }
+
+    long sequence(){
+        return sequence;
+    }
+
+    boolean delete(){
+        return file.delete();
+    }
+
+    private boolean valid(int index){
+        int offset = index * RECORD_SIZE;
+        return buffer.getInt(offset + 16) == checksum(buffer.getLong(offset), buffer.getLong(offset + 8));
+    }
+
+    /**
+     * 全0的记录校验值不为0，未写入的区域不会被当成有效记录
+     */
+    private static int checksum(long seckillId, long userPhone){
+        long h = (seckillId * 31 + userPhone) ^ SEED;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        int checksum = (int) (h ^ (h >>> 32));
+        return checksum == 0 ? 1 : checksum;
+    }
+}
@@ -0,0 +1,310 @@
+package org.seckill.service.journal;
+
+import org.seckill.metrics.Histogram;
+import org.seckill.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 节点本地的订单日志
+ * redis准入成功的订单先追加到内存映射的日志段，落盘后才向用户返回秒杀成功；
+ * 写库仍由排队消费者异步批量完成，节点或redis丢失排队数据时由JournalReplayer按日志补写。
+ * 组提交：追加只写映射内存，由刷盘线程一次force覆盖所有已追加的记录，
+ * 刷盘期间到达的请求合并到下一次force，并发越高每次刷盘覆盖的记录越多。
+ * 日志段写满后封闭并创建新段，封闭的段确认都已写库后删除；启动时总是创建新段，上次运行留下的段都视为已封闭
+ */
+@Component
+public class OrderJournal {
+
+    /**
+     * 日志记录回调
+     */
+    public interface Visitor {
+        void visit(long seckillId, long userPhone);
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Value("${seckill.journal.enabled:true}")
+    private boolean enabled;
+
+    @Value("${seckill.journal.dir:${java.io.tmpdir}/seckill-journal}")
+    private String dir;
+
+    //每个日志段的记录数
+    @Value("${seckill.journal.segmentRecords:1048576}")
+    private int segmentRecords;
+
+    //等待落盘的最长毫秒数，超时后不再等待
+    @Value("${seckill.journal.syncTimeoutMs:1000}")
+    private long syncTimeoutMs;
+
+    //追加记录和切换日志段的锁
+    private final Object writeLock = new Object();
+
+    //刷盘线程和等待落盘的请求之间的锁
+    private final ReentrantLock syncLock = new ReentrantLock();
+
+    //有新的记录需要刷盘
+    private final Condition pending = syncLock.newCondition();
+
+    //刷盘完成
+    private final Condition durable = syncLock.newCondition();
+
+    //段序号 -> 已封闭的日志段
+    private final ConcurrentNavigableMap<Long, JournalSegment> sealed =
+            new ConcurrentSkipListMap<Long, JournalSegment>();
+
+    private volatile JournalSegment current;
+
+    //本次运行已追加的记录数，作为记录的序号，只在写锁内修改
+    private volatile long written;
+
+    //已落盘的记录序号，只在syncLock内修改
+    private long flushed;
+
+    private File directory;
+
+    private Thread flusher;
+
+    private volatile boolean running;
+
+    private Histogram groupSizes;
+
+    private Histogram syncLatency;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled){
+            return;
+        }
+        directory = new File(dir);
+        if (!directory.isDirectory() && !directory.mkdirs()){
+            throw new IOException("create journal dir failed: " + directory);
+        }
+        long next = 0;
+        File[] files = directory.listFiles();
+        if (files != null){
+            for (File file : files){
+                long sequence = JournalSegment.sequenceOf(file.getName());
+                if (sequence >= 0){
+                    JournalSegment segment = JournalSegment.open(file, sequence);
+                    sealed.put(sequence, segment);
+                    next = Math.max(next, sequence + 1);
+                    logger.info("journal segment found, file={}, records={}", file, segment.count());
+                }
+            }
+        }
+        current = JournalSegment.create(directory, next, segmentRecords);
+        groupSizes = metricsRegistry.histogram("seckill_journal_group_size",
+                1, 2, 5, 10, 20, 50, 100, 200, 500, 1000);
+        syncLatency = metricsRegistry.histogram("seckill_journal_sync_micros",
+                50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 50000, 100000);
+        running = true;
+        flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, "order-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @PreDestroy
+    public void shutdown(){
+        if (!running){
+            return;
+        }
+        running = false;
+        flusher.interrupt();
+        current.force();
+    }
+
+    public boolean isEnabled(){
+        return enabled;
+    }
+
+    /**
+     * 追加一条订单记录并等待落盘
+     * @return 是否已落盘，未开启日志时返回true；写入或刷盘失败、等待超时返回false
+     */
+    public boolean append(long seckillId, long userPhone){
+        if (!running){
+            return !enabled;
+        }
+        long sequence;
+        try {
+            synchronized (writeLock){
+                if (current.isFull()){
+                    roll();
+                }
+                current.append(seckillId, userPhone);
+                sequence = written + 1;
+                written = sequence;
+            }
+        } catch (IOException e){
+            logger.error("append journal failed", e);
+            return false;
+        }
+        metricsRegistry.counter("seckill_journal_appends_total").increment();
+        return awaitDurable(sequence);
+    }
+
+    private boolean awaitDurable(long sequence){
+        long nanos = TimeUnit.MILLISECONDS.toNanos(syncTimeoutMs);
+        syncLock.lock();
+        try {
+            if (flushed >= sequence){
+                return true;
+            }
+            pending.signal();
+            while (flushed < sequence){
+                if (nanos <= 0){
+                    metricsRegistry.counter("seckill_journal_sync_timeouts_total").increment();
+                    return false;
+                }
+                nanos = durable.awaitNanos(nanos);
+            }
+            return true;
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private void flushLoop(){
+        while (running){
+            long target;
+            syncLock.lock();
+            try {
+                while (flushed == written && running){
+                    pending.await();
+                }
+                target = written;
+            } catch (InterruptedException e){
+                break;
+            } finally {
+                syncLock.unlock();
+            }
+            //先读序号再读当前段：序号之内的记录要么在当前段，要么在切换时已经刷盘的旧段
+            JournalSegment segment = current;
+            long start = System.nanoTime();
+            try {
+                segment.force();
+            } catch (Exception e){
+                logger.error("force journal failed", e);
+                //磁盘故障时避免空转，等待的请求超时后返回
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ie){
+                    break;
+                }
+                continue;
+            }
+            syncLatency.record((System.nanoTime() - start) / 1000);
+            syncLock.lock();
+            try {
+                groupSizes.record(target - flushed);
+                flushed = target;
+                durable.signalAll();
+            } finally {
+                syncLock.unlock();
+            }
+            metricsRegistry.counter("seckill_journal_syncs_total").increment();
+        }
+    }
+
+    /**
+     * 当前段写满，刷盘后封闭并创建新段，调用方持有写锁
+     */
+    private void roll() throws IOException {
+        JournalSegment full = current;
+        full.force();
+        current = JournalSegment.create(directory, full.sequence() + 1, segmentRecords);
+        full.seal();
+        sealed.put(full.sequence(), full);
+    }
+
+    /**
+     * 已封闭的日志段序号，按写入顺序
+     * @param sealedBefore 只返回在这个时间之前封闭的段，上次运行留下的段总是返回
+     */
+    public List<Long> sealedSegments(long sealedBefore){
+        List<Long> list = new ArrayList<Long>();
+        for (JournalSegment segment : sealed.values()){
+            if (segment.sealedAt() == 0 || segment.sealedAt() < sealedBefore){
+                list.add(segment.sequence());
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 读取已封闭日志段中的全部记录
+     */
+    public void read(long sequence, Visitor visitor){
+        JournalSegment segment = sealed.get(sequence);
+        if (segment != null){
+            read(segment, segment.count(), visitor);
+        }
+    }
+
+    /**
+     * 日志段中的订单都已写库，删除该段
+     */
+    public void release(long sequence){
+        JournalSegment segment = sealed.remove(sequence);
+        if (segment != null && !segment.delete()){
+            logger.warn("delete journal segment failed, sequence={}", sequence);
+        }
+    }
+
+    /**
+     * 读取本节点所有日志段（包括正在写入的段）中的记录，用于对账
+     */
+    public void readAll(Visitor visitor){
+        if (!running){
+            return;
+        }
+        JournalSegment active;
+        int count;
+        synchronized (writeLock){
+            active = current;
+            count = active.count();
+        }
+        for (JournalSegment segment : sealed.values()){
+            if (segment != active){
+                read(segment, segment.count(), visitor);
+            }
+        }
+        //加锁读到的记录数之内的记录都已写完
+        read(active, count, visitor);
+    }
+
+    private void read(JournalSegment segment, int count, Visitor visitor){
+        for (int i = 0; i < count; i++) {
+            visitor.visit(segment.seckillIdAt(i), segment.userPhoneAt(i));
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package org.seckill.service.queue;
+
+import org.seckill.dao.SeckillDao;
+import org.seckill.dao.cache.RedisDao;
+import org.seckill.entity.Seckill;
+import org.seckill.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 排队队列消费调度器
+ * 所有商品共享一个固定大小的线程池：
+ * 1. 每个redis节点一个调度线程，阻塞等待该节点的就绪队列，排队队列由空变为非空时收到商品id，提交该商品的消费任务
+ * 2. 每个商品同一时刻最多只有一个消费任务在执行或等待执行
+ * 3. 一个任务最多连续处理batchesPerTurn批，队列还有数据则重新排到线程池队尾，保证各商品轮流消费
+ * 4. 队列取空后任务结束，不占用线程；秒杀结束且队列为空的商品由巡检线程移出活动商品
+ * 5. 写库异常时任务按指数退避延迟重新提交，退避期间的通知不会提交新的任务
+ * 多个应用节点之间由redis中的消费租约保证每个商品同一时刻只有一个节点在消费：每轮开始时获取租约，
+ * 获取失败说明其他节点正在消费，本轮放弃；获得租约时上一个持有者已释放或已失效，
+ * 其处理中队列里未确认的用户放回排队队列；每轮结束释放租约后再检查一次队列，避免漏掉释放前到达的通知
+ * 消费中的商品注册排队长度、处理中数量、剩余库存和消费延迟指标，移出活动商品时注销
+ */
+@Component
+public class ConsumerScheduler {
+
+    //等待就绪队列的阻塞秒数
+    private static final int TAKE_TIMEOUT = 1;
+
+    //巡检活动商品的间隔，用于补偿丢失的就绪通知
+    private static final long SWEEP_INTERVAL = 5000;
+
+    //写库失败后重试的初始和最大退避毫秒数
+    private static final long RETRY_MIN_DELAY = 100;
+
+    private static final long RETRY_MAX_DELAY = 10000;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private RedisDao redisDao;
+
+    @Autowired
+    private SeckillDao seckillDao;
+
+    @Autowired
+    private WaitQueueConsumer waitQueueConsumer;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Value("${seckill.consumer.threads:8}")
+    private int threads;
+
+    @Value("${seckill.consumer.batchesPerTurn:10}")
+    private int batchesPerTurn;
+
+    //消费租约的毫秒数，持有者宕机后其他节点最多等待这么久接管
+    @Value("${seckill.consumer.leaseMs:30000}")
+    private long leaseMs;
+
+    //本进程的租约持有者标识
+    private final String owner = UUID.randomUUID().toString();
+
+    //seckillId -> 消费任务
+    private final ConcurrentMap<Long, Drainer> drainers = new ConcurrentHashMap<Long, Drainer>();
+
+    //seckillId -> 秒杀结束时间
+    private final ConcurrentMap<Long, Long> endTimes = new ConcurrentHashMap<Long, Long>();
+
+    private ThreadPoolExecutor workers;
+
+    private ExecutorService dispatcher;
+
+    private ScheduledExecutorService sweeper;
+
+    private volatile boolean running;
+
+    @PostConstruct
+    public void init(){
+        running = true;
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("wait-queue-consumer"));
+        int nodes = redisDao.getNodeCount();
+        dispatcher = Executors.newFixedThreadPool(nodes, new NamedThreadFactory("wait-queue-dispatcher"));
+        for (int i = 0; i < nodes; i++) {
+            final int node = i;
+            dispatcher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    dispatch(node);
+                }
+            });
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("wait-queue-sweeper"));
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sweep();
+            }
+        }, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+        recover();
+    }
+
+    @PreDestroy
+    public void shutdown(){
+        running = false;
+        dispatcher.shutdownNow();
+        sweeper.shutdownNow();
+        //正在写库的批次执行完，未确认的用户在重启后重新处理
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(10, TimeUnit.SECONDS)){
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 商品库存初始化后开始消费
+     */
+    public void start(long seckillId, long endTime){
+        if (endTimes.put(seckillId, endTime) == null){
+            registerGauges(seckillId);
+        }
+        redisDao.addActiveItem(seckillId);
+        signal(seckillId);
+    }
+
+    /**
+     * 通知商品的排队队列有数据，需要消费
+     */
+    public void signal(long seckillId){
+        if (!running){
+            return;
+        }
+        drainerOf(seckillId).signal();
+    }
+
+    private Drainer drainerOf(long seckillId){
+        Drainer drainer = drainers.get(seckillId);
+        if (drainer == null){
+            Drainer created = new Drainer(seckillId);
+            drainer = drainers.putIfAbsent(seckillId, created);
+            if (drainer == null){
+                drainer = created;
+            }
+        }
+        return drainer;
+    }
+
+    private void dispatch(int node){
+        while (running && !Thread.currentThread().isInterrupted()){
+            Long seckillId;
+            try {
+                seckillId = redisDao.takeReadyItem(node, TAKE_TIMEOUT);
+            } catch (Exception e){
+                //节点不可用时等待一个阻塞周期再重试，避免空转；期间由巡检线程补发通知
+                logger.error("take ready item failed, node=" + node, e);
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(TAKE_TIMEOUT));
+                } catch (InterruptedException ie){
+                    return;
+                }
+                continue;
+            }
+            if (seckillId != null){
+                signal(seckillId);
+            }
+        }
+    }
+
+    /**
+     * 进程重启后恢复消费：重新调度所有活动商品，
+     * 处理中队列里未确认的用户在获得消费租约时放回排队队列，其他节点仍在消费的商品不受影响
+     */
+    private void recover(){
+        logger.info("recover wait queue consumers, owner={}", owner);
+        for (Long seckillId : redisDao.getActiveItems()){
+            try {
+                Seckill seckill = seckillDao.queryById(seckillId);
+                if (seckill == null){
+                    redisDao.removeActiveItem(seckillId);
+                    continue;
+                }
+                logger.info("recover wait queue consumer, seckillId={}", seckillId);
+                start(seckillId, seckill.getEndTime().getTime());
+            } catch (Exception e){
+                logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 巡检本节点负责的商品：队列有数据则补发通知，秒杀结束且已消费完则移出活动商品
+     */
+    private void sweep(){
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, Long> entry : endTimes.entrySet()){
+            long seckillId = entry.getKey();
+            try {
+                if (redisDao.getWaitQueueNumber(seckillId) > 0){
+                    signal(seckillId);
+                } else if ((now > entry.getValue() || redisDao.getStock(seckillId) <= 0)
+                        && redisDao.getProcessingNumber(seckillId) == 0){
+                    endTimes.remove(seckillId);
+                    drainers.remove(seckillId);
+                    removeGauges(seckillId);
+                    redisDao.removeActiveItem(seckillId);
+                    logger.info("wait queue consumer finished, seckillId={}", seckillId);
+                }
+            } catch (Exception e){
+                logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void registerGauges(final long seckillId){
+        String id = String.valueOf(seckillId);
+        metricsRegistry.gauge(MetricsRegistry.name("seckill_wait_queue_depth", "seckill_id", id),
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return redisDao.getWaitQueueNumber(seckillId);
+                    }
+                });
+        metricsRegistry.gauge(MetricsRegistry.name("seckill_wait_queue_processing", "seckill_id", id),
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return redisDao.getProcessingNumber(seckillId);
+                    }
+                });
+        metricsRegistry.gauge(MetricsRegistry.name("seckill_stock_remaining", "seckill_id", id),
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return redisDao.getStock(seckillId);
+                    }
+                });
+        //消费延迟：排队队列最近一次被取空到现在的毫秒数，队列为空时为0
+        metricsRegistry.gauge(MetricsRegistry.name("seckill_consumer_lag_millis", "seckill_id", id),
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        if (redisDao.getWaitQueueNumber(seckillId) == 0){
+                            return 0;
+                        }
+                        return System.currentTimeMillis() - drainerOf(seckillId).caughtUpAt;
+                    }
+                });
+    }
+
+    private void removeGauges(long seckillId){
+        String id = String.valueOf(seckillId);
+        metricsRegistry.removeGauge(MetricsRegistry.name("seckill_wait_queue_depth", "seckill_id", id));
+        metricsRegistry.removeGauge(MetricsRegistry.name("seckill_wait_queue_processing", "seckill_id", id));
+        metricsRegistry.removeGauge(MetricsRegistry.name("seckill_stock_remaining", "seckill_id", id));
+        metricsRegistry.removeGauge(MetricsRegistry.name("seckill_consumer_lag_millis", "seckill_id", id));
+    }
+
+    /**
+     * 单个商品的消费任务
+     * 状态：IDLE 空闲 -> SCHEDULED 已提交 -> RUNNING 执行中 -> IDLE；
+     * 执行中收到通知转为RUNNING_DIRTY，本轮结束后重新提交，保证通知不丢失且同一时刻只有一个任务
+     */
+    private final class Drainer implements Runnable {
+
+        private static final int IDLE = 0;
+        private static final int SCHEDULED = 1;
+        private static final int RUNNING = 2;
+        private static final int RUNNING_DIRTY = 3;
+
+        private final long seckillId;
+
+        private final AtomicInteger state = new AtomicInteger(IDLE);
+
+        //最近一次取空排队队列的时间
+        volatile long caughtUpAt = System.currentTimeMillis();
+
+        //连续失败的次数，同一时刻只有一个任务修改
+        private int failures;
+
+        Drainer(long seckillId) {
+            this.seckillId = seckillId;
+        }
+
+        void signal(){
+            for (;;){
+                int current = state.get();
+                if (current == IDLE){
+                    if (state.compareAndSet(IDLE, SCHEDULED)){
+                        submit();
+                        return;
+                    }
+                } else if (current == RUNNING){
+                    if (state.compareAndSet(RUNNING, RUNNING_DIRTY)){
+                        return;
+                    }
+                } else {
+                    //已提交或已标记，不用重复提交
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            state.set(RUNNING);
+            boolean drained = false;
+            long delay = 0;
+            long redriven = redisDao.acquireConsumerLease(seckillId, owner, leaseMs);
+            if (redriven == RedisDao.LEASE_HELD){
+                //其他节点正在消费，由持有者取空队列
+                state.set(IDLE);
+                return;
+            }
+            try {
+                if (redriven == RedisDao.LEASE_ERROR){
+                    throw new IllegalStateException("acquire consumer lease failed");
+                }
+                if (redriven > 0){
+                    logger.info("consumer lease acquired, seckillId={}, redrive={}", seckillId, redriven);
+                }
+                long renewedAt = System.currentTimeMillis();
+                for (int i = 0; i < batchesPerTurn && running; i++) {
+                    //已经过了三分之一的租约时间则续约，续约失败说明租约已被接管
+                    if (System.currentTimeMillis() - renewedAt > leaseMs / 3){
+                        if (!redisDao.renewConsumerLease(seckillId, owner, leaseMs)){
+                            logger.warn("consumer lease lost, seckillId={}", seckillId);
+                            drained = true;
+                            break;
+                        }
+                        renewedAt = System.currentTimeMillis();
+                    }
+                    if (waitQueueConsumer.drainOnce(seckillId) == 0){
+                        caughtUpAt = System.currentTimeMillis();
+                        drained = true;
+                        break;
+                    }
+                }
+                failures = 0;
+            } catch (Exception e){
+                failures++;
+                delay = Math.min(RETRY_MAX_DELAY, RETRY_MIN_DELAY << Math.min(failures - 1, 10));
+                logger.error("drain wait queue failed, seckillId=" + seckillId + ", failures=" + failures
+                        + ", retry in " + delay + "ms", e);
+            } finally {
+                redisDao.releaseConsumerLease(seckillId, owner);
+            }
+            if (!running){
+                state.set(IDLE);
+                return;
+            }
+            if (delay > 0){
+                //退避期间保持SCHEDULED，新的通知不会提交任务
+                state.set(SCHEDULED);
+                submitLater(delay);
+                return;
+            }
+            //队列还有数据或执行期间收到了新的通知，重新排到队尾
+            if (!drained || !state.compareAndSet(RUNNING, IDLE)){
+                state.set(SCHEDULED);
+                submit();
+            } else if (redisDao.getWaitQueueNumber(seckillId) > 0){
+                //释放租约之前到达的就绪通知可能被其他节点取走并因租约被占用而放弃
+                signal();
+            }
+        }
+
+        private void submit(){
+            try {
+                workers.execute(this);
+            } catch (Exception e){
+                //线程池已关闭
+                state.set(IDLE);
+            }
+        }
+
+        private void submitLater(long delay){
+            try {
+                sweeper.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        submit();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (Exception e){
+                state.set(IDLE);
+            }
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
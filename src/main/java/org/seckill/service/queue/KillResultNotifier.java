@@ -0,0 +1,114 @@
+package org.seckill.service.queue;
+
+import org.seckill.dao.cache.RedisEventBus;
+import org.seckill.dto.SeckillExecution;
+import org.seckill.enums.SeckillStatEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * 排队秒杀结果通知
+ * 消费者写库提交（或失败）后通过事件总线广播结果，
+ * 各节点唤醒本地正在等待该用户结果的请求；消费者与等待的请求不必在同一节点
+ */
+@Component
+public class KillResultNotifier {
+
+    /**
+     * 结果回调，在订阅线程中执行，不能阻塞
+     */
+    public interface Listener {
+        void onResult(SeckillExecution execution);
+    }
+
+    public static final String CHANNEL = "seckill.result";
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    //seckillId:userPhone -> 等待结果的请求
+    //列表只在compute/computeIfPresent中修改，与移除整个条目互斥；移除后的列表不再被修改
+    private final ConcurrentHashMap<String, List<Listener>> waiters =
+            new ConcurrentHashMap<String, List<Listener>>();
+
+    @Autowired
+    private RedisEventBus redisEventBus;
+
+    @PostConstruct
+    public void init(){
+        redisEventBus.addListener(CHANNEL, new RedisEventBus.Listener() {
+            @Override
+            public void onEvent(String message) {
+                onMessage(message);
+            }
+        });
+    }
+
+    public void await(long seckillId, long userPhone, final Listener listener){
+        waiters.compute(seckillId + ":" + userPhone, new BiFunction<String, List<Listener>, List<Listener>>() {
+            @Override
+            public List<Listener> apply(String key, List<Listener> list) {
+                if (list == null){
+                    list = new ArrayList<Listener>(1);
+                }
+                list.add(listener);
+                return list;
+            }
+        });
+    }
+
+    /**
+     * 请求完成或超时后取消等待，列表为空时删除条目
+     */
+    public void cancel(long seckillId, long userPhone, final Listener listener){
+        waiters.computeIfPresent(seckillId + ":" + userPhone, new BiFunction<String, List<Listener>, List<Listener>>() {
+            @Override
+            public List<Listener> apply(String key, List<Listener> list) {
+                list.remove(listener);
+                return list.isEmpty() ? null : list;
+            }
+        });
+    }
+
+    /**
+     * 广播一批用户的秒杀结果
+     * 消息格式：state:seckillId:userPhone,userPhone,...
+     */
+    public void publish(long seckillId, List<Long> userPhones, SeckillStatEnum stat){
+        StringBuilder sb = new StringBuilder();
+        sb.append(stat.getState()).append(':').append(seckillId).append(':');
+        for (int i = 0; i < userPhones.size(); i++) {
+            if (i > 0){
+                sb.append(',');
+            }
+            sb.append(userPhones.get(i));
+        }
+        redisEventBus.publish(CHANNEL, sb.toString());
+    }
+
+    private void onMessage(String message){
+        String[] parts = message.split(":");
+        if (parts.length != 3){
+            logger.warn("illegal kill result message: {}", message);
+            return;
+        }
+        SeckillStatEnum stat = SeckillStatEnum.stateOf(Integer.parseInt(parts[0]));
+        long seckillId = Long.parseLong(parts[1]);
+        for (String userPhone : parts[2].split(",")){
+            List<Listener> list = waiters.remove(seckillId + ":" + userPhone);
+            if (list == null){
+                continue;
+            }
+            for (Listener listener : list){
+                listener.onResult(new SeckillExecution(seckillId, stat));
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.seckill.service.queue;
+
+import org.seckill.dao.SeckillDao;
+import org.seckill.dao.SuccessKilledDao;
+import org.seckill.exception.SeckillCloseException;
+import org.seckill.service.support.ShardedStock;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * 排队订单批量写库
+ * 一个事务内：一条多行insert ignore写入购买明细 + 一条update按实际插入行数减库存
+ * （库存已分片时逐个分片扣减）
+ */
+@Component
+public class OrderBatchWriter {
+
+    @Autowired
+    private SeckillDao seckillDao;
+
+    @Autowired
+    private SuccessKilledDao successKilledDao;
+
+    @Autowired
+    private ShardedStock shardedStock;
+
+    /**
+     * @param seckillId
+     * @param userPhones 已经通过redis准入的用户
+     * @return 实际插入的购买明细数，已存在的明细（重复投递）被忽略且不再减库存
+     * @throws SeckillCloseException 数据库库存不足，事务回滚
+     */
+    @Transactional
+    public int write(long seckillId, List<Long> userPhones) {
+        int inserted = successKilledDao.insertSuccessKilledBatch(seckillId, userPhones);
+        if (inserted > 0){
+            int updated = seckillDao.reduceNumberBy(seckillId, inserted);
+            //库存已拆分到分片时seckill行的number为0，改为从分片扣减
+            if (updated <= 0 && !shardedStock.reduceBy(seckillId, inserted)){
+                //库存不足，回滚插入的明细
+                throw new SeckillCloseException("seckill stock not enough");
+            }
+        }
+        return inserted;
+    }
+}
@@ -0,0 +1,335 @@
+package org.seckill.service.queue;
+
+import org.seckill.dao.SeckillDao;
+import org.seckill.dao.cache.RedisDao;
+import org.seckill.dto.SeckillExecution;
+import org.seckill.entity.Seckill;
+import org.seckill.enums.SeckillStatEnum;
+import org.seckill.metrics.Histogram;
+import org.seckill.metrics.MetricsRegistry;
+import org.seckill.service.support.CombinedKillWriter;
+import org.seckill.service.support.KillCombiner;
+import org.seckill.service.support.SoldOutFlags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ActiveMQ秒杀订单批量消费者，在Spring-activemq.xml中装配
+ * 每个消费线程使用自己的连接和CLIENT_ACKNOWLEDGE会话：
+ * 1. 阻塞等待第一条消息，再最多等待lingerMs凑满batchSize条
+ * 2. 按商品分组，每个商品的一组用户由CombinedKillWriter在一个事务中秒杀
+ * 3. 移除用户的排队标记后通过KillResultNotifier广播每个用户的结果，有用户因库存不足失败时标记售罄
+ * 4. 确认最后一条消息，一次确认整批；确认之前进程退出，broker会重新投递未确认的消息
+ * 5. 有用户因数据库异常没有得到最终结果时整批不确认，session.recover()后按连接工厂的重新投递策略延迟重新投递，
+ *    这些用户保留排队标记、不广播结果，等待重新投递后的结果
+ * 重新投递的用户已有购买明细时不会重复减库存；明细只属于抢到的用户，因此重新投递的消息按秒杀成功通知，
+ * 而不是重复秒杀
+ * 连接在消费线程中建立，broker不可用时不阻塞容器启动，断开后间隔重连
+ */
+public class OrderMessageConsumer {
+
+    //等待第一条消息的毫秒数，超时后检查是否停止
+    private static final long RECEIVE_TIMEOUT = 1000;
+
+    //连接失败后的重连间隔
+    private static final long RECONNECT_INTERVAL = 3000;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final ConnectionFactory connectionFactory;
+
+    private final String queueName;
+
+    private final int consumers;
+
+    private final int batchSize;
+
+    private final long lingerMs;
+
+    @Autowired
+    private SeckillDao seckillDao;
+
+    @Autowired
+    private RedisDao redisDao;
+
+    @Autowired
+    private CombinedKillWriter killWriter;
+
+    @Autowired
+    private KillCombiner killCombiner;
+
+    @Autowired
+    private KillResultNotifier killResultNotifier;
+
+    @Autowired
+    private SoldOutFlags soldOutFlags;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    private Histogram batchSizes;
+
+    private final List<Thread> threads = new ArrayList<Thread>();
+
+    private volatile boolean running;
+
+    /**
+     * @param connectionFactory 消费者的ConnectionFactory
+     * @param queueName 订单队列
+     * @param consumers 消费线程数
+     * @param batchSize 每批最多处理的消息数
+     * @param lingerMs 不足一批时最多等待的毫秒数
+     */
+    public OrderMessageConsumer(ConnectionFactory connectionFactory, String queueName,
+                                int consumers, int batchSize, long lingerMs) {
+        this.connectionFactory = connectionFactory;
+        this.queueName = queueName;
+        this.consumers = consumers;
+        this.batchSize = batchSize;
+        this.lingerMs = lingerMs;
+    }
+
+    public void start(){
+        batchSizes = metricsRegistry.histogram("seckill_mq_batch_size",
+                1, 2, 5, 10, 20, 50, 100, 200, 500, 1000);
+        running = true;
+        for (int i = 0; i < consumers; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    consume();
+                }
+            }, "order-message-consumer-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+    }
+
+    public void stop(){
+        running = false;
+        //正在写库的批次执行完再退出，未确认的消息由broker重新投递
+        for (Thread thread : threads){
+            try {
+                thread.join(RECEIVE_TIMEOUT * 2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (thread.isAlive()){
+                thread.interrupt();
+            }
+        }
+        threads.clear();
+    }
+
+    private void consume(){
+        while (running){
+            Connection connection = null;
+            try {
+                connection = connectionFactory.createConnection();
+                connection.start();
+                Session session = connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
+                MessageConsumer consumer = session.createConsumer(session.createQueue(queueName));
+                while (running){
+                    drainOnce(session, consumer);
+                }
+            } catch (Exception e){
+                if (running){
+                    logger.error(e.getMessage(), e);
+                    sleep(RECONNECT_INTERVAL);
+                }
+            } finally {
+                close(connection);
+            }
+        }
+    }
+
+    private void drainOnce(Session session, MessageConsumer consumer) throws JMSException {
+        List<Message> batch = collect(consumer);
+        if (batch.isEmpty()){
+            return;
+        }
+        //seckillId -> 按到达顺序排列的不重复用户
+        Map<Long, Set<Long>> orders = new LinkedHashMap<Long, Set<Long>>();
+        //seckillId -> 重新投递的消息中的用户
+        Map<Long, Set<Long>> redelivered = new HashMap<Long, Set<Long>>();
+        for (Message message : batch){
+            if (!(message instanceof MapMessage)){
+                logger.warn("illegal order message: {}", message);
+                continue;
+            }
+            MapMessage mapMessage = (MapMessage) message;
+            long seckillId = mapMessage.getLong(OrderMessageProducer.SECKILL_ID);
+            long userPhone = mapMessage.getLong(OrderMessageProducer.USER_PHONE);
+            usersOf(orders, seckillId).add(userPhone);
+            if (message.getJMSRedelivered()){
+                usersOf(redelivered, seckillId).add(userPhone);
+            }
+        }
+        boolean completed = true;
+        for (Map.Entry<Long, Set<Long>> entry : orders.entrySet()){
+            Set<Long> redeliveredUsers = redelivered.get(entry.getKey());
+            completed &= kill(entry.getKey(), new ArrayList<Long>(entry.getValue()),
+                    redeliveredUsers == null ? Collections.<Long>emptySet() : redeliveredUsers);
+        }
+        if (!completed){
+            //不确认，会话上所有未确认的消息延迟后重新投递
+            session.recover();
+            metricsRegistry.counter("seckill_mq_recovered_total").add(batch.size());
+            return;
+        }
+        //已写库并通知，确认整批；会话上之前收到的消息一并确认
+        batch.get(batch.size() - 1).acknowledge();
+        metricsRegistry.counter("seckill_mq_consumed_total").add(batch.size());
+        batchSizes.record(batch.size());
+    }
+
+    private List<Message> collect(MessageConsumer consumer) throws JMSException {
+        List<Message> batch = new ArrayList<Message>();
+        Message message = consumer.receive(RECEIVE_TIMEOUT);
+        if (message == null){
+            return batch;
+        }
+        batch.add(message);
+        long deadline = System.currentTimeMillis() + lingerMs;
+        while (batch.size() < batchSize){
+            long wait = deadline - System.currentTimeMillis();
+            //已预取到本地的消息不需要等待
+            message = wait > 0 ? consumer.receive(wait) : consumer.receiveNoWait();
+            if (message == null){
+                break;
+            }
+            batch.add(message);
+        }
+        return batch;
+    }
+
+    private static Set<Long> usersOf(Map<Long, Set<Long>> orders, long seckillId){
+        Set<Long> userPhones = orders.get(seckillId);
+        if (userPhones == null){
+            userPhones = new LinkedHashSet<Long>();
+            orders.put(seckillId, userPhones);
+        }
+        return userPhones;
+    }
+
+    /**
+     * 一个商品的一组用户秒杀并广播结果
+     * @param redelivered 重新投递的用户，已有购买明细说明之前的投递已经成功
+     * @return 是否所有用户都得到了最终结果，数据库异常的用户返回false
+     */
+    private boolean kill(long seckillId, List<Long> userPhones, Set<Long> redelivered){
+        long generation = soldOutFlags.generation(seckillId);
+        Map<Long, SeckillExecution> results;
+        try {
+            Seckill seckill = seckillDao.queryById(seckillId);
+            if (seckill == null){
+                results = uniform(seckillId, userPhones, SeckillStatEnum.END);
+            } else if (seckill.getStockShards() > 0){
+                //库存已拆分到分片，逐个用户在分片上扣减
+                results = killEach(seckill, userPhones);
+            } else {
+                try {
+                    results = killWriter.write(seckillId, userPhones);
+                } catch (Exception e){
+                    //合并事务失败（并发写入或刚被拆分），重新读取分片数后逐个用户执行
+                    logger.warn("combined kill failed, seckillId={}: {}", seckillId, e.getMessage());
+                    Seckill current = seckillDao.queryById(seckillId);
+                    results = killEach(current == null ? seckill : current, userPhones);
+                }
+            }
+        } catch (Exception e){
+            logger.error(e.getMessage(), e);
+            results = uniform(seckillId, userPhones, SeckillStatEnum.INNER_ERROR);
+        }
+
+        Map<SeckillStatEnum, List<Long>> byStat = new LinkedHashMap<SeckillStatEnum, List<Long>>();
+        for (Long userPhone : userPhones){
+            SeckillStatEnum stat = SeckillStatEnum.stateOf(results.get(userPhone).getState());
+            if (stat == SeckillStatEnum.REPEAT_KILL && redelivered.contains(userPhone)){
+                stat = SeckillStatEnum.SUCCESS;
+            }
+            List<Long> list = byStat.get(stat);
+            if (list == null){
+                list = new ArrayList<Long>();
+                byStat.put(stat, list);
+            }
+            list.add(userPhone);
+        }
+        List<Long> finished = new ArrayList<Long>(userPhones.size());
+        for (Map.Entry<SeckillStatEnum, List<Long>> entry : byStat.entrySet()){
+            metricsRegistry.counter(MetricsRegistry.name("seckill_mq_orders_total",
+                    "state", entry.getKey().name())).add(entry.getValue().size());
+            if (entry.getKey() != SeckillStatEnum.INNER_ERROR){
+                finished.addAll(entry.getValue());
+            }
+        }
+        if (!finished.isEmpty()){
+            //先移除排队标记，收到通知后查询结果接口的用户看到的是数据库中的最终结果
+            redisDao.removePendingOrders(seckillId, finished);
+        }
+        for (Map.Entry<SeckillStatEnum, List<Long>> entry : byStat.entrySet()){
+            if (entry.getKey() != SeckillStatEnum.INNER_ERROR){
+                killResultNotifier.publish(seckillId, entry.getValue(), entry.getKey());
+            }
+        }
+        if (byStat.containsKey(SeckillStatEnum.END)){
+            //库存已空，后续请求在发送消息之前就返回
+            soldOutFlags.markSoldOut(seckillId, generation);
+        }
+        return !byStat.containsKey(SeckillStatEnum.INNER_ERROR);
+    }
+
+    private Map<Long, SeckillExecution> killEach(Seckill seckill, List<Long> userPhones){
+        Map<Long, SeckillExecution> results = new LinkedHashMap<Long, SeckillExecution>();
+        for (Long userPhone : userPhones){
+            results.put(userPhone, killCombiner.kill(seckill, seckill.getStockShards(), userPhone));
+        }
+        return results;
+    }
+
+    private static Map<Long, SeckillExecution> uniform(long seckillId, List<Long> userPhones, SeckillStatEnum stat){
+        Map<Long, SeckillExecution> results = new LinkedHashMap<Long, SeckillExecution>();
+        for (Long userPhone : userPhones){
+            results.put(userPhone, new SeckillExecution(seckillId, stat));
+        }
+        return results;
+    }
+
+    private void close(Connection connection){
+        if (connection == null){
+            return;
+        }
+        try {
+            connection.close();
+        } catch (JMSException e){
+            logger.warn(e.getMessage());
+        }
+    }
+
+    private static void sleep(long millis){
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.seckill.service.queue;
+
+import org.seckill.metrics.MetricsRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jms.connection.CachingConnectionFactory;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.core.MessageCreator;
+
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.Session;
+
+/**
+ * ActiveMQ秒杀订单生产者，在Spring-activemq.xml中装配
+ * 请求线程校验通过后发送一条持久化消息即返回，broker确认收到后订单不会丢失；
+ * 会话和生产者由CachingConnectionFactory缓存复用，不在每次发送时建立连接
+ */
+public class OrderMessageProducer {
+
+    //消息字段
+    static final String SECKILL_ID = "seckillId";
+
+    static final String USER_PHONE = "userPhone";
+
+    private final CachingConnectionFactory connectionFactory;
+
+    private final JmsTemplate jmsTemplate;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    /**
+     * @param connectionFactory 生产者的ConnectionFactory
+     * @param queueName 订单队列
+     * @param sessionCacheSize 缓存的会话数，与并发发送的请求线程数相当
+     */
+    public OrderMessageProducer(ConnectionFactory connectionFactory, String queueName, int sessionCacheSize) {
+        this.connectionFactory = new CachingConnectionFactory(connectionFactory);
+        this.connectionFactory.setSessionCacheSize(sessionCacheSize);
+        jmsTemplate = new JmsTemplate(this.connectionFactory);
+        jmsTemplate.setDefaultDestinationName(queueName);
+    }
+
+    /**
+     * 发送秒杀订单，broker确认后返回
+     * @throws org.springframework.jms.JmsException 连接不上broker或发送超时
+     */
+    public void send(final long seckillId, final long userPhone){
+        jmsTemplate.send(new MessageCreator() {
+            @Override
+            public Message createMessage(Session session) throws JMSException {
+                MapMessage message = session.createMapMessage();
+                message.setLong(SECKILL_ID, seckillId);
+                message.setLong(USER_PHONE, userPhone);
+                return message;
+            }
+        });
+        metricsRegistry.counter("seckill_mq_sent_total").increment();
+    }
+
+    public void destroy(){
+        connectionFactory.destroy();
+    }
+}
@@ -0,0 +1,150 @@
+package org.seckill.service.queue;
+
+import org.seckill.dao.cache.RedisDao;
+import org.seckill.enums.SeckillStatEnum;
+import org.seckill.exception.SeckillCloseException;
+import org.seckill.metrics.Histogram;
+import org.seckill.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 排队队列批量消费者
+ * 每次从waitQueue中取出最多batchSize个用户并移入处理中队列，不足一批时最多再等待lingerMs凑批，
+ * 然后在一个事务中批量写入数据库，提交后再确认删除；由ConsumerScheduler调度执行。
+ * 数据库库存不足时整批回滚，对半拆分后重试，剩余库存按排队顺序写入尽可能多的用户，
+ * 单个用户也写不进时库存已空，其余用户不再写库；库存不足的用户转入失败集合后确认。
+ * 其他异常（数据库暂时不可用等）不确认，这批用户移回排队队列，异常抛给ConsumerScheduler退避后重试，
+ * 重试时已写入的用户被insert ignore忽略，不会重复减库存
+ */
+@Component
+public class WaitQueueConsumer {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private RedisDao redisDao;
+
+    @Autowired
+    private OrderBatchWriter orderBatchWriter;
+
+    @Autowired
+    private KillResultNotifier killResultNotifier;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Value("${seckill.consumer.batchSize:100}")
+    private int batchSize;
+
+    @Value("${seckill.consumer.lingerMs:5}")
+    private long lingerMs;
+
+    private Histogram batchSizes;
+
+    private Histogram flushLatency;
+
+    @PostConstruct
+    public void init(){
+        batchSizes = metricsRegistry.histogram("seckill_consumer_batch_size",
+                1, 2, 5, 10, 20, 50, 100, 200, 500, 1000);
+        flushLatency = metricsRegistry.histogram("seckill_consumer_flush_latency_micros",
+                500, 1000, 2000, 5000, 10000, 20000, 50000, 100000, 200000, 500000, 1000000);
+    }
+
+    /**
+     * 取出一批用户并写库，不阻塞
+     * @return 本次处理的用户数，0表示队列已空
+     */
+    public int drainOnce(long seckillId){
+        List<Long> users = collect(seckillId);
+        if (!users.isEmpty()){
+            flush(seckillId, users);
+        }
+        return users.size();
+    }
+
+    private List<Long> collect(long seckillId){
+        List<Long> batch = new ArrayList<Long>(redisDao.popWaitQueue(seckillId, batchSize));
+        if (!batch.isEmpty() && batch.size() < batchSize && lingerMs > 0){
+            //不足一批，等待更多的用户进入队列
+            try {
+                Thread.sleep(lingerMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return batch;
+            }
+            batch.addAll(redisDao.popWaitQueue(seckillId, batchSize - batch.size()));
+        }
+        return batch;
+    }
+
+    private void flush(long seckillId, List<Long> userPhones){
+        long start = System.nanoTime();
+        try {
+            List<Long> written = new ArrayList<Long>(userPhones.size());
+            List<Long> rejected = new ArrayList<Long>();
+            try {
+                write(seckillId, userPhones, written, rejected);
+            } catch (RuntimeException e){
+                //未全部提交，整批移回排队队列等待重试；redis也异常时留在处理中队列，下次获得消费租约时放回
+                if (redisDao.requeueWaitQueue(seckillId, userPhones) < 0){
+                    logger.warn("requeue failed, users left in processing queue, seckillId={}", seckillId);
+                }
+                metricsRegistry.counter("seckill_consumer_retried_orders_total").add(userPhones.size());
+                throw e;
+            }
+            if (!rejected.isEmpty()){
+                //数据库库存不足，重试也不会成功
+                logger.error("wait queue orders rejected, stock not enough, seckillId={}, users={}",
+                        seckillId, rejected.size());
+                redisDao.pushUserToFailureQueue(seckillId, rejected);
+                killResultNotifier.publish(seckillId, rejected, SeckillStatEnum.INNER_ERROR);
+                metricsRegistry.counter("seckill_consumer_failed_orders_total").add(rejected.size());
+            }
+            if (!written.isEmpty()){
+                //将秒杀成功结果放到结果集合中，并通知等待结果的请求
+                redisDao.pushUserToResultsQueue(seckillId, written);
+                killResultNotifier.publish(seckillId, written, SeckillStatEnum.SUCCESS);
+                metricsRegistry.counter("seckill_consumer_orders_total").add(written.size());
+            }
+            //已提交，从处理中队列确认删除；确认之前进程退出会在重启后重新处理
+            redisDao.ackWaitQueue(seckillId, userPhones);
+        } finally {
+            batchSizes.record(userPhones.size());
+            flushLatency.record((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    /**
+     * 写库，库存不足时对半拆分重试，前一半先写，保持排队顺序
+     * @param written 已提交的用户
+     * @param rejected 库存不足的用户；单个用户被拒绝后库存已空，后面的用户直接加入
+     */
+    private void write(long seckillId, List<Long> userPhones, List<Long> written, List<Long> rejected){
+        if (!rejected.isEmpty()){
+            rejected.addAll(userPhones);
+            return;
+        }
+        try {
+            orderBatchWriter.write(seckillId, userPhones);
+            written.addAll(userPhones);
+        } catch (SeckillCloseException e){
+            if (userPhones.size() == 1){
+                rejected.addAll(userPhones);
+                return;
+            }
+            metricsRegistry.counter("seckill_consumer_split_batches_total").increment();
+            int half = userPhones.size() / 2;
+            write(seckillId, userPhones.subList(0, half), written, rejected);
+            write(seckillId, userPhones.subList(half, userPhones.size()), written, rejected);
+        }
+    }
+}
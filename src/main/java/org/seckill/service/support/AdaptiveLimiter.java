@@ -0,0 +1,147 @@
+package org.seckill.service.support;
+
+import org.seckill.metrics.MetricsRegistry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 自适应并发限制（梯度算法）
+ * 按Little定律，连接池在不排队时能承受的并发约为 吞吐量 × 无排队时的耗时；
+ * 超过后请求只会在获取连接处排队，耗时上升。这里不直接测量排队，而是比较耗时的变化：
+ * 每个采样窗口的平均耗时（短期）与耗时的指数移动平均（长期）之比作为梯度，
+ * 短期耗时明显高于长期时按梯度减小并发上限，耗时平稳时每个窗口增加sqrt(limit)试探更高的并发。
+ * 超过上限的请求立即拒绝，调用方返回可重试的状态，而不是等待连接超时
+ */
+public class AdaptiveLimiter {
+
+    //采样窗口的最短时间和最少样本数
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int WINDOW_SAMPLES = 10;
+
+    //短期耗时超过长期耗时的容忍倍数，在容忍范围内不减小上限
+    private static final double TOLERANCE = 1.5;
+
+    //长期耗时移动平均的权重，约为最近20个窗口
+    private static final double LONG_RTT_ALPHA = 0.05;
+
+    //新上限的平滑权重
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private volatile int limit;
+
+    //以下字段只在加锁时访问
+    private double estimatedLimit;
+
+    private double longRtt;
+
+    private long windowStart = System.nanoTime();
+
+    private long windowRttSum;
+
+    private int windowCount;
+
+    //窗口内的最大并发，并发远低于上限时说明上限不是瓶颈，不增加上限
+    private int windowMaxInflight;
+
+    /**
+     * @param name 指标中的limiter标签
+     */
+    public AdaptiveLimiter(MetricsRegistry registry, String name, int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.estimatedLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.limit = (int) estimatedLimit;
+        registry.gauge(MetricsRegistry.name("seckill_limiter_limit", "limiter", name), new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                return limit;
+            }
+        });
+        registry.gauge(MetricsRegistry.name("seckill_limiter_inflight", "limiter", name), new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                return inflight.get();
+            }
+        });
+        registry.counter(MetricsRegistry.name("seckill_limiter_rejected_total", "limiter", name), new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                return rejected.sum();
+            }
+        });
+    }
+
+    /**
+     * @return false表示已达到并发上限，请求应当立即拒绝；返回true时必须调用release
+     */
+    public boolean tryAcquire(){
+        for (;;){
+            int current = inflight.get();
+            if (current >= limit){
+                rejected.increment();
+                return false;
+            }
+            if (inflight.compareAndSet(current, current + 1)){
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 请求完成，记录耗时
+     * @param startNanos tryAcquire之前取的System.nanoTime()
+     */
+    public void release(long startNanos){
+        int current = inflight.getAndDecrement();
+        sample(System.nanoTime() - startNanos, current);
+    }
+
+    private synchronized void sample(long rttNanos, int current){
+        windowRttSum += rttNanos;
+        windowCount++;
+        windowMaxInflight = Math.max(windowMaxInflight, current);
+        long now = System.nanoTime();
+        if (windowCount < WINDOW_SAMPLES || now - windowStart < WINDOW_NANOS){
+            return;
+        }
+        update((double) windowRttSum / windowCount, windowMaxInflight);
+        windowStart = now;
+        windowRttSum = 0;
+        windowCount = 0;
+        windowMaxInflight = 0;
+    }
+
+    private void update(double shortRtt, int maxInflight){
+        longRtt = longRtt == 0 ? shortRtt : longRtt * (1 - LONG_RTT_ALPHA) + shortRtt * LONG_RTT_ALPHA;
+        if (longRtt > shortRtt * 2){
+            //负载下降后长期耗时偏高，较快回落，否则会长时间容忍过高的耗时
+            longRtt *= 0.95;
+        }
+        if (maxInflight < estimatedLimit / 2){
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        limit = (int) estimatedLimit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+}
@@ -0,0 +1,143 @@
+package org.seckill.service.support;
+
+import org.seckill.dao.SeckillDao;
+import org.seckill.dao.SuccessKilledDao;
+import org.seckill.dto.SeckillExecution;
+import org.seckill.entity.Seckill;
+import org.seckill.entity.SuccessKilled;
+import org.seckill.enums.SeckillStatEnum;
+import org.seckill.exception.RepeatKillException;
+import org.seckill.exception.SeckillCloseException;
+import org.seckill.exception.SeckillException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * executeSeckill的数据库事务
+ * write：合并后的一批用户在一个事务中秒杀；writeOne：单个用户秒杀，也是合并失败时的退路
+ */
+@Component
+public class CombinedKillWriter {
+
+    @Autowired
+    private SeckillDao seckillDao;
+
+    @Autowired
+    private SuccessKilledDao successKilledDao;
+
+    @Autowired
+    private ShardedStock shardedStock;
+
+    /**
+     * 一批用户在一个事务中秒杀：
+     * 1. 查询已有明细的用户，为重复秒杀
+     * 2. 其余用户一条多行insert ignore写入明细，并一次取回秒杀结果；这两步不持有商品行锁
+     * 3. 锁定商品行读取剩余库存，按到达顺序前k个用户成功，库存不足的用户删除明细
+     * 4. 一条update减k件库存后提交
+     * @param userPhones 不重复，按到达顺序排列
+     * @return userPhone -> 秒杀结果
+     * @throws SeckillException 其他请求同时写入了这批用户的明细，或库存已拆分到分片，事务回滚，调用方逐个执行
+     */
+    @Transactional
+    public Map<Long, SeckillExecution> write(long seckillId, List<Long> userPhones) {
+        Map<Long, SeckillExecution> results = new HashMap<Long, SeckillExecution>();
+        Set<Long> existing = new HashSet<Long>(successKilledDao.queryUserPhones(seckillId, userPhones));
+        List<Long> candidates = new ArrayList<Long>(userPhones.size());
+        for (Long userPhone : userPhones){
+            if (existing.contains(userPhone)){
+                results.put(userPhone, new SeckillExecution(seckillId, SeckillStatEnum.REPEAT_KILL));
+            } else {
+                candidates.add(userPhone);
+            }
+        }
+        if (candidates.isEmpty()){
+            return results;
+        }
+        if (successKilledDao.insertSuccessKilledBatch(seckillId, candidates) != candidates.size()){
+            throw new SeckillException("success killed inserted concurrently");
+        }
+        Map<Long, SuccessKilled> killed = new HashMap<Long, SuccessKilled>();
+        for (SuccessKilled successKilled : successKilledDao.queryByIdsWithSeckill(seckillId, candidates)){
+            killed.put(successKilled.getUserPhone(), successKilled);
+        }
+
+        //从这里开始持有商品行锁，直到事务提交
+        Seckill seckill = seckillDao.queryByIdForUpdate(seckillId);
+        if (seckill != null && seckill.getStockShards() > 0){
+            throw new SeckillException("seckill stock sharded");
+        }
+        int count = seckill == null || !isOpen(seckill, new Date()) ? 0
+                : Math.min(seckill.getNumber(), candidates.size());
+        List<Long> losers = candidates.subList(count, candidates.size());
+        if (!losers.isEmpty()){
+            successKilledDao.deleteSuccessKilledBatch(seckillId, losers);
+        }
+        if (count > 0 && seckillDao.reduceNumberBy(seckillId, count) <= 0){
+            throw new SeckillException("seckill stock changed concurrently");
+        }
+        for (int i = 0; i < candidates.size(); i++) {
+            Long userPhone = candidates.get(i);
+            results.put(userPhone, i < count
+                    ? new SeckillExecution(seckillId, SeckillStatEnum.SUCCESS, killed.get(userPhone))
+                    : new SeckillExecution(seckillId, SeckillStatEnum.END));
+        }
+        return results;
+    }
+
+    /**
+     * 单个用户秒杀
+     * 使用注解控制事务方法的优点：
+     * 1. 开发团队达成一致约定，明确标注事务方法的编程风格。
+     * 2. 保证事务方法的执行时间尽可能短，不要穿插其他网络操作RPC/HTTP请求或者剥离到事务方法外部
+     * 3. 不是所有的方法都需要事务，如只有一条修改操作，只读操作不需要事务控制。
+     * @param shards 商品的库存分片数，0表示库存在seckill表中
+     */
+    @Transactional
+    public SuccessKilled writeOne(Seckill seckill, int shards, long userPhone)
+            throws RepeatKillException, SeckillCloseException {
+        long seckillId = seckill.getSeckillId();
+        Date nowTime = new Date();
+        /**
+         * 秒杀关键：在减库存这条sql语句，在没有执行完之前，事务一直持有行级锁
+         * 别的事务只能等待事务提交或者回滚之后拿到这个行级锁
+         * 所以通过缩短事务持久减库存这条行级锁的时间可以优化
+         * 解决：先插入购买行为，如果是重复秒杀直接事务回滚，不用继续执行减库存这条sql从而不用持有
+         * 这条高并发的行级锁，如果不是重复秒杀再执行减库存的语句，这样就少了一步持有行级锁的时间了
+         */
+        //记录购买行为
+        int insertCount = successKilledDao.insertSuccessKilled(seckillId, userPhone);
+        //唯一：seckillId, userPhone
+        if(insertCount <= 0){
+            //重复秒杀，事务直接回滚
+            throw new RepeatKillException("seckill repeated");
+        }
+        SuccessKilled successKilled = successKilledDao.queryByIdWithSeckill(seckillId, userPhone);
+        //减库存，热点商品竞争，执行该sql语句时事务会同时开启行级锁，其他事务不能再对该表进行操作
+        int updateCount;
+        if (shards > 0){
+            //库存分片：分片行没有秒杀时间，按缓存的商品校验，再扣减用户分配的分片
+            updateCount = isOpen(seckill, nowTime) && shardedStock.reduce(seckillId, shards, userPhone) ? 1 : 0;
+        } else {
+            updateCount = seckillDao.reduceNumber(seckillId, nowTime);
+        }
+        if(updateCount <= 0){
+            //没有更新到记录，秒杀结束，事务回滚，之前的插入记录也被回滚
+            throw new SeckillCloseException("seckill is closed");
+        }
+        //秒杀成功，事务提交
+        return successKilled;
+    }
+
+    private static boolean isOpen(Seckill seckill, Date killTime){
+        return !killTime.before(seckill.getStartTime()) && !killTime.after(seckill.getEndTime());
+    }
+}
@@ -0,0 +1,224 @@
+package org.seckill.service.support;
+
+import org.seckill.dao.SeckillDao;
+import org.seckill.dto.SeckillExecution;
+import org.seckill.entity.Seckill;
+import org.seckill.enums.SeckillStatEnum;
+import org.seckill.exception.RepeatKillException;
+import org.seckill.exception.SeckillCloseException;
+import org.seckill.metrics.Histogram;
+import org.seckill.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * executeSeckill的请求合并
+ * 同一商品的并发请求进入该商品的等待队列，其中一个请求线程成为执行者：
+ * 等待windowMicros凑批后取出最多maxBatch个请求，在一个事务中执行（CombinedKillWriter.write），
+ * 再把结果分别交给各请求线程。同一商品同一时刻只有一个执行者，只占用一个数据库连接，
+ * 商品行锁每批只获取一次；其余请求线程等待结果，执行者完成后由队首的请求接替。
+ * 批量事务失败时（与其他节点或其他执行方式并发写入同一用户，或库存刚被拆分）回滚，这批请求按当前的分片数逐个执行
+ */
+@Component
+public class KillCombiner {
+
+    //等待结果的线程每次挂起的最长时间，挂起期间可能错过接替执行者的唤醒
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private CombinedKillWriter killWriter;
+
+    @Autowired
+    private SeckillDao seckillDao;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Value("${seckill.combiner.maxBatch:100}")
+    private int maxBatch;
+
+    @Value("${seckill.combiner.windowMicros:500}")
+    private long windowMicros;
+
+    //seckillId -> 等待合并的请求
+    private final ConcurrentMap<Long, Lane> lanes = new ConcurrentHashMap<Long, Lane>();
+
+    private Histogram batchSizes;
+
+    @PostConstruct
+    public void init(){
+        batchSizes = metricsRegistry.histogram("seckill_combiner_batch_size",
+                1, 2, 5, 10, 20, 50, 100, 200, 500, 1000);
+    }
+
+    /**
+     * 执行秒杀，不抛出重复秒杀和秒杀结束异常，以结果状态返回
+     * @param shards 商品的库存分片数，已分片的商品行锁已经分散，不合并
+     * @return SUCCESS、REPEAT_KILL、END或INNER_ERROR
+     */
+    public SeckillExecution kill(Seckill seckill, int shards, long userPhone){
+        if (shards > 0 || maxBatch <= 1){
+            return killOne(seckill, shards, userPhone);
+        }
+        Lane lane = laneOf(seckill.getSeckillId());
+        Request request = new Request(userPhone);
+        lane.queue.offer(request);
+        boolean interrupted = false;
+        while (request.result == null){
+            if (lane.leader.compareAndSet(false, true)){
+                try {
+                    lead(lane, seckill);
+                } finally {
+                    lane.leader.set(false);
+                }
+                //还有等待的请求，唤醒队首请求接替执行者
+                Request head = lane.queue.peek();
+                if (head != null){
+                    LockSupport.unpark(head.thread);
+                }
+            } else {
+                LockSupport.parkNanos(this, PARK_NANOS);
+                //中断不能打断等待，否则挂起立即返回变成空转
+                interrupted |= Thread.interrupted();
+            }
+        }
+        if (interrupted){
+            Thread.currentThread().interrupt();
+        }
+        return request.result;
+    }
+
+    private void lead(Lane lane, Seckill seckill){
+        if (windowMicros > 0 && lane.queue.size() < maxBatch){
+            //凑批：等待更多同一商品的请求进入队列
+            LockSupport.parkNanos(this, TimeUnit.MICROSECONDS.toNanos(windowMicros));
+        }
+        List<Request> batch = new ArrayList<Request>();
+        Request request;
+        while (batch.size() < maxBatch && (request = lane.queue.poll()) != null){
+            batch.add(request);
+        }
+        if (batch.isEmpty()){
+            return;
+        }
+        batchSizes.record(batch.size());
+        execute(seckill, batch);
+    }
+
+    private void execute(Seckill seckill, List<Request> batch){
+        long seckillId = seckill.getSeckillId();
+        //同一用户的多个请求只写一次，按第一次到达的顺序
+        LinkedHashSet<Long> userPhones = new LinkedHashSet<Long>();
+        for (Request request : batch){
+            userPhones.add(request.userPhone);
+        }
+        Map<Long, SeckillExecution> results;
+        try {
+            results = killWriter.write(seckillId, new ArrayList<Long>(userPhones));
+        } catch (Exception e){
+            logger.warn("combined kill failed, fall back to single kills, seckillId={}: {}", seckillId, e.getMessage());
+            metricsRegistry.counter("seckill_combiner_fallback_total").increment();
+            //失败可能是因为库存刚被拆分，商品行的number已为0，按当前的分片数逐个执行
+            int shards = currentShards(seckill);
+            for (Request request : batch){
+                request.complete(killOne(seckill, shards, request.userPhone));
+            }
+            return;
+        }
+        Map<Long, Boolean> seen = new HashMap<Long, Boolean>();
+        for (Request request : batch){
+            SeckillExecution execution = results.get(request.userPhone);
+            if (seen.put(request.userPhone, Boolean.TRUE) != null
+                    && execution.getState() == SeckillStatEnum.SUCCESS.getState()){
+                //同一用户的后续请求：第一次已经成功，这次为重复秒杀
+                execution = new SeckillExecution(seckillId, SeckillStatEnum.REPEAT_KILL);
+            }
+            request.complete(execution);
+        }
+    }
+
+    /**
+     * 从数据库重新读取商品的分片数，读取失败时使用缓存中的值
+     */
+    private int currentShards(Seckill seckill){
+        try {
+            Seckill current = seckillDao.queryById(seckill.getSeckillId());
+            return current == null ? seckill.getStockShards() : current.getStockShards();
+        } catch (Exception e){
+            logger.error(e.getMessage(), e);
+            return seckill.getStockShards();
+        }
+    }
+
+    private SeckillExecution killOne(Seckill seckill, int shards, long userPhone){
+        long seckillId = seckill.getSeckillId();
+        try {
+            return new SeckillExecution(seckillId, SeckillStatEnum.SUCCESS,
+                    killWriter.writeOne(seckill, shards, userPhone));
+        } catch (RepeatKillException e){
+            return new SeckillExecution(seckillId, SeckillStatEnum.REPEAT_KILL);
+        } catch (SeckillCloseException e){
+            return new SeckillExecution(seckillId, SeckillStatEnum.END);
+        } catch (Exception e){
+            logger.error(e.getMessage(), e);
+            return new SeckillExecution(seckillId, SeckillStatEnum.INNER_ERROR);
+        }
+    }
+
+    private Lane laneOf(long seckillId){
+        Lane lane = lanes.get(seckillId);
+        if (lane == null){
+            Lane created = new Lane();
+            lane = lanes.putIfAbsent(seckillId, created);
+            if (lane == null){
+                lane = created;
+            }
+        }
+        return lane;
+    }
+
+    private static final class Lane {
+
+        final Queue<Request> queue = new ConcurrentLinkedQueue<Request>();
+
+        //是否已有执行者
+        final AtomicBoolean leader = new AtomicBoolean();
+    }
+
+    private static final class Request {
+
+        final long userPhone;
+
+        final Thread thread = Thread.currentThread();
+
+        volatile SeckillExecution result;
+
+        Request(long userPhone) {
+            this.userPhone = userPhone;
+        }
+
+        void complete(SeckillExecution execution){
+            result = execution;
+            LockSupport.unpark(thread);
+        }
+    }
+}
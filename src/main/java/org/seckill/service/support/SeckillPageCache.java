@@ -0,0 +1,87 @@
+package org.seckill.service.support;
+
+import org.seckill.dao.cache.LocalCache;
+import org.seckill.dao.cache.RedisEventBus;
+import org.seckill.dao.cache.SeckillCache;
+import org.seckill.dto.SeckillPage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 节点本地的秒杀商品列表页缓存，重复浏览列表时不访问数据库
+ * 订阅SeckillCache的失效频道，任一节点修改或重新加载商品时清空所有页；
+ * 列表中的库存随秒杀不断变化，不逐次失效，由较短的存活时间限制
+ */
+@Component
+public class SeckillPageCache {
+
+    @Autowired
+    private RedisEventBus redisEventBus;
+
+    @Value("${seckill.list.cache.maxSize:1000}")
+    private int maxSize;
+
+    @Value("${seckill.list.cache.ttlSeconds:5}")
+    private int ttlSeconds;
+
+    //失效代数，查询数据库期间发生失效时不写入查询结果
+    private final AtomicLong generation = new AtomicLong();
+
+    private LocalCache<String, SeckillPage> pages;
+
+    @PostConstruct
+    public void init(){
+        pages = new LocalCache<String, SeckillPage>(maxSize, ttlSeconds * 1000L);
+        redisEventBus.addListener(SeckillCache.CHANNEL, new RedisEventBus.Listener() {
+            @Override
+            public void onEvent(String message) {
+                invalidateAll();
+            }
+        });
+    }
+
+    /**
+     * @param cursor 第一页为null
+     * @return 未命中返回null
+     */
+    public SeckillPage get(String cursor){
+        return pages.get(keyOf(cursor));
+    }
+
+    /**
+     * 当前失效代数，在查询数据库之前获取，写入时传回
+     */
+    public long generation(){
+        return generation.get();
+    }
+
+    /**
+     * @param generation 查询数据库之前获取的失效代数
+     */
+    public void put(String cursor, SeckillPage page, long generation){
+        String key = keyOf(cursor);
+        pages.put(key, page);
+        //写入期间发生了失效，删除可能过期的页
+        if (this.generation.get() != generation){
+            pages.invalidate(key);
+        }
+    }
+
+    public void invalidateAll(){
+        generation.incrementAndGet();
+        pages.invalidateAll();
+    }
+
+    public LocalCache<String, SeckillPage> getLocal() {
+        return pages;
+    }
+
+    //第一页的游标为null，ConcurrentHashMap不能使用null作为键
+    private static String keyOf(String cursor){
+        return cursor == null ? "" : cursor;
+    }
+}
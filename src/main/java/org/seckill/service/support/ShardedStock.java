@@ -0,0 +1,109 @@
+package org.seckill.service.support;
+
+import org.seckill.dao.SeckillDao;
+import org.seckill.entity.Seckill;
+import org.seckill.entity.SeckillStock;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 库存分片
+ * 热点商品所有购买者都在等待seckill表同一行的行锁；拆分后库存分布在seckill_stock的多行中，
+ * 用户按手机号散列到一个分片扣减，该分片售完时向其他分片借库存。
+ * 每个分片的扣减都带 number >= count 条件，分片之和就是总库存，不会超卖
+ */
+@Component
+public class ShardedStock {
+
+    @Autowired
+    private SeckillDao seckillDao;
+
+    /**
+     * 将商品的剩余库存平均拆分到shards个分片，在独立的事务中执行并提交
+     * 调用方需要在返回后让商品缓存失效
+     * @return 商品实际的分片数（已经拆分过时返回原分片数），商品不存在返回0
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public int split(long seckillId, int shards){
+        //锁定商品行，多个请求同时拆分时只有第一个执行
+        Seckill seckill = seckillDao.queryByIdForUpdate(seckillId);
+        if (seckill == null){
+            return 0;
+        }
+        if (seckill.getStockShards() > 0){
+            return seckill.getStockShards();
+        }
+        int number = seckill.getNumber();
+        List<Integer> numbers = new ArrayList<Integer>(shards);
+        for (int i = 0; i < shards; i++) {
+            numbers.add(number / shards + (i < number % shards ? 1 : 0));
+        }
+        seckillDao.insertStockShards(seckillId, numbers);
+        seckillDao.markStockSharded(seckillId, shards);
+        return shards;
+    }
+
+    /**
+     * 扣减一件库存，在调用方的事务中执行
+     * 先扣减用户分配的分片，售完时以非锁定读找出还有库存的分片依次尝试，不在空分片上持有行锁
+     * @return 是否扣减成功，false表示所有分片都已售完
+     */
+    public boolean reduce(long seckillId, int shards, long userPhone){
+        int home = shardOf(userPhone, shards);
+        if (seckillDao.reduceShardBy(seckillId, home, 1) > 0){
+            return true;
+        }
+        List<SeckillStock> stocks = seckillDao.queryStockShards(seckillId);
+        for (int i = 1; i < stocks.size(); i++) {
+            SeckillStock stock = stocks.get((home + i) % stocks.size());
+            if (stock.getNumber() > 0 && seckillDao.reduceShardBy(seckillId, stock.getShardNo(), 1) > 0){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 批量扣减count件库存，可以跨多个分片，在调用方的事务中执行
+     * @return 是否全部扣减成功，false时调用方需要回滚事务撤销已扣减的分片
+     */
+    public boolean reduceBy(long seckillId, int count){
+        int remaining = count;
+        for (SeckillStock stock : seckillDao.queryStockShards(seckillId)){
+            int take = Math.min(remaining, stock.getNumber());
+            if (take > 0 && seckillDao.reduceShardBy(seckillId, stock.getShardNo(), take) > 0){
+                remaining -= take;
+                if (remaining == 0){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 商品的剩余总库存：拆分后商品行的number为0，库存在各分片中
+     */
+    public int remaining(Seckill seckill){
+        int number = seckill.getNumber();
+        if (seckill.getStockShards() > 0){
+            for (SeckillStock stock : seckillDao.queryStockShards(seckill.getSeckillId())){
+                number += stock.getNumber();
+            }
+        }
+        return number;
+    }
+
+    /**
+     * 用户分配的分片，手机号连续的用户也均匀分布
+     */
+    public static int shardOf(long userPhone, int shards){
+        long h = userPhone * 0x9E3779B97F4A7C15L;
+        return (int) ((h >>> 32) % shards);
+    }
+}
@@ -0,0 +1,206 @@
+package org.seckill.service.support;
+
+import org.seckill.dao.cache.RedisDao;
+import org.seckill.dao.cache.RedisEventBus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 节点本地的售罄标记表
+ * 商品售罄后绝大部分请求都是无效请求，先在本地内存判断售罄标记，命中则不再访问redis；
+ * 标记通过redis发布/订阅在节点之间广播，补货时清除标记并广播。
+ * 订阅断线重连期间可能错过补货消息，因此每隔revalidateSeconds按redis库存计数校验售罄标记，库存大于0时清除；
+ * 超过ttlSeconds没有标记或补货的条目直接删除（包括已结束的商品），下一个请求重新访问redis
+ */
+@Component
+public class SoldOutFlags {
+
+    private static final String CHANNEL = "seckill.soldout";
+
+    //消息格式：(1售罄/0补货):seckillId
+    private static final String SOLD_OUT = "1";
+
+    private static final String RESTOCK = "0";
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    //补货代数，所有商品共用并且只增不减，删除后重新创建的标记不会与之前获取的代数相同
+    private static final AtomicLong GENERATIONS = new AtomicLong();
+
+    private final ConcurrentMap<Long, Flag> flags = new ConcurrentHashMap<Long, Flag>();
+
+    @Autowired
+    private RedisEventBus redisEventBus;
+
+    @Autowired
+    private RedisDao redisDao;
+
+    //按redis库存计数校验售罄标记的间隔秒数，0表示不校验
+    @Value("${seckill.soldout.revalidateSeconds:3}")
+    private int revalidateSeconds;
+
+    //标记的存活秒数
+    @Value("${seckill.soldout.ttlSeconds:60}")
+    private int ttlSeconds;
+
+    private ScheduledExecutorService revalidator;
+
+    @PostConstruct
+    public void init(){
+        redisEventBus.addListener(CHANNEL, new RedisEventBus.Listener() {
+            @Override
+            public void onEvent(String message) {
+                onMessage(message);
+            }
+        });
+        if (revalidateSeconds <= 0){
+            return;
+        }
+        revalidator = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "sold-out-revalidator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        revalidator.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    revalidate();
+                } catch (Exception e){
+                    logger.error("revalidate sold out flags failed", e);
+                }
+            }
+        }, revalidateSeconds, revalidateSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown(){
+        if (revalidator != null){
+            revalidator.shutdownNow();
+        }
+    }
+
+    /**
+     * 商品是否已经售罄，只读本地内存
+     */
+    public boolean isSoldOut(long seckillId){
+        Flag flag = flags.get(seckillId);
+        return flag != null && flag.soldOut;
+    }
+
+    /**
+     * 当前补货代数，在访问redis之前获取，标记售罄时传回，
+     * 防止访问redis期间发生的补货被过期的售罄结果覆盖
+     */
+    public long generation(long seckillId){
+        Flag flag = flags.get(seckillId);
+        return flag == null ? 0 : flag.generation;
+    }
+
+    /**
+     * 标记售罄并通知其他节点
+     * @param generation 访问redis之前获取的补货代数
+     */
+    public void markSoldOut(long seckillId, long generation){
+        if (flagOf(seckillId).markSoldOut(generation)){
+            redisEventBus.publish(CHANNEL, SOLD_OUT + ":" + seckillId);
+        }
+    }
+
+    /**
+     * 库存初始化或补货后清除售罄标记并通知其他节点
+     */
+    public void reset(long seckillId){
+        flagOf(seckillId).reset();
+        redisEventBus.publish(CHANNEL, RESTOCK + ":" + seckillId);
+    }
+
+    private void onMessage(String message){
+        int index = message.indexOf(':');
+        if (index <= 0){
+            logger.warn("illegal sold out message: {}", message);
+            return;
+        }
+        long seckillId = Long.parseLong(message.substring(index + 1));
+        Flag flag = flagOf(seckillId);
+        if (SOLD_OUT.equals(message.substring(0, index))){
+            flag.markSoldOut(flag.generation);
+        } else {
+            flag.reset();
+        }
+    }
+
+    /**
+     * 删除过期的标记，仍在存活期内的售罄标记与redis库存计数核对，库存大于0说明错过了补货消息
+     */
+    void revalidate(){
+        long expiredBefore = System.currentTimeMillis() - ttlSeconds * 1000L;
+        Iterator<Map.Entry<Long, Flag>> iterator = flags.entrySet().iterator();
+        while (iterator.hasNext()){
+            Map.Entry<Long, Flag> entry = iterator.next();
+            Flag flag = entry.getValue();
+            if (flag.updatedAt < expiredBefore){
+                iterator.remove();
+            } else if (flag.soldOut && redisDao.getStock(entry.getKey()) > 0){
+                logger.info("sold out flag cleared by revalidation, seckillId={}", entry.getKey());
+                flag.reset();
+            }
+        }
+    }
+
+    private Flag flagOf(long seckillId){
+        Flag flag = flags.get(seckillId);
+        if (flag == null){
+            Flag created = new Flag();
+            flag = flags.putIfAbsent(seckillId, created);
+            if (flag == null){
+                flag = created;
+            }
+        }
+        return flag;
+    }
+
+    private static final class Flag {
+
+        volatile boolean soldOut;
+
+        //只在加锁时修改
+        volatile long generation;
+
+        //创建、标记或补货的时间
+        volatile long updatedAt = System.currentTimeMillis();
+
+        synchronized boolean markSoldOut(long expected){
+            if (soldOut || generation != expected){
+                return false;
+            }
+            soldOut = true;
+            updatedAt = System.currentTimeMillis();
+            return true;
+        }
+
+        synchronized void reset(){
+            generation = GENERATIONS.incrementAndGet();
+            soldOut = false;
+            updatedAt = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.seckill.service.support;
+
+import org.seckill.metrics.MetricsRegistry;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 分段的令牌桶限流，无锁、内存固定
+ * key散列到固定数量的桶上，不为每个key分配对象，用户再多也只占用 stripes × 8 字节；
+ * 散列到同一个桶的key共用一个令牌桶，桶数远大于同时活跃的key数时冲突很少。
+ * 每个桶只保存一个long：理论到达时间TAT（GCRA算法，与令牌桶等价），
+ * 请求把TAT推后一个发放间隔，TAT超出当前时间不多于 burst 个间隔时放行，一次CAS完成
+ */
+public class StripedRateLimiter {
+
+    private final AtomicLongArray buckets;
+
+    private final int mask;
+
+    //每个令牌的发放间隔
+    private final long intervalNanos;
+
+    //TAT最多超出当前时间的纳秒数，即桶容量
+    private final long burstNanos;
+
+    //nanoTime的起点，保证桶的初始值0不晚于当前时间
+    private final long origin = System.nanoTime();
+
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param name 指标中的key标签
+     * @param stripes 桶数，向上取2的幂
+     * @param permitsPerSecond 每个桶每秒发放的令牌数
+     * @param burst 桶容量，允许的突发请求数
+     */
+    public StripedRateLimiter(MetricsRegistry registry, String name, int stripes,
+                              double permitsPerSecond, int burst) {
+        if (stripes <= 0 || permitsPerSecond <= 0 || burst <= 0){
+            throw new IllegalArgumentException("stripes, permitsPerSecond and burst must be positive");
+        }
+        int size = Integer.highestOneBit(Math.min(stripes, 1 << 30));
+        if (size < stripes){
+            size <<= 1;
+        }
+        this.buckets = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.intervalNanos = Math.max(1, (long) (1e9 / permitsPerSecond));
+        this.burstNanos = intervalNanos * burst;
+        registry.counter(MetricsRegistry.name("seckill_ratelimit_rejected_total", "key", name), new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                return rejected.sum();
+            }
+        });
+    }
+
+    /**
+     * 为key获取一个令牌
+     * @return false 超过限流，不消耗令牌
+     */
+    public boolean tryAcquire(long key){
+        return tryAcquire(key, System.nanoTime() - origin);
+    }
+
+    boolean tryAcquire(long key, long now){
+        int index = stripe(key);
+        for (;;){
+            long tat = buckets.get(index);
+            long next = Math.max(tat, now) + intervalNanos;
+            if (next - now > burstNanos){
+                rejected.increment();
+                return false;
+            }
+            if (buckets.compareAndSet(index, tat, next)){
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 归还tryAcquire成功获取的一个令牌，用于批量获取时后面的key被拒绝、整批放弃的情况
+     * TAT提前一个发放间隔；TAT早于当前时间时桶已满，提前不影响后续判断
+     */
+    public void release(long key){
+        buckets.addAndGet(stripe(key), -intervalNanos);
+    }
+
+    private int stripe(long key){
+        //murmur3的64位混合，连续的手机号和商品id均匀分布到各桶
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
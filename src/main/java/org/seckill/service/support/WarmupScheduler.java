@@ -0,0 +1,245 @@
+package org.seckill.service.support;
+
+import org.seckill.dao.SeckillDao;
+import org.seckill.dto.WarmupStatus;
+import org.seckill.entity.Seckill;
+import org.seckill.enums.WarmupStateEnum;
+import org.seckill.metrics.Histogram;
+import org.seckill.metrics.MetricsRegistry;
+import org.seckill.service.interfaces.SeckillService;
+import org.seckill.service.interfaces.TokenService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 开售前预热调度器
+ * 定时按开始时间扫描即将开售的商品，在开售前leadSeconds秒预热：
+ * 1. 写入redis和本地缓存，拆分库存分片，初始化redis库存计数并开始调度消费，派生令牌密钥
+ * 2. 用合成的手机号反复调用读缓存、签发和校验令牌等不修改数据的热点路径，开售前完成JIT编译
+ * 第一个请求不再承担初始化的开销；预热失败的商品在下一次扫描时重试，开售后仍由请求懒初始化兜底。
+ * 每个商品的预热状态通过getStatuses查询，并注册seckill_warmup_state指标，秒杀结束后注销
+ */
+@Component
+public class WarmupScheduler {
+
+    //合成调用的手机号从这里开始，不是合法的11位手机号，不会与真实用户冲突
+    private static final long SYNTHETIC_PHONE = 1000000000L;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private SeckillDao seckillDao;
+
+    @Autowired
+    private SeckillService seckillService;
+
+    @Autowired
+    private TokenService tokenService;
+
+    @Autowired
+    private SoldOutFlags soldOutFlags;
+
+    @Autowired
+    private MetricsRegistry metricsRegistry;
+
+    @Value("${seckill.warmup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${seckill.warmup.leadSeconds:60}")
+    private long leadSeconds;
+
+    @Value("${seckill.warmup.scanSeconds:10}")
+    private long scanSeconds;
+
+    @Value("${seckill.warmup.scanLimit:200}")
+    private int scanLimit;
+
+    @Value("${seckill.warmup.jitIterations:20000}")
+    private int jitIterations;
+
+    @Value("${seckill.warmup.threads:2}")
+    private int threads;
+
+    //seckillId -> 预热状态，只由扫描线程新增和删除
+    private final ConcurrentMap<Long, WarmupStatus> statuses = new ConcurrentHashMap<Long, WarmupStatus>();
+
+    private ScheduledThreadPoolExecutor executor;
+
+    private Histogram elapsed;
+
+    @PostConstruct
+    public void init(){
+        if (!enabled){
+            return;
+        }
+        elapsed = metricsRegistry.histogram("seckill_warmup_millis",
+                10, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000);
+        executor = new ScheduledThreadPoolExecutor(threads, new NamedThreadFactory("seckill-warmup"));
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                scan();
+            }
+        }, 0, scanSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown(){
+        if (executor != null){
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 尚未结束的商品的预热状态，按开始时间升序
+     */
+    public List<WarmupStatus> getStatuses(){
+        List<WarmupStatus> list = new ArrayList<WarmupStatus>(statuses.values());
+        Collections.sort(list, new Comparator<WarmupStatus>() {
+            @Override
+            public int compare(WarmupStatus o1, WarmupStatus o2) {
+                return Long.compare(o1.getStartTime(), o2.getStartTime());
+            }
+        });
+        return list;
+    }
+
+    private void scan(){
+        try {
+            long now = System.currentTimeMillis();
+            expire(now);
+            //覆盖到下一次扫描之前需要开始预热的商品
+            Date to = new Date(now + (leadSeconds + scanSeconds) * 1000);
+            for (Seckill seckill : seckillDao.queryStartingBetween(new Date(now), to, scanLimit)){
+                schedule(seckill, now);
+            }
+        } catch (Exception e){
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 计划商品的预热任务，已经计划过且开始时间没有修改的商品只在预热失败后重新计划
+     */
+    private void schedule(Seckill seckill, long now){
+        final long seckillId = seckill.getSeckillId();
+        long startTime = seckill.getStartTime().getTime();
+        WarmupStatus current = statuses.get(seckillId);
+        if (current != null && current.getStartTime() == startTime
+                && current.stateEnum() != WarmupStateEnum.FAILED){
+            return;
+        }
+        long warmupTime = Math.max(now, startTime - leadSeconds * 1000);
+        final WarmupStatus status = new WarmupStatus(seckillId, startTime,
+                seckill.getEndTime().getTime(), warmupTime);
+        if (statuses.put(seckillId, status) == null){
+            registerGauge(seckillId);
+        }
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                warmup(status);
+            }
+        }, warmupTime - now, TimeUnit.MILLISECONDS);
+    }
+
+    private void warmup(WarmupStatus pending){
+        long seckillId = pending.getSeckillId();
+        WarmupStatus running = pending.to(WarmupStateEnum.RUNNING, 0, null);
+        //开始时间修改后重新计划过，旧的任务不再执行
+        if (!statuses.replace(seckillId, pending, running)){
+            return;
+        }
+        long start = System.currentTimeMillis();
+        WarmupStatus done;
+        try {
+            if (seckillService.warmup(seckillId) == null){
+                throw new IllegalStateException("seckill not exists");
+            }
+            warmupJit(seckillId);
+            done = running.to(WarmupStateEnum.READY, System.currentTimeMillis() - start, null);
+            logger.info("seckill warmed up, seckillId={}, elapsed={}ms", seckillId, done.getElapsed());
+        } catch (Exception e){
+            logger.error("seckill warmup failed, seckillId=" + seckillId, e);
+            done = running.to(WarmupStateEnum.FAILED, System.currentTimeMillis() - start, e.getMessage());
+            metricsRegistry.counter("seckill_warmup_failed_total").increment();
+        }
+        elapsed.record(done.getElapsed());
+        statuses.replace(seckillId, running, done);
+    }
+
+    /**
+     * 合成调用只读取缓存和本地状态，不扣减库存也不写订单
+     */
+    private void warmupJit(long seckillId){
+        for (int i = 0; i < jitIterations; i++) {
+            long phone = SYNTHETIC_PHONE + i;
+            seckillService.exportSeckillUrl(seckillId, phone);
+            String token = tokenService.issue(seckillId, phone);
+            if (!tokenService.verify(seckillId, phone, token)){
+                throw new IllegalStateException("token verify failed");
+            }
+            soldOutFlags.isSoldOut(seckillId);
+        }
+    }
+
+    /**
+     * 秒杀结束的商品不再显示状态
+     */
+    private void expire(long now){
+        for (Map.Entry<Long, WarmupStatus> entry : statuses.entrySet()){
+            if (entry.getValue().getEndTime() < now){
+                statuses.remove(entry.getKey());
+                metricsRegistry.removeGauge(MetricsRegistry.name("seckill_warmup_state",
+                        "seckill_id", String.valueOf(entry.getKey())));
+            }
+        }
+    }
+
+    private void registerGauge(final long seckillId){
+        metricsRegistry.gauge(MetricsRegistry.name("seckill_warmup_state", "seckill_id", String.valueOf(seckillId)),
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        WarmupStatus status = statuses.get(seckillId);
+                        return status == null ? WarmupStateEnum.PENDING.getState() : status.getState();
+                    }
+                });
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
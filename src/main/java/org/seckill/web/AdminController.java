@@ -0,0 +1,91 @@
+package org.seckill.web;
+
+import org.seckill.dto.Reconciliation;
+import org.seckill.dto.SeckillResult;
+import org.seckill.dto.WarmupStatus;
+import org.seckill.service.interfaces.SeckillService;
+import org.seckill.service.journal.JournalReplayer;
+import org.seckill.service.support.WarmupScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 运维接口，只供内部使用，由AdminInterceptor认证
+ */
+@Controller
+@RequestMapping("/admin/seckill")
+public class AdminController {
+
+    //单次批量查询秒杀结果的最大用户数
+    private static final int MAX_WINNER_QUERY = 1000;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Resource(name = "seckillService")
+    private SeckillService seckillService;
+
+    @Resource
+    private WarmupScheduler warmupScheduler;
+
+    @Resource
+    private JournalReplayer journalReplayer;
+
+    /**
+     * 即将开售和正在秒杀的商品的预热状态
+     */
+    @RequestMapping(value = "/warmup", method = RequestMethod.GET,
+            produces = {"application/json;charset=utf-8"})
+    @ResponseBody
+    public SeckillResult<List<WarmupStatus>> warmup(){
+        return new SeckillResult<List<WarmupStatus>>(true, warmupScheduler.getStatuses());
+    }
+
+    /**
+     * 批量查询用户是否秒杀成功
+     */
+    @RequestMapping(value = "/{seckillId}/winners", method = RequestMethod.POST,
+            produces = {"application/json;charset=utf-8"})
+    @ResponseBody
+    public SeckillResult<Map<Long, Boolean>> winners(@PathVariable("seckillId") Long seckillId,
+                                                     @RequestParam("phones") List<Long> phones){
+        if (phones.size() > MAX_WINNER_QUERY){
+            return new SeckillResult<Map<Long, Boolean>>(false, "too many phones");
+        }
+        try {
+            Map<Long, Boolean> winners = seckillService.queryWinners(seckillId, phones);
+            return new SeckillResult<Map<Long, Boolean>>(true, winners);
+        } catch (Exception e){
+            logger.error(e.getMessage(),e);
+            return new SeckillResult<Map<Long, Boolean>>(false, e.getMessage());
+        }
+    }
+
+    /**
+     * 对比本节点订单日志、redis库存计数和数据库库存
+     */
+    @RequestMapping(value = "/{seckillId}/reconciliation", method = RequestMethod.GET,
+            produces = {"application/json;charset=utf-8"})
+    @ResponseBody
+    public SeckillResult<Reconciliation> reconciliation(@PathVariable("seckillId") Long seckillId){
+        try {
+            Reconciliation reconciliation = journalReplayer.reconcile(seckillId);
+            if (reconciliation == null){
+                return new SeckillResult<Reconciliation>(false, "seckill not exists");
+            }
+            return new SeckillResult<Reconciliation>(true, reconciliation);
+        } catch (Exception e){
+            logger.error(e.getMessage(), e);
+            return new SeckillResult<Reconciliation>(false, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.seckill.web;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+
+/**
+ * 运维接口的认证，在Spring-web.xml中拦截 /admin/**
+ * 请求头X-Admin-Token必须与seckill.admin.token一致，未配置令牌时拒绝所有请求
+ */
+@Component
+public class AdminInterceptor extends HandlerInterceptorAdapter {
+
+    public static final String HEADER = "X-Admin-Token";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Value("${seckill.admin.token:}")
+    private String token;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        String presented = request.getHeader(HEADER);
+        //MessageDigest.isEqual比较时间与内容无关，不能逐字节猜测令牌
+        if (token.isEmpty() || presented == null
+                || !MessageDigest.isEqual(token.getBytes(UTF_8), presented.getBytes(UTF_8))){
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return false;
+        }
+        return true;
+    }
+}
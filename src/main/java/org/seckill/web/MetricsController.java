@@ -0,0 +1,26 @@
+package org.seckill.web;
+
+import org.seckill.metrics.MetricsRegistry;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import javax.annotation.Resource;
+
+/**
+ * 指标采集接口，prometheus文本格式
+ */
+@Controller
+public class MetricsController {
+
+    @Resource
+    private MetricsRegistry metricsRegistry;
+
+    @RequestMapping(value = "/metrics", method = RequestMethod.GET,
+            produces = {"text/plain;version=0.0.4;charset=utf-8"})
+    @ResponseBody
+    public String metrics(){
+        return metricsRegistry.scrape();
+    }
+}
@@ -2,22 +2,35 @@ package org.seckill.web;
 
 import org.seckill.dto.Exposer;
 import org.seckill.dto.SeckillExecution;
+import org.seckill.dto.SeckillPage;
 import org.seckill.dto.SeckillResult;
 import org.seckill.entity.Seckill;
 import org.seckill.enums.SeckillStatEnum;
 import org.seckill.exception.RepeatKillException;
 import org.seckill.exception.SeckillCloseException;
 import org.seckill.exception.SeckillException;
+import org.seckill.metrics.MetricsRegistry;
 import org.seckill.service.interfaces.SeckillService;
+import org.seckill.service.queue.KillResultNotifier;
+import org.seckill.service.support.StripedRateLimiter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by 徐豪 on 2017/7/29/029.
@@ -28,19 +41,109 @@ public class SeckillController {
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    //单次批量获取秒杀地址的最大商品数
+    private static final int MAX_EXPOSER_QUERY = 100;
+
+    //详情页模板版本，修改detail.jsp后递增，使旧的ETag失效
+    private static final int DETAIL_VERSION = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //长轮询秒杀结果的超时时间（毫秒）
+    private static final long RESULT_TIMEOUT = 30000;
+
     @Resource(name = "seckillService")
     private SeckillService seckillService;
 
+    @Resource
+    private KillResultNotifier killResultNotifier;
+
+    @Resource
+    private MetricsRegistry metricsRegistry;
+
+    //按用户（killPhone）限流，拦截刷接口的脚本
+    @Value("${seckill.ratelimit.user.permitsPerSecond:2}")
+    private double userPermitsPerSecond;
+
+    @Value("${seckill.ratelimit.user.burst:5}")
+    private int userBurst;
+
+    @Value("${seckill.ratelimit.user.stripes:65536}")
+    private int userStripes;
+
+    //按商品限流，保护redis不被单个热点商品打满
+    @Value("${seckill.ratelimit.item.permitsPerSecond:20000}")
+    private double itemPermitsPerSecond;
+
+    @Value("${seckill.ratelimit.item.burst:5000}")
+    private int itemBurst;
+
+    @Value("${seckill.ratelimit.item.stripes:1024}")
+    private int itemStripes;
+
+    private StripedRateLimiter userLimiter;
+
+    private StripedRateLimiter itemLimiter;
+
+    @PostConstruct
+    public void init(){
+        userLimiter = new StripedRateLimiter(metricsRegistry, "user", userStripes, userPermitsPerSecond, userBurst);
+        itemLimiter = new StripedRateLimiter(metricsRegistry, "item", itemStripes, itemPermitsPerSecond, itemBurst);
+    }
+
+    /**
+     * 先按用户再按商品获取令牌，被用户限流的请求不消耗商品的令牌
+     */
+    private boolean acquire(long seckillId, long phone){
+        return userLimiter.tryAcquire(phone) && itemLimiter.tryAcquire(seckillId);
+    }
+
+    /**
+     * 批量请求按用户获取一个令牌，每个商品各获取一个；某个商品被限流时归还已获取的商品令牌，整批拒绝
+     */
+    private boolean acquireAll(List<Long> seckillIds, long phone){
+        if (!userLimiter.tryAcquire(phone)){
+            return false;
+        }
+        for (int i = 0; i < seckillIds.size(); i++) {
+            if (!itemLimiter.tryAcquire(seckillIds.get(i))){
+                for (int j = 0; j < i; j++) {
+                    itemLimiter.release(seckillIds.get(j));
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
     @RequestMapping(value = "/list",method = RequestMethod.GET)
-    public String list(Model model){
-        //获取列表页
-        List<Seckill> list = seckillService.getSeckillList();
-        model.addAttribute("list", list);
+    public String list(@RequestParam(value = "cursor", required = false) String cursor, Model model){
+        //获取列表页，cursor为上一页返回的下一页游标
+        SeckillPage page;
+        try {
+            page = seckillService.getSeckillPage(cursor);
+        } catch (IllegalArgumentException e){
+            return "redirect:/seckill/list";
+        }
+        model.addAttribute("list", page.getList());
+        model.addAttribute("next", page.getNext());
         return "list";
     }
 
+    @RequestMapping(value = "/page", method = RequestMethod.GET,
+            produces = {"application/json;charset=utf-8"})
+    @ResponseBody
+    public SeckillResult<SeckillPage> page(@RequestParam(value = "cursor", required = false) String cursor){
+        try {
+            return new SeckillResult<SeckillPage>(true, seckillService.getSeckillPage(cursor));
+        } catch (IllegalArgumentException e){
+            return new SeckillResult<SeckillPage>(false, e.getMessage());
+        }
+    }
+
     @RequestMapping(value = "/detail/{seckillId}", method = RequestMethod.GET)
-    public String detail(@PathVariable Long seckillId, Model model){
+    public String detail(@PathVariable Long seckillId, Model model,
+                         WebRequest webRequest, HttpServletResponse response){
         if (seckillId == null){
             return "redirect:/seckill/list";
         }
@@ -48,18 +151,42 @@ public class SeckillController {
         if(seckill == null){
             return "forward:/seckill/list";
         }
+        //条件请求：ETag未变时返回304，不渲染jsp；no-cache要求浏览器和代理每次都重新验证
+        response.setHeader("Cache-Control", "no-cache");
+        response.setDateHeader("Last-Modified", seckill.getCreateTime().getTime());
+        if (webRequest.checkNotModified(detailETag(seckill))){
+            return null;
+        }
         model.addAttribute("seckill", seckill);
         return "detail";
     }
 
+    /**
+     * 详情页的强ETag，由页面渲染的全部字段（商品id、名称、开始和结束时间）和模板版本计算，库存变化不影响页面内容；
+     * detail.jsp不输出会话或节点相关的内容，同一ETag在所有用户和节点上对应相同的字节。
+     * seckill表没有修改时间，Last-Modified只能使用创建时间，因此只根据ETag判断是否修改
+     */
+    private static String detailETag(Seckill seckill){
+        String content = DETAIL_VERSION + "|" + seckill.getSeckillId() + "|" + seckill.getName()
+                + "|" + seckill.getStartTime().getTime() + "|" + seckill.getEndTime().getTime();
+        return "\"" + DigestUtils.md5DigestAsHex(content.getBytes(UTF_8)) + "\"";
+    }
+
     //ajax json
     @RequestMapping(value = "/{seckillId}/exposer", method = RequestMethod.POST,
             produces = {"application/json;charset=utf-8"})
     @ResponseBody
-    public SeckillResult<Exposer> exposer(@PathVariable Long seckillId){
+    public SeckillResult<Exposer> exposer(@PathVariable Long seckillId,
+                                          @CookieValue(value = "killPhone", required = false) Long phone){
+        if (phone == null){
+            return new SeckillResult<Exposer>(false, "未注册");
+        }
+        if (!acquire(seckillId, phone)){
+            return new SeckillResult<Exposer>(false, SeckillStatEnum.TOO_FREQUENT.getStateInfo());
+        }
         SeckillResult<Exposer> result;
         try {
-            Exposer exposer = seckillService.exportSeckillUrl(seckillId);
+            Exposer exposer = seckillService.exportSeckillUrl(seckillId, phone);
             result = new SeckillResult<Exposer>(true, exposer);
         } catch (Exception e){
             logger.error(e.getMessage(),e);
@@ -68,6 +195,33 @@ public class SeckillController {
         return result;
     }
 
+    /**
+     * 批量获取秒杀地址，列表页一次请求得到所有商品的秒杀状态
+     * 一次批量请求按用户限流计一次，每个商品按商品限流各计一次，任一被限流则整批拒绝
+     */
+    @RequestMapping(value = "/exposers", method = RequestMethod.POST,
+            produces = {"application/json;charset=utf-8"})
+    @ResponseBody
+    public SeckillResult<List<Exposer>> exposers(@RequestParam("ids") List<Long> seckillIds,
+                                                 @CookieValue(value = "killPhone", required = false) Long phone){
+        if (phone == null){
+            return new SeckillResult<List<Exposer>>(false, "未注册");
+        }
+        if (seckillIds.size() > MAX_EXPOSER_QUERY){
+            return new SeckillResult<List<Exposer>>(false, "too many ids");
+        }
+        if (!acquireAll(seckillIds, phone)){
+            return new SeckillResult<List<Exposer>>(false, SeckillStatEnum.TOO_FREQUENT.getStateInfo());
+        }
+        try {
+            List<Exposer> exposers = seckillService.exportSeckillUrls(seckillIds, phone);
+            return new SeckillResult<List<Exposer>>(true, exposers);
+        } catch (Exception e){
+            logger.error(e.getMessage(),e);
+            return new SeckillResult<List<Exposer>>(false, e.getMessage());
+        }
+    }
+
     @RequestMapping(value = "/{seckillId}/{md5}/execution", method = RequestMethod.POST,
             produces = {"application/json;charset=utf-8"})
     @ResponseBody
@@ -77,6 +231,11 @@ public class SeckillController {
         if (phone == null){
             return new SeckillResult<SeckillExecution>(false, "未注册");
         }
+        //超过限流直接返回，不访问redis
+        if (!acquire(seckillId, phone)){
+            return new SeckillResult<SeckillExecution>(true,
+                    new SeckillExecution(seckillId, SeckillStatEnum.TOO_FREQUENT));
+        }
         try {
             //存储过程调用。
             //SeckillExecution execution = seckillService.executeSeckillProcedure(seckillId,phone,md5);
@@ -89,6 +248,74 @@ public class SeckillController {
         }
     }
 
+    /**
+     * 长轮询排队秒杀的结果
+     * 使用DeferredResult异步处理，等待期间不占用容器线程；
+     * 写库完成（或失败）时立即返回，超时返回排队中，客户端再次发起请求
+     */
+    @RequestMapping(value = "/{seckillId}/result", method = RequestMethod.GET,
+            produces = {"application/json;charset=utf-8"})
+    @ResponseBody
+    public DeferredResult<SeckillResult<SeckillExecution>> result(@PathVariable("seckillId") final Long seckillId,
+                                                                  @CookieValue(value = "killPhone", required = false) final Long phone){
+        SeckillResult<SeckillExecution> timeoutResult = new SeckillResult<SeckillExecution>(true,
+                new SeckillExecution(seckillId, SeckillStatEnum.QUEUED));
+        final DeferredResult<SeckillResult<SeckillExecution>> deferredResult =
+                new DeferredResult<SeckillResult<SeckillExecution>>(RESULT_TIMEOUT, timeoutResult);
+        if (phone == null){
+            deferredResult.setResult(new SeckillResult<SeckillExecution>(false, "未注册"));
+            return deferredResult;
+        }
+        final KillResultNotifier.Listener listener = new KillResultNotifier.Listener() {
+            @Override
+            public void onResult(SeckillExecution execution) {
+                deferredResult.setResult(new SeckillResult<SeckillExecution>(true, execution));
+            }
+        };
+        killResultNotifier.await(seckillId, phone, listener);
+        deferredResult.onCompletion(new Runnable() {
+            @Override
+            public void run() {
+                killResultNotifier.cancel(seckillId, phone, listener);
+            }
+        });
+        try {
+            //先注册再查询，避免查询之后、注册之前写库完成而错过通知
+            SeckillExecution execution = seckillService.getKillResult(seckillId, phone);
+            if (execution.getState() != SeckillStatEnum.QUEUED.getState()){
+                deferredResult.setResult(new SeckillResult<SeckillExecution>(true, execution));
+            }
+        } catch (Exception e){
+            logger.error(e.getMessage(),e);
+            deferredResult.setResult(new SeckillResult<SeckillExecution>(true,
+                    new SeckillExecution(seckillId, SeckillStatEnum.INNER_ERROR)));
+        }
+        return deferredResult;
+    }
+
+    /**
+     * 结果页查询当前用户（killPhone）是否秒杀成功，只能查询自己；批量查询在AdminController中
+     */
+    @RequestMapping(value = "/{seckillId}/winners", method = RequestMethod.POST,
+            produces = {"application/json;charset=utf-8"})
+    @ResponseBody
+    public SeckillResult<Map<Long, Boolean>> winners(@PathVariable("seckillId") Long seckillId,
+                                                     @CookieValue(value = "killPhone", required = false) Long phone){
+        if (phone == null){
+            return new SeckillResult<Map<Long, Boolean>>(false, "未注册");
+        }
+        if (!acquire(seckillId, phone)){
+            return new SeckillResult<Map<Long, Boolean>>(false, SeckillStatEnum.TOO_FREQUENT.getStateInfo());
+        }
+        try {
+            Map<Long, Boolean> winners = seckillService.queryWinners(seckillId, Collections.singletonList(phone));
+            return new SeckillResult<Map<Long, Boolean>>(true, winners);
+        } catch (Exception e){
+            logger.error(e.getMessage(),e);
+            return new SeckillResult<Map<Long, Boolean>>(false, e.getMessage());
+        }
+    }
+
     @RequestMapping(value = "/time/now",method = RequestMethod.GET)
     @ResponseBody
     public SeckillResult<Long> time(){
@@ -0,0 +1,25 @@
+-- 秒杀准入脚本：判重 + 扣减库存 + 记录用户 + 进入排队队列，在redis中一次原子调用完成
+-- KEYS[1] 库存计数   stock:(商品id)
+-- KEYS[2] 已抢到用户 users:(商品id)
+-- KEYS[3] 排队队列   waitQueue:(商品id)
+-- KEYS[4] 就绪队列   readyItems
+-- ARGV[1] 用户标识   8字节手机号
+-- ARGV[2] 商品id     8字节商品id
+-- 返回值：1 成功，0 售罄，-1 重复秒杀（与SeckillStatEnum一致）；-100 库存未初始化（RedisDao.ADMIT_NOT_INIT）
+if redis.call('sismember', KEYS[2], ARGV[1]) == 1 then
+    return -1
+end
+local stock = redis.call('get', KEYS[1])
+if not stock then
+    return -100
+end
+if tonumber(stock) <= 0 then
+    return 0
+end
+redis.call('decr', KEYS[1])
+redis.call('sadd', KEYS[2], ARGV[1])
+-- 排队队列由空变为非空时通知消费者调度
+if redis.call('lpush', KEYS[3], ARGV[1]) == 1 then
+    redis.call('lpush', KEYS[4], ARGV[2])
+end
+return 1
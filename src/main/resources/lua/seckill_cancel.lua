@@ -0,0 +1,13 @@
+-- 撤销一次准入：用户还在排队队列中（消费者尚未取出）时移出队列、删除用户并归还库存
+-- KEYS同seckill_admit.lua，只使用前三个
+-- KEYS[1] 库存计数   stock:(商品id)
+-- KEYS[2] 已抢到用户 users:(商品id)
+-- KEYS[3] 排队队列   waitQueue:(商品id)
+-- ARGV[1] 用户标识   8字节手机号
+-- 返回1已撤销；0用户已被消费者取出，无法撤销
+if redis.call('lrem', KEYS[3], 1, ARGV[1]) == 0 then
+    return 0
+end
+redis.call('srem', KEYS[2], ARGV[1])
+redis.call('incr', KEYS[1])
+return 1
@@ -0,0 +1,22 @@
+-- 获取商品的消费租约，同一时刻只有一个应用节点消费该商品的排队队列
+-- KEYS[1] 消费租约   lease:(商品id)，值为持有者
+-- KEYS[2] 排队队列   waitQueue:(商品id)
+-- KEYS[3] 处理中队列 processing:(商品id)
+-- ARGV[1] 持有者
+-- ARGV[2] 租约毫秒数
+-- 其他持有者的租约未过期时返回-1；
+-- 否则获得租约（SET PX），上一个持有者已释放或已失效，处理中队列里的用户不会再被确认，
+-- 全部放回排队队列的出队端优先重新处理，返回放回的个数
+local owner = redis.call('get', KEYS[1])
+if owner and owner ~= ARGV[1] then
+    return -1
+end
+redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[2])
+local count = 0
+local user = redis.call('lpop', KEYS[3])
+while user do
+    redis.call('rpush', KEYS[2], user)
+    count = count + 1
+    user = redis.call('lpop', KEYS[3])
+end
+return count
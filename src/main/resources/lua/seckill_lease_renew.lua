@@ -0,0 +1,14 @@
+-- 续约或释放商品的消费租约，只有持有者可以操作
+-- KEYS[1] 消费租约 lease:(商品id)
+-- ARGV[1] 持有者
+-- ARGV[2] 租约毫秒数，0表示释放
+-- 返回1成功，租约已过期或被其他节点持有返回0
+if redis.call('get', KEYS[1]) ~= ARGV[1] then
+    return 0
+end
+if ARGV[2] == '0' then
+    redis.call('del', KEYS[1])
+else
+    redis.call('pexpire', KEYS[1], ARGV[2])
+end
+return 1
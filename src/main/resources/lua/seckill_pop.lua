@@ -0,0 +1,14 @@
+-- 从排队队列批量取出用户，同时移入处理中队列，写库提交后再从处理中队列确认删除
+-- KEYS[1] 排队队列   waitQueue:(商品id)
+-- KEYS[2] 处理中队列 processing:(商品id)
+-- ARGV[1] 最多取出的个数
+local n = tonumber(ARGV[1])
+local users = {}
+for i = 1, n do
+    local user = redis.call('rpoplpush', KEYS[1], KEYS[2])
+    if not user then
+        break
+    end
+    users[#users + 1] = user
+end
+return users
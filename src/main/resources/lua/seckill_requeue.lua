@@ -0,0 +1,13 @@
+-- 写库失败（可重试）的一批用户从处理中队列移回排队队列的出队端，稍后优先重新处理
+-- KEYS[1] 排队队列   waitQueue:(商品id)
+-- KEYS[2] 处理中队列 processing:(商品id)
+-- ARGV    用户手机号
+-- 返回移回的个数，已不在处理中队列的用户跳过
+local count = 0
+for i = 1, #ARGV do
+    if redis.call('lrem', KEYS[2], 1, ARGV[i]) > 0 then
+        redis.call('rpush', KEYS[1], ARGV[i])
+        count = count + 1
+    end
+end
+return count
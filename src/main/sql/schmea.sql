@@ -12,6 +12,7 @@ CREATE TABLE seckill(
   'start_time' TIMESTAMP NOT NULL COMMENT '秒杀开始时间',
   'end_time' TIMESTAMP NOT NULL COMMENT '秒杀结束时间',
   'create_time' TIMESTAMP NOT NULL DEFAULT current_timestamp COMMENT '创建时间',
+  'stock_shards' INT NOT NULL DEFAULT 0 COMMENT '库存分片数，0:库存在number中 >0:库存拆分在seckill_stock中',
   PRIMARY KEY (seckill_id),
   KEY idx_start_time(start_time),
   KEY idx_emd_time(end_time),
@@ -27,6 +28,18 @@ VALUES
   ('300元秒杀iphone6', 300, '2015-11-01 00:00:00', '2015-11-02 00:00:00'),
   ('200元秒杀iphone6', 400, '2015-11-01 00:00:00', '2015-11-02 00:00:00');
 
+# 已有的库存表增加分片数
+# ALTER TABLE seckill ADD COLUMN stock_shards INT NOT NULL DEFAULT 0 COMMENT '库存分片数';
+
+# 秒杀库存分片表
+# 热点商品的库存拆分为多行，不同用户扣减不同的行，分散单行行锁的竞争
+CREATE TABLE seckill_stock(
+  seckill_id BIGINT NOT NULL COMMENT '秒杀商品id',
+  shard_no INT NOT NULL COMMENT '分片序号',
+  number INT NOT NULL COMMENT '分片库存数量',
+  PRIMARY KEY (seckill_id, shard_no)
+)ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='秒杀库存分片表';
+
 # 秒杀成功明细表
 # 用户登录认证相关的信息
 CREATE TABLE succecc_killed(
@@ -42,6 +42,71 @@ CREATE PROCEDURE 'seckill'.'execute_seckill'
     END IF;
   END;
 $$
+
+-- 库存分片的秒杀存储过程
+-- v_shards: 分片数; v_home: 按用户分配的分片，该分片售完时依次向其他分片借库存
+-- 分片行不保存秒杀时间，先以非锁定读校验秒杀时间，不对seckill行加锁
+CREATE PROCEDURE 'seckill'.'execute_seckill_sharded'
+  (in v_seckill_id bigint, in v_phone bigint,
+    in v_kill_time timestamp, in v_shards int, in v_home int, out r_result int )
+  BEGIN
+    DECLARE insert_count int DEFAULT 0;
+    DECLARE open_count int DEFAULT 0;
+    DECLARE i int DEFAULT 0;
+    DECLARE v_left int DEFAULT 0;
+    START TRANSACTION ;
+    select count(*) into open_count from seckill
+    where seckill_id = v_seckill_id
+      and end_time > v_kill_time
+      and start_time < v_kill_time;
+    IF (open_count = 0) THEN
+      ROLLBACK ;
+      set r_result = 0;
+    ELSE
+      insert ignore into success_killed
+        (seckill_id, user_phone, create_time)
+      values (v_seckill_id, v_phone, v_kill_time);
+      select row_count() into insert_count;
+      IF (insert_count = 0) THEN
+        ROLLBACK ;
+        set r_result = -1;
+      ELSEIF(insert_count < 0) THEN
+        ROLLBACK ;
+        set r_result = -2;
+      ELSE
+        set insert_count = 0;
+        WHILE (insert_count = 0 AND i < v_shards) DO
+          -- 借库存之前先非锁定读，跳过已经售完的分片，避免在空分片上持有行锁
+          set v_left = 1;
+          IF (i > 0) THEN
+            select number into v_left from seckill_stock
+            where seckill_id = v_seckill_id
+              and shard_no = (v_home + i) % v_shards;
+          END IF;
+          IF (v_left > 0) THEN
+            update seckill_stock
+            set number = number - 1
+            where seckill_id = v_seckill_id
+              and shard_no = (v_home + i) % v_shards
+              and number > 0;
+            select row_count() into insert_count;
+          END IF;
+          set i = i + 1;
+        END WHILE;
+        IF (insert_count = 0) THEN
+          ROLLBACK ;
+          set r_result = 0;
+        ELSEIF (insert_count < 0) THEN
+          ROLLBACK ;
+          set r_result = -2;
+        ELSE
+          COMMIT ;
+          set r_result = 1;
+        END IF;
+      END IF;
+    END IF;
+  END;
+$$
 -- 存储过程定义结束
 
 DELIMITER ;
@@ -1,4 +1,5 @@
-<%@ page contentType="text/html;charset=UTF-8" language="java" %>
+<%--页面只由商品字段渲染，不创建会话，响应可以被共享缓存并按ETag重新验证--%>
+<%@ page contentType="text/html;charset=UTF-8" language="java" session="false" %>
 <!DOCTYPE html>
 <html>
 <head>
@@ -10,14 +11,6 @@
         <div class="panel panel-default text-center">
             <div class="pannel-heading">
                 <h1>${seckill.name}</h1>
-                <h2>SessionId = <%=session.getId()%></h2>
-                <h2>Server = <%=request.getLocalPort()%></h2>
-                <%
-                    if(session.getAttribute("name") == null){
-                        session.setAttribute("name" , request.getLocalPort()+"xuhao");
-                    }
-                %>
-                <h2>name = <%=session.getAttribute("name")%></h2>
             </div>
             <div class="panel-body">
                 <h2 class="text-danger">
@@ -48,6 +48,9 @@
                         </c:forEach>
                     </tbody>
                 </table>
+                <c:if test="${not empty next}">
+                    <a class="btn btn-default" href="${pageContext.request.contextPath}/seckill/list?cursor=${next}">下一页</a>
+                </c:if>
             </div>
         </div>
     </div>
@@ -14,8 +14,24 @@ var seckill = {
         },
         execution : function (seckillId, md5) {
             return '/seckill/seckill/'+seckillId+'/'+md5+'/execution';
+        },
+        result : function (seckillId) {
+            return '/seckill/seckill/' + seckillId + '/result';
         }
     },
+    //排队成功后长轮询最终结果，直到写库完成或失败
+    pollResult : function (seckillId, node) {
+        $.get(seckill.URL.result(seckillId), {}, function (result) {
+            if (result && result['success']){
+                var killResult = result['data'];
+                node.html('<span class="label label-success">' + killResult['stateInfo'] + '</span>');
+                //仍在排队，继续等待
+                if (killResult['state'] == 2){
+                    seckill.pollResult(seckillId, node);
+                }
+            }
+        });
+    },
     handleSeckillkill :function (seckillId ,node) {
         node.hide()
             .html('<button class="btn btn-primary btn-lg" id="killBtn">开始秒杀</button>')
@@ -42,6 +58,10 @@ var seckill = {
                                 var stateInfo = killResult['stateInfo'];
                                 //3：显示秒杀结果
                                 node.html('<span class="label label-success">'+stateInfo+'</span>');
+                                //4：已进入排队队列，等待写库的最终结果
+                                if (state == 1 || state == 2){
+                                    seckill.pollResult(seckillId, node);
+                                }
                             }
                         });
                     });
@@ -0,0 +1,32 @@
+package org.seckill.perf;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 基准测试入口：mvn -Pperf test-compile exec:exec [-Dperf.args="..."]
+ * 默认运行org.seckill.perf下所有基准测试，统计吞吐量、平均耗时和gc分配速率(gc.alloc.rate.norm)，
+ * 结果以JSON写入target/jmh-result.json，可以直接比较两个版本的结果；
+ * perf.args使用JMH的命令行参数，可以覆盖默认值，如 -f 1 -wi 1 -i 3 -rff other.json TokenBenchmark
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLine);
+        if (commandLine.getIncludes().isEmpty()){
+            builder.include(BenchmarkMain.class.getPackage().getName() + "\\..*Benchmark");
+        }
+        Options options = builder
+                .addProfiler(GCProfiler.class)
+                .resultFormat(commandLine.getResultFormat().orElse(ResultFormatType.JSON))
+                .result(commandLine.getResult().orElse("target/jmh-result.json"))
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,49 @@
+package org.seckill.perf;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.seckill.dao.cache.SeckillCodec;
+import org.seckill.entity.Seckill;
+import org.seckill.perf.support.Fixtures;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 秒杀商品protostuff序列化/反序列化，即RedisDao读写商品缓存的CPU开销
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+    private Seckill seckill;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setUp(){
+        seckill = Fixtures.seckill(Fixtures.SECKILL_ID, 100);
+        bytes = SeckillCodec.encode(seckill);
+    }
+
+    @Benchmark
+    public byte[] encode(){
+        return SeckillCodec.encode(seckill);
+    }
+
+    @Benchmark
+    public Seckill decode(){
+        return SeckillCodec.decode(bytes);
+    }
+}
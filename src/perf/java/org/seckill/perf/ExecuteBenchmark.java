@@ -0,0 +1,74 @@
+package org.seckill.perf;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.seckill.dto.Exposer;
+import org.seckill.dto.SeckillExecution;
+import org.seckill.perf.support.Fixtures;
+import org.seckill.perf.support.InMemoryRedisDao;
+import org.seckill.perf.support.InMemorySeckillDao;
+import org.seckill.perf.support.InMemorySuccessKilledDao;
+import org.seckill.service.impl.SeckillServiceImpl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 各秒杀执行策略在服务层的开销，dao和redis均为内存实现，
+ * 不包含网络和数据库的耗时，用于比较不同版本之间服务层代码本身的变化
+ * ActiveMQ方式的开销主要在broker，由LoadHarness的ACTIVEMQ策略压测
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecuteBenchmark {
+
+    private SeckillServiceImpl seckillService;
+
+    private String md5;
+
+    /**
+     * 每轮重新装配，避免库存在长时间运行后耗尽而走到售罄分支
+     */
+    @Setup(Level.Iteration)
+    public void setUp(){
+        InMemorySeckillDao seckillDao = new InMemorySeckillDao();
+        seckillDao.add(Fixtures.seckill(Fixtures.SECKILL_ID, Integer.MAX_VALUE));
+        InMemoryRedisDao redisDao = new InMemoryRedisDao();
+        redisDao.initStock(Fixtures.SECKILL_ID, Integer.MAX_VALUE);
+        seckillService = Fixtures.seckillService(seckillDao, new InMemorySuccessKilledDao(seckillDao), redisDao);
+        Exposer exposer = seckillService.exportSeckillUrl(Fixtures.SECKILL_ID, Fixtures.USER_PHONE);
+        md5 = exposer.getMd5();
+    }
+
+    @Benchmark
+    public Exposer exportSeckillUrl(){
+        return seckillService.exportSeckillUrl(Fixtures.SECKILL_ID, Fixtures.USER_PHONE);
+    }
+
+    @Benchmark
+    public SeckillExecution executeSeckill(){
+        return seckillService.executeSeckill(Fixtures.SECKILL_ID, Fixtures.USER_PHONE, md5);
+    }
+
+    @Benchmark
+    public SeckillExecution executeSeckillByRedis(){
+        return seckillService.executeSeckillByRedis(Fixtures.SECKILL_ID, Fixtures.USER_PHONE, md5);
+    }
+
+    @Benchmark
+    public SeckillExecution executeSeckillProcedure(){
+        return seckillService.executeSeckillProcedure(Fixtures.SECKILL_ID, Fixtures.USER_PHONE, md5);
+    }
+}
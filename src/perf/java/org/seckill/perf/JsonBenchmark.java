@@ -0,0 +1,73 @@
+package org.seckill.perf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.seckill.dto.Exposer;
+import org.seckill.dto.SeckillExecution;
+import org.seckill.dto.SeckillResult;
+import org.seckill.entity.SuccessKilled;
+import org.seckill.enums.SeckillStatEnum;
+import org.seckill.perf.support.Fixtures;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 控制器返回值的JSON序列化，与MappingJackson2HttpMessageConverter使用同一个jackson
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonBenchmark {
+
+    private ObjectMapper objectMapper;
+
+    private SeckillResult<SeckillExecution> queued;
+
+    private SeckillResult<SeckillExecution> success;
+
+    private SeckillResult<Exposer> exposer;
+
+    @Setup
+    public void setUp(){
+        objectMapper = new ObjectMapper();
+        queued = new SeckillResult<SeckillExecution>(true,
+                new SeckillExecution(Fixtures.SECKILL_ID, SeckillStatEnum.QUEUED));
+        SuccessKilled successKilled = new SuccessKilled();
+        successKilled.setSeckillId(Fixtures.SECKILL_ID);
+        successKilled.setUserPhone(Fixtures.USER_PHONE);
+        successKilled.setCreateTime(new Date());
+        successKilled.setSeckill(Fixtures.seckill(Fixtures.SECKILL_ID, 100));
+        success = new SeckillResult<SeckillExecution>(true,
+                new SeckillExecution(Fixtures.SECKILL_ID, SeckillStatEnum.SUCCESS, successKilled));
+        exposer = new SeckillResult<Exposer>(true, new Exposer(true,
+                Fixtures.tokenService().issue(Fixtures.SECKILL_ID, Fixtures.USER_PHONE), Fixtures.SECKILL_ID));
+    }
+
+    @Benchmark
+    public byte[] executionWithoutDetail() throws Exception {
+        return objectMapper.writeValueAsBytes(queued);
+    }
+
+    @Benchmark
+    public byte[] executionWithDetail() throws Exception {
+        return objectMapper.writeValueAsBytes(success);
+    }
+
+    @Benchmark
+    public byte[] exposer() throws Exception {
+        return objectMapper.writeValueAsBytes(exposer);
+    }
+}
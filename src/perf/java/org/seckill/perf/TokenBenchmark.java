@@ -0,0 +1,65 @@
+package org.seckill.perf;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.seckill.perf.support.Fixtures;
+import org.seckill.service.impl.TokenServiceImpl;
+import org.springframework.util.DigestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 秒杀令牌的签发和校验，legacyMd5为原来每次请求计算md5(seckillId/salt)的做法，作为对照
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenBenchmark {
+
+    private static final String SALT = "wadgydg&d9*(*2q5~war3waef";
+
+    private TokenServiceImpl tokenService;
+
+    private String token;
+
+    private String md5;
+
+    @Setup
+    public void setUp(){
+        tokenService = Fixtures.tokenService();
+        token = tokenService.issue(Fixtures.SECKILL_ID, Fixtures.USER_PHONE);
+        md5 = legacyMd5();
+    }
+
+    @Benchmark
+    public String issue(){
+        return tokenService.issue(Fixtures.SECKILL_ID, Fixtures.USER_PHONE);
+    }
+
+    @Benchmark
+    public boolean verify(){
+        return tokenService.verify(Fixtures.SECKILL_ID, Fixtures.USER_PHONE, token);
+    }
+
+    @Benchmark
+    public String legacyMd5(){
+        String base = Fixtures.SECKILL_ID + "/" + SALT;
+        return DigestUtils.md5DigestAsHex(base.getBytes());
+    }
+
+    @Benchmark
+    public boolean legacyMd5Verify(){
+        return md5.equals(legacyMd5());
+    }
+}
@@ -0,0 +1,325 @@
+package org.seckill.perf.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.seckill.dao.cache.RedisDao;
+import org.seckill.dao.cache.RedisEventBus;
+import org.seckill.dto.SeckillExecution;
+import org.seckill.dto.SeckillResult;
+import org.seckill.entity.Seckill;
+import org.seckill.enums.SeckillStatEnum;
+import org.seckill.metrics.MetricsRegistry;
+import org.seckill.service.interfaces.SeckillService;
+import org.seckill.service.queue.KillResultNotifier;
+import org.seckill.web.SeckillController;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地并发压测：模拟大量用户同时抢购同一个商品
+ * 每种执行策略使用一个新的Spring容器，数据库和redis为内存实现（spring/spring-load.xml），
+ * 统计吞吐量和延迟分布，结束后校验购买明细数不超过初始库存，且库存、明细、成功响应三者一致
+ *
+ * 运行：mvn -Pperf test-compile exec:exec -Dperf.main=org.seckill.perf.load.LoadHarness
+ *      -Dperf.args="users=10000 stock=100 threads=200 attempts=2 strategies=CONTROLLER,REDIS,ACTIVEMQ"
+ * 被并发限制拒绝（BUSY）的请求等待1毫秒后重试，每次重试都计入请求数
+ * ACTIVEMQ策略的响应为排队中，成功数按消费者广播的秒杀结果统计，与REDIS策略一样计入排空队列的耗时
+ * shards=N 时开启库存分片（seckill.stock.shards），事务和存储过程策略在分片上扣减库存
+ */
+public class LoadHarness {
+
+    /**
+     * 被压测的入口
+     */
+    public enum Strategy {
+        //SeckillController.execute，内部为redis排队
+        CONTROLLER,
+        //SeckillService.executeSeckillByRedis
+        REDIS,
+        //SeckillService.executeSeckill，数据库事务
+        TRANSACTION,
+        //SeckillService.executeSeckillProcedure，存储过程
+        PROCEDURE,
+        //SeckillService.executeSeckillByActiveMQ，内嵌broker + 批量消费者
+        ACTIVEMQ
+    }
+
+    private static final long SECKILL_ID = 1000L;
+
+    private static final String SHARDS_PROPERTY = "seckill.stock.shards";
+
+    private static final String JOURNAL_DIR_PROPERTY = "seckill.journal.dir";
+
+    private static final long FIRST_PHONE = 13000000000L;
+
+    private static final String BUSY = SeckillStatEnum.BUSY.name();
+
+    //BUSY时同一请求的最大重试次数
+    private static final int MAX_BUSY_RETRIES = 1000;
+
+    //排队策略等待消费者写完数据库的最长时间
+    private static final long DRAIN_TIMEOUT = 60000;
+
+    private final int users;
+
+    private final int stock;
+
+    private final int threads;
+
+    private final int attempts;
+
+    //库存分片数，0不分片
+    private int shards;
+
+    /**
+     * @param users 用户数
+     * @param stock 初始库存
+     * @param threads 并发线程数
+     * @param attempts 每个用户的请求次数，大于1时包含重复秒杀
+     */
+    public LoadHarness(int users, int stock, int threads, int attempts) {
+        this.users = users;
+        this.stock = stock;
+        this.threads = threads;
+        this.attempts = attempts;
+    }
+
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    public LoadReport run(final Strategy strategy) throws Exception {
+        //系统属性优先于seckill.properties
+        System.setProperty(SHARDS_PROPERTY, String.valueOf(shards));
+        //每次运行使用新的订单日志目录，不会补写上一次运行的订单
+        File journalDir = Files.createTempDirectory("seckill-journal").toFile();
+        System.setProperty(JOURNAL_DIR_PROPERTY, journalDir.getPath());
+        ClassPathXmlApplicationContext context;
+        try {
+            context = new ClassPathXmlApplicationContext("spring/spring-load.xml");
+        } finally {
+            System.clearProperty(SHARDS_PROPERTY);
+            System.clearProperty(JOURNAL_DIR_PROPERTY);
+        }
+        try {
+            LocalDatabase database = context.getBean(LocalDatabase.class);
+            database.insertSeckill(seckill());
+            final SeckillService seckillService = context.getBean(SeckillService.class);
+            final SeckillController seckillController = context.getBean(SeckillController.class);
+            RedisDao redisDao = context.getBean(RedisDao.class);
+            MetricsRegistry metricsRegistry = context.getBean(MetricsRegistry.class);
+            //统计消费者广播的秒杀成功用户，消息格式见KillResultNotifier.publish
+            final AtomicLong notifiedSuccess = new AtomicLong();
+            context.getBean(RedisEventBus.class).addListener(KillResultNotifier.CHANNEL, new RedisEventBus.Listener() {
+                @Override
+                public void onEvent(String message) {
+                    String[] parts = message.split(":");
+                    if (Integer.parseInt(parts[0]) == SeckillStatEnum.SUCCESS.getState()){
+                        notifiedSuccess.addAndGet(parts[2].split(",").length);
+                    }
+                }
+            });
+
+            //准备阶段：每个用户先获取秒杀地址，不计入压测
+            final String[] tokens = new String[users];
+            for (int i = 0; i < users; i++) {
+                tokens[i] = seckillService.exportSeckillUrl(SECKILL_ID, FIRST_PHONE + i).getMd5();
+            }
+            final int[] requests = shuffledRequests();
+
+            final LoadReport report = new LoadReport(shards > 1 ? strategy.name() + "/" + shards + " shards"
+                    : strategy.name(), stock);
+            final ConcurrentHistogram histogram = report.getHistogram();
+            final AtomicInteger next = new AtomicInteger();
+            final CountDownLatch startGate = new CountDownLatch(1);
+            final CountDownLatch endGate = new CountDownLatch(threads);
+            for (int t = 0; t < threads; t++) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            startGate.await();
+                            int index;
+                            while ((index = next.getAndIncrement()) < requests.length){
+                                int user = requests[index];
+                                for (int retry = 0; ; retry++) {
+                                    long start = System.nanoTime();
+                                    String outcome = execute(strategy, seckillService, seckillController,
+                                            FIRST_PHONE + user, tokens[user]);
+                                    histogram.recordValue((System.nanoTime() - start) / 1000);
+                                    report.count(outcome);
+                                    //超过并发上限被拒绝，与客户端一样稍后重试
+                                    if (!BUSY.equals(outcome) || retry >= MAX_BUSY_RETRIES){
+                                        break;
+                                    }
+                                    Thread.sleep(1);
+                                }
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            endGate.countDown();
+                        }
+                    }
+                }, "load-" + t);
+                thread.start();
+            }
+            long start = System.nanoTime();
+            startGate.countDown();
+            endGate.await();
+            report.setElapsedNanos(System.nanoTime() - start);
+
+            if (strategy == Strategy.CONTROLLER || strategy == Strategy.REDIS){
+                long drainStart = System.nanoTime();
+                long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT;
+                while ((redisDao.getWaitQueueNumber(SECKILL_ID) > 0 || redisDao.getProcessingNumber(SECKILL_ID) > 0)
+                        && System.currentTimeMillis() < deadline){
+                    Thread.sleep(10);
+                }
+                report.setDrainNanos(System.nanoTime() - drainStart);
+            } else if (strategy == Strategy.ACTIVEMQ){
+                long drainStart = System.nanoTime();
+                long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT;
+                while (metricsRegistry.counter("seckill_mq_consumed_total").sum()
+                        < metricsRegistry.counter("seckill_mq_sent_total").sum()
+                        && System.currentTimeMillis() < deadline){
+                    Thread.sleep(10);
+                }
+                report.setDrainNanos(System.nanoTime() - drainStart);
+                report.setNotifiedSuccess(notifiedSuccess.get());
+            }
+            report.setRows(database.countSuccessKilled(SECKILL_ID));
+            report.setRemaining(database.selectSeckill(SECKILL_ID).getNumber());
+            return report;
+        } finally {
+            context.close();
+            File[] files = journalDir.listFiles();
+            if (files != null){
+                for (File file : files){
+                    file.delete();
+                }
+            }
+            journalDir.delete();
+        }
+    }
+
+    private static String execute(Strategy strategy, SeckillService seckillService,
+                                  SeckillController seckillController, long phone, String md5){
+        try {
+            SeckillExecution execution;
+            switch (strategy){
+                case CONTROLLER:
+                    SeckillResult<SeckillExecution> result = seckillController.execute(SECKILL_ID, md5, phone);
+                    if (!result.isSuccess()){
+                        return result.getError();
+                    }
+                    execution = result.getData();
+                    break;
+                case REDIS:
+                    execution = seckillService.executeSeckillByRedis(SECKILL_ID, phone, md5);
+                    break;
+                case TRANSACTION:
+                    execution = seckillService.executeSeckill(SECKILL_ID, phone, md5);
+                    break;
+                case ACTIVEMQ:
+                    execution = seckillService.executeSeckillByActiveMQ(SECKILL_ID, phone, md5);
+                    break;
+                default:
+                    execution = seckillService.executeSeckillProcedure(SECKILL_ID, phone, md5);
+                    break;
+            }
+            SeckillStatEnum stat = SeckillStatEnum.stateOf(execution.getState());
+            return stat == null ? String.valueOf(execution.getState()) : stat.name();
+        } catch (Exception e){
+            return e.getClass().getSimpleName();
+        }
+    }
+
+    private Seckill seckill(){
+        long now = System.currentTimeMillis();
+        Seckill seckill = new Seckill();
+        seckill.setSeckillId(SECKILL_ID);
+        seckill.setName(stock + "件压测商品");
+        seckill.setNumber(stock);
+        seckill.setStartTime(new Date(now - 60 * 60 * 1000L));
+        seckill.setEndTime(new Date(now + 60 * 60 * 1000L));
+        seckill.setCreateTime(new Date(now));
+        return seckill;
+    }
+
+    /**
+     * 每个用户attempts次请求，打乱顺序
+     */
+    private int[] shuffledRequests(){
+        List<Integer> list = new ArrayList<Integer>(users * attempts);
+        for (int a = 0; a < attempts; a++) {
+            for (int i = 0; i < users; i++) {
+                list.add(i);
+            }
+        }
+        Collections.shuffle(list, new Random(users));
+        int[] requests = new int[list.size()];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = list.get(i);
+        }
+        return requests;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int users = 10000;
+        int stock = 100;
+        int threads = 200;
+        int attempts = 2;
+        int shards = 0;
+        List<Strategy> strategies = new ArrayList<Strategy>();
+        for (String arg : args){
+            int index = arg.indexOf('=');
+            if (index <= 0){
+                throw new IllegalArgumentException("illegal argument: " + arg);
+            }
+            String name = arg.substring(0, index);
+            String value = arg.substring(index + 1);
+            if ("users".equals(name)){
+                users = Integer.parseInt(value);
+            } else if ("stock".equals(name)){
+                stock = Integer.parseInt(value);
+            } else if ("threads".equals(name)){
+                threads = Integer.parseInt(value);
+            } else if ("attempts".equals(name)){
+                attempts = Integer.parseInt(value);
+            } else if ("shards".equals(name)){
+                shards = Integer.parseInt(value);
+            } else if ("strategies".equals(name)){
+                for (String strategy : value.split(",")){
+                    strategies.add(Strategy.valueOf(strategy.trim().toUpperCase()));
+                }
+            } else {
+                throw new IllegalArgumentException("unknown argument: " + name);
+            }
+        }
+        if (strategies.isEmpty()){
+            Collections.addAll(strategies, Strategy.values());
+        }
+
+        LoadHarness harness = new LoadHarness(users, stock, threads, attempts);
+        harness.setShards(shards);
+        boolean passed = true;
+        for (Strategy strategy : strategies){
+            LoadReport report = harness.run(strategy);
+            report.print(System.out);
+            passed &= report.verify().isEmpty();
+        }
+        TimeUnit.MILLISECONDS.sleep(100);
+        System.exit(passed ? 0 : 1);
+    }
+}
@@ -0,0 +1,59 @@
+package org.seckill.perf.load;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * 小规模压测各执行策略，校验不超卖
+ * mvn -Pperf test -Dtest=LoadHarnessTest
+ */
+public class LoadHarnessTest {
+
+    private static final int STOCK = 100;
+
+    private final LoadHarness harness = new LoadHarness(2000, STOCK, 32, 2);
+
+    @Test
+    public void controller() throws Exception {
+        check(harness.run(LoadHarness.Strategy.CONTROLLER));
+    }
+
+    @Test
+    public void redis() throws Exception {
+        check(harness.run(LoadHarness.Strategy.REDIS));
+    }
+
+    @Test
+    public void transaction() throws Exception {
+        check(harness.run(LoadHarness.Strategy.TRANSACTION));
+    }
+
+    @Test
+    public void procedure() throws Exception {
+        check(harness.run(LoadHarness.Strategy.PROCEDURE));
+    }
+
+    @Test
+    public void activeMQ() throws Exception {
+        check(harness.run(LoadHarness.Strategy.ACTIVEMQ));
+    }
+
+    @Test
+    public void shardedStock() throws Exception {
+        LoadHarness sharded = new LoadHarness(2000, STOCK, 32, 2);
+        sharded.setShards(8);
+        check(sharded.run(LoadHarness.Strategy.TRANSACTION));
+        check(sharded.run(LoadHarness.Strategy.PROCEDURE));
+    }
+
+    private void check(LoadReport report){
+        report.print(System.out);
+        assertTrue(report.getRows() <= STOCK);
+        assertEquals(Collections.<String>emptyList(), report.verify());
+        //用户数大于库存，库存应当全部卖出
+        assertEquals(STOCK, report.getRows());
+    }
+}
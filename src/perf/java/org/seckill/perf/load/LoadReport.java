@@ -0,0 +1,154 @@
+package org.seckill.perf.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.seckill.enums.SeckillStatEnum;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一种执行策略的压测结果
+ */
+public class LoadReport {
+
+    private final String strategy;
+
+    private final int stock;
+
+    //微秒，最大60秒
+    private final ConcurrentHistogram histogram = new ConcurrentHistogram(60L * 1000 * 1000, 3);
+
+    //结果 -> 次数
+    private final ConcurrentMap<String, AtomicLong> outcomes = new ConcurrentHashMap<String, AtomicLong>();
+
+    private long elapsedNanos;
+
+    private long drainNanos;
+
+    private int rows;
+
+    private int remaining;
+
+    //异步策略（ACTIVEMQ）响应为排队中，成功数为消费者通知的秒杀成功用户数
+    private long notifiedSuccess;
+
+    public LoadReport(String strategy, int stock) {
+        this.strategy = strategy;
+        this.stock = stock;
+    }
+
+    public void count(String outcome){
+        AtomicLong counter = outcomes.get(outcome);
+        if (counter == null){
+            AtomicLong created = new AtomicLong();
+            counter = outcomes.putIfAbsent(outcome, created);
+            if (counter == null){
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    public long getOutcome(String outcome){
+        AtomicLong counter = outcomes.get(outcome);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * 校验结果
+     * @return 不一致的描述，空列表表示通过
+     */
+    public List<String> verify(){
+        List<String> errors = new ArrayList<String>();
+        if (rows > stock){
+            errors.add("oversold: " + rows + " success_killed rows > initial number " + stock);
+        }
+        if (remaining != stock - rows){
+            errors.add("stock mismatch: remaining number " + remaining + " != " + stock + " - " + rows);
+        }
+        long success = getOutcome(SeckillStatEnum.SUCCESS.name()) + notifiedSuccess;
+        if (success != rows){
+            errors.add("success responses " + success + " != success_killed rows " + rows);
+        }
+        return errors;
+    }
+
+    public void print(PrintStream out){
+        long requests = histogram.getTotalCount();
+        double seconds = elapsedNanos / 1e9;
+        out.println("==== " + strategy + " ====");
+        out.printf("requests=%d elapsed=%.1fms throughput=%.0f req/s%n",
+                requests, elapsedNanos / 1e6, seconds > 0 ? requests / seconds : 0);
+        out.printf("latency(us) p50=%d p99=%d p999=%d max=%d%n",
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(99),
+                histogram.getValueAtPercentile(99.9), histogram.getMaxValue());
+        Map<String, Long> sorted = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : outcomes.entrySet()){
+            sorted.put(entry.getKey(), entry.getValue().get());
+        }
+        out.println("outcomes " + sorted);
+        if (drainNanos > 0){
+            out.printf("queue drained in %.1fms%n", drainNanos / 1e6);
+        }
+        if (notifiedSuccess > 0){
+            out.println("notified success=" + notifiedSuccess);
+        }
+        out.println("initial number=" + stock + " success_killed rows=" + rows + " remaining number=" + remaining);
+        List<String> errors = verify();
+        out.println(errors.isEmpty() ? "verify: OK" : "verify: FAILED " + errors);
+    }
+
+    public String getStrategy() {
+        return strategy;
+    }
+
+    public ConcurrentHistogram getHistogram() {
+        return histogram;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getDrainNanos() {
+        return drainNanos;
+    }
+
+    public void setDrainNanos(long drainNanos) {
+        this.drainNanos = drainNanos;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public void setRows(int rows) {
+        this.rows = rows;
+    }
+
+    public int getRemaining() {
+        return remaining;
+    }
+
+    public void setRemaining(int remaining) {
+        this.remaining = remaining;
+    }
+
+    public long getNotifiedSuccess() {
+        return notifiedSuccess;
+    }
+
+    public void setNotifiedSuccess(long notifiedSuccess) {
+        this.notifiedSuccess = notifiedSuccess;
+    }
+}
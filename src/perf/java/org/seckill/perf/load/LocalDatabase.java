@@ -0,0 +1,247 @@
+package org.seckill.perf.load;
+
+import org.seckill.entity.Seckill;
+import org.seckill.entity.SeckillStock;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 代替MySQL的内存数据库，保存seckill、seckill_stock和success_killed三张表
+ * 库存扣减为比较并交换，与 number > 0 条件更新等价；
+ * 在事务中执行的修改登记回滚动作，事务回滚时撤销，效果与数据库事务回滚一致
+ */
+public class LocalDatabase {
+
+    private final ConcurrentMap<Long, SeckillRow> seckills = new ConcurrentHashMap<Long, SeckillRow>();
+
+    private final ConcurrentMap<Long, Set<Long>> successKilled = new ConcurrentHashMap<Long, Set<Long>>();
+
+    public void insertSeckill(Seckill seckill){
+        seckills.put(seckill.getSeckillId(), new SeckillRow(seckill));
+        successKilled.put(seckill.getSeckillId(), Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>()));
+    }
+
+    /**
+     * 当前的商品行，number为剩余库存（包含各库存分片）
+     */
+    public Seckill selectSeckill(long seckillId){
+        SeckillRow row = seckills.get(seckillId);
+        return row == null ? null : row.snapshot();
+    }
+
+    public List<Seckill> selectSeckills(){
+        List<Seckill> list = new ArrayList<Seckill>();
+        for (SeckillRow row : seckills.values()){
+            list.add(row.snapshot());
+        }
+        return list;
+    }
+
+    /**
+     * insert ignore，已存在返回false
+     */
+    public boolean insertSuccessKilled(final long seckillId, final long userPhone){
+        final Set<Long> rows = successKilled.get(seckillId);
+        if (rows == null || !rows.add(userPhone)){
+            return false;
+        }
+        onRollback(new Runnable() {
+            @Override
+            public void run() {
+                rows.remove(userPhone);
+            }
+        });
+        return true;
+    }
+
+    public void deleteSuccessKilled(long seckillId, long userPhone){
+        Set<Long> rows = successKilled.get(seckillId);
+        if (rows != null){
+            rows.remove(userPhone);
+        }
+    }
+
+    public boolean existsSuccessKilled(long seckillId, long userPhone){
+        Set<Long> rows = successKilled.get(seckillId);
+        return rows != null && rows.contains(userPhone);
+    }
+
+    public int countSuccessKilled(long seckillId){
+        Set<Long> rows = successKilled.get(seckillId);
+        return rows == null ? 0 : rows.size();
+    }
+
+    /**
+     * update seckill set number = number - count where ... and number >= count
+     * @param killTime 不为null时还要求在秒杀时间内
+     * @return 更新的行数
+     */
+    public int reduceNumber(long seckillId, Date killTime, final int count){
+        SeckillRow row = seckills.get(seckillId);
+        if (row == null){
+            return 0;
+        }
+        if (killTime != null && (killTime.before(row.seckill.getStartTime())
+                || killTime.after(row.seckill.getEndTime()))){
+            return 0;
+        }
+        return reduce(row.number, count);
+    }
+
+    private int reduce(final AtomicInteger number, final int count){
+        for (;;){
+            int current = number.get();
+            if (current < count){
+                return 0;
+            }
+            if (number.compareAndSet(current, current - count)){
+                break;
+            }
+        }
+        onRollback(new Runnable() {
+            @Override
+            public void run() {
+                number.addAndGet(count);
+            }
+        });
+        return 1;
+    }
+
+    /**
+     * select ... for update，行锁在事务结束时释放；number为商品行中的原始库存
+     */
+    public Seckill selectSeckillForUpdate(long seckillId){
+        final SeckillRow row = seckills.get(seckillId);
+        if (row == null){
+            return null;
+        }
+        row.lock.lock();
+        if (TransactionSynchronizationManager.isSynchronizationActive()){
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    row.lock.unlock();
+                }
+            });
+        } else {
+            row.lock.unlock();
+        }
+        Seckill seckill = row.snapshot();
+        seckill.setNumber(row.number.get());
+        return seckill;
+    }
+
+    /**
+     * 库存移入分片：insert ignore分片行，商品行number清零并记录分片数
+     * @return 是否执行了拆分，已经拆分过返回false
+     */
+    public boolean splitStock(long seckillId, List<Integer> numbers){
+        SeckillRow row = seckills.get(seckillId);
+        if (row == null || row.shards != null){
+            return false;
+        }
+        AtomicInteger[] shards = new AtomicInteger[numbers.size()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new AtomicInteger(numbers.get(i));
+        }
+        row.number.set(0);
+        row.shards = shards;
+        return true;
+    }
+
+    public List<SeckillStock> selectStockShards(long seckillId){
+        List<SeckillStock> list = new ArrayList<SeckillStock>();
+        SeckillRow row = seckills.get(seckillId);
+        if (row == null || row.shards == null){
+            return list;
+        }
+        for (int i = 0; i < row.shards.length; i++) {
+            SeckillStock stock = new SeckillStock();
+            stock.setSeckillId(seckillId);
+            stock.setShardNo(i);
+            stock.setNumber(row.shards[i].get());
+            list.add(stock);
+        }
+        return list;
+    }
+
+    /**
+     * update seckill_stock set number = number - count where ... and number >= count
+     * @return 更新的行数
+     */
+    public int reduceShard(long seckillId, int shardNo, final int count){
+        SeckillRow row = seckills.get(seckillId);
+        if (row == null || row.shards == null || shardNo >= row.shards.length){
+            return 0;
+        }
+        return reduce(row.shards[shardNo], count);
+    }
+
+    public void increaseNumber(long seckillId, int count){
+        SeckillRow row = seckills.get(seckillId);
+        if (row != null){
+            row.number.addAndGet(count);
+        }
+    }
+
+    private void onRollback(final Runnable undo){
+        if (!TransactionSynchronizationManager.isSynchronizationActive()){
+            //自动提交
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK){
+                    undo.run();
+                }
+            }
+        });
+    }
+
+    private static final class SeckillRow {
+
+        final Seckill seckill;
+
+        final AtomicInteger number;
+
+        //库存分片，未拆分时为null
+        volatile AtomicInteger[] shards;
+
+        final ReentrantLock lock = new ReentrantLock();
+
+        SeckillRow(Seckill seckill) {
+            this.seckill = seckill;
+            this.number = new AtomicInteger(seckill.getNumber());
+        }
+
+        Seckill snapshot(){
+            Seckill copy = new Seckill();
+            copy.setSeckillId(seckill.getSeckillId());
+            copy.setName(seckill.getName());
+            int total = number.get();
+            AtomicInteger[] current = shards;
+            if (current != null){
+                for (AtomicInteger shard : current){
+                    total += shard.get();
+                }
+                copy.setStockShards(current.length);
+            }
+            copy.setNumber(total);
+            copy.setStartTime(seckill.getStartTime());
+            copy.setEndTime(seckill.getEndTime());
+            copy.setCreateTime(seckill.getCreateTime());
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package org.seckill.perf.load;
+
+import org.seckill.dao.cache.CachedSeckill;
+import org.seckill.dao.cache.RedisDao;
+import org.seckill.dao.cache.SeckillCodec;
+import org.seckill.entity.Seckill;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 代替redis的内存实现，不连接redis
+ * 与redis单线程执行命令一样，所有数据结构的操作在同一把锁内完成，lua脚本的操作整体原子；
+ * 就绪队列使用阻塞队列实现BRPOP，发布消息在发布线程中直接回调订阅者
+ */
+public class LocalRedisDao extends RedisDao {
+
+    private final Map<Long, byte[]> seckills = new HashMap<Long, byte[]>();
+
+    private final Map<Long, Long> stocks = new HashMap<Long, Long>();
+
+    private final Map<String, Set<Long>> sets = new HashMap<String, Set<Long>>();
+
+    private final Map<String, Deque<Long>> lists = new HashMap<String, Deque<Long>>();
+
+    private final Set<Long> activeItems = new HashSet<Long>();
+
+    private final Map<Long, String> leaseOwners = new HashMap<Long, String>();
+
+    private final Map<Long, Long> leaseExpiries = new HashMap<Long, Long>();
+
+    private final LinkedBlockingDeque<Long> readyItems = new LinkedBlockingDeque<Long>();
+
+    private final List<JedisPubSub> subscribers = new CopyOnWriteArrayList<JedisPubSub>();
+
+    public LocalRedisDao() {
+        //连接池只在取连接时才建立连接
+        super("127.0.0.1", 6379);
+    }
+
+    @Override
+    public synchronized Seckill getSeckill(long seckillId) {
+        byte[] bytes = seckills.get(seckillId);
+        return bytes == null ? null : SeckillCodec.decode(bytes);
+    }
+
+    /**
+     * 内存中的商品缓存不过期
+     */
+    @Override
+    public synchronized CachedSeckill getSeckillEntry(long seckillId) {
+        byte[] bytes = seckills.get(seckillId);
+        return bytes == null ? null : new CachedSeckill(SeckillCodec.decode(bytes), Long.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized String pubSeckill(Seckill seckill) {
+        seckills.put(seckill.getSeckillId(), SeckillCodec.encode(seckill));
+        return "OK";
+    }
+
+    @Override
+    public synchronized Map<Long, Seckill> getSeckills(List<Long> seckillIds) {
+        Map<Long, Seckill> map = new HashMap<Long, Seckill>();
+        for (Long seckillId : seckillIds){
+            byte[] bytes = seckills.get(seckillId);
+            if (bytes != null){
+                map.put(seckillId, SeckillCodec.decode(bytes));
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public synchronized void pubSeckills(List<Seckill> list) {
+        for (Seckill seckill : list){
+            seckills.put(seckill.getSeckillId(), SeckillCodec.encode(seckill));
+        }
+    }
+
+    @Override
+    public synchronized void removeSeckill(long seckillId) {
+        seckills.remove(seckillId);
+    }
+
+    @Override
+    public synchronized boolean initStock(long seckillId, int number) {
+        if (stocks.containsKey(seckillId)){
+            return false;
+        }
+        stocks.put(seckillId, (long) number);
+        return true;
+    }
+
+    /**
+     * 与seckill_admit.lua相同的逻辑
+     */
+    @Override
+    public synchronized int admit(long seckillId, long userPhone) {
+        Set<Long> users = set("users:" + seckillId);
+        if (users.contains(userPhone)){
+            return ADMIT_REPEAT;
+        }
+        Long stock = stocks.get(seckillId);
+        if (stock == null){
+            return ADMIT_NOT_INIT;
+        }
+        if (stock <= 0){
+            return ADMIT_SOLD_OUT;
+        }
+        stocks.put(seckillId, stock - 1);
+        users.add(userPhone);
+        Deque<Long> waitQueue = list("waitQueue:" + seckillId);
+        waitQueue.addFirst(userPhone);
+        if (waitQueue.size() == 1){
+            readyItems.addFirst(seckillId);
+        }
+        return ADMIT_SUCCESS;
+    }
+
+    /**
+     * 与seckill_cancel.lua相同的逻辑
+     */
+    @Override
+    public synchronized boolean cancelAdmit(long seckillId, long userPhone) {
+        if (!list("waitQueue:" + seckillId).remove(userPhone)){
+            return false;
+        }
+        set("users:" + seckillId).remove(userPhone);
+        stocks.put(seckillId, stocks.get(seckillId) + 1);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean userExistsResultsQueue(long seckillId, long userPhone) {
+        return set("results:" + seckillId).contains(userPhone);
+    }
+
+    @Override
+    public synchronized Map<Long, Boolean> usersExistResults(long seckillId, List<Long> userPhones) {
+        Set<Long> results = set("results:" + seckillId);
+        Map<Long, Boolean> map = new LinkedHashMap<Long, Boolean>();
+        for (Long userPhone : userPhones){
+            map.put(userPhone, results.contains(userPhone));
+        }
+        return map;
+    }
+
+    @Override
+    public synchronized int getKillState(long seckillId, long userPhone) {
+        if (set("results:" + seckillId).contains(userPhone)){
+            return KILL_SUCCESS;
+        } else if (set("failures:" + seckillId).contains(userPhone)){
+            return KILL_FAILURE;
+        } else if (set("users:" + seckillId).contains(userPhone)
+                || set("pending:" + seckillId).contains(userPhone)){
+            return KILL_QUEUED;
+        }
+        return KILL_NONE;
+    }
+
+    /**
+     * 内存中的排队标记不过期
+     */
+    @Override
+    public synchronized boolean addPendingOrder(long seckillId, long userPhone, int expireSeconds) {
+        set("pending:" + seckillId).add(userPhone);
+        return true;
+    }
+
+    @Override
+    public synchronized void removePendingOrders(long seckillId, List<Long> userPhones) {
+        set("pending:" + seckillId).removeAll(userPhones);
+    }
+
+    @Override
+    public synchronized long getStock(long seckillId) {
+        Long stock = stocks.get(seckillId);
+        return stock == null ? 0 : stock;
+    }
+
+    @Override
+    public synchronized long getWaitQueueNumber(long seckillId) {
+        return list("waitQueue:" + seckillId).size();
+    }
+
+    @Override
+    public Long takeReadyItem(int node, int timeoutSeconds) {
+        try {
+            return readyItems.pollLast(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * 与seckill_pop.lua相同的逻辑
+     */
+    @Override
+    public synchronized List<Long> popWaitQueue(long seckillId, int max) {
+        Deque<Long> waitQueue = list("waitQueue:" + seckillId);
+        Deque<Long> processing = list("processing:" + seckillId);
+        List<Long> users = new ArrayList<Long>();
+        for (int i = 0; i < max && !waitQueue.isEmpty(); i++) {
+            Long user = waitQueue.pollLast();
+            processing.addFirst(user);
+            users.add(user);
+        }
+        return users;
+    }
+
+    @Override
+    public synchronized long getProcessingNumber(long seckillId) {
+        return list("processing:" + seckillId).size();
+    }
+
+    @Override
+    public synchronized void ackWaitQueue(long seckillId, List<Long> users) {
+        Deque<Long> processing = list("processing:" + seckillId);
+        for (Long user : users){
+            processing.remove(user);
+        }
+    }
+
+    /**
+     * 与seckill_requeue.lua相同的逻辑
+     */
+    @Override
+    public synchronized long requeueWaitQueue(long seckillId, List<Long> users) {
+        Deque<Long> waitQueue = list("waitQueue:" + seckillId);
+        Deque<Long> processing = list("processing:" + seckillId);
+        long count = 0;
+        for (Long user : users){
+            if (processing.remove(user)){
+                waitQueue.addLast(user);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 与seckill_lease_acquire.lua相同的逻辑
+     */
+    @Override
+    public synchronized long acquireConsumerLease(long seckillId, String owner, long leaseMillis) {
+        if (!holds(seckillId, owner) && leaseOwners.containsKey(seckillId)){
+            return LEASE_HELD;
+        }
+        leaseOwners.put(seckillId, owner);
+        leaseExpiries.put(seckillId, System.currentTimeMillis() + leaseMillis);
+        Deque<Long> waitQueue = list("waitQueue:" + seckillId);
+        Deque<Long> processing = list("processing:" + seckillId);
+        long count = 0;
+        while (!processing.isEmpty()){
+            waitQueue.addLast(processing.pollFirst());
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized boolean renewConsumerLease(long seckillId, String owner, long leaseMillis) {
+        if (!holds(seckillId, owner)){
+            return false;
+        }
+        leaseExpiries.put(seckillId, System.currentTimeMillis() + leaseMillis);
+        return true;
+    }
+
+    @Override
+    public synchronized void releaseConsumerLease(long seckillId, String owner) {
+        if (holds(seckillId, owner)){
+            leaseOwners.remove(seckillId);
+            leaseExpiries.remove(seckillId);
+        }
+    }
+
+    /**
+     * 过期的租约在访问时删除
+     */
+    private boolean holds(long seckillId, String owner){
+        Long expiry = leaseExpiries.get(seckillId);
+        if (expiry != null && expiry <= System.currentTimeMillis()){
+            leaseOwners.remove(seckillId);
+            leaseExpiries.remove(seckillId);
+        }
+        return owner.equals(leaseOwners.get(seckillId));
+    }
+
+    @Override
+    public synchronized void addActiveItem(long seckillId) {
+        activeItems.add(seckillId);
+    }
+
+    @Override
+    public synchronized void removeActiveItem(long seckillId) {
+        activeItems.remove(seckillId);
+    }
+
+    @Override
+    public synchronized Set<Long> getActiveItems() {
+        return new HashSet<Long>(activeItems);
+    }
+
+    @Override
+    public synchronized long pushUserToResultsQueue(long seckillId, List<Long> users) {
+        return addAll(set("results:" + seckillId), users);
+    }
+
+    @Override
+    public synchronized long pushUserToFailureQueue(long seckillId, List<Long> users) {
+        return addAll(set("failures:" + seckillId), users);
+    }
+
+    /**
+     * 在发布线程中同步回调订阅者
+     */
+    @Override
+    public long publish(String channel, String message) {
+        long count = 0;
+        for (JedisPubSub subscriber : subscribers){
+            subscriber.onPMessage("seckill.*", channel, message);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 登记订阅者后阻塞，直到订阅线程被中断
+     */
+    @Override
+    public void psubscribe(JedisPubSub pubSub, String pattern) {
+        if (!"seckill.*".equals(pattern)){
+            throw new UnsupportedOperationException("pattern not supported: " + pattern);
+        }
+        subscribers.add(pubSub);
+        try {
+            while (!Thread.currentThread().isInterrupted()){
+                Thread.sleep(1000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            subscribers.remove(pubSub);
+        }
+    }
+
+    private Set<Long> set(String key){
+        Set<Long> set = sets.get(key);
+        if (set == null){
+            set = new HashSet<Long>();
+            sets.put(key, set);
+        }
+        return set;
+    }
+
+    private Deque<Long> list(String key){
+        Deque<Long> list = lists.get(key);
+        if (list == null){
+            list = new ArrayDeque<Long>();
+            lists.put(key, list);
+        }
+        return list;
+    }
+
+    private static long addAll(Set<Long> set, List<Long> members){
+        long added = 0;
+        for (Long member : members){
+            if (set.add(member)){
+                added++;
+            }
+        }
+        return added;
+    }
+}
@@ -0,0 +1,178 @@
+package org.seckill.perf.load;
+
+import org.seckill.dao.SeckillDao;
+import org.seckill.entity.Seckill;
+import org.seckill.entity.SeckillStock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于LocalDatabase的SeckillDao
+ */
+public class LocalSeckillDao implements SeckillDao {
+
+    private final LocalDatabase database;
+
+    public LocalSeckillDao(LocalDatabase database) {
+        this.database = database;
+    }
+
+    @Override
+    public int reduceNumber(long seckillId, Date killTime) {
+        return database.reduceNumber(seckillId, killTime, 1);
+    }
+
+    @Override
+    public int reduceNumberBy(long seckillId, int count) {
+        return database.reduceNumber(seckillId, null, count);
+    }
+
+    @Override
+    public Seckill queryById(long seckillId) {
+        return database.selectSeckill(seckillId);
+    }
+
+    @Override
+    public List<Seckill> queryByIds(List<Long> seckillIds) {
+        List<Seckill> list = new ArrayList<Seckill>();
+        for (Long seckillId : seckillIds){
+            Seckill seckill = database.selectSeckill(seckillId);
+            if (seckill != null){
+                list.add(seckill);
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public List<Seckill> queryAll(int offet, int limit) {
+        List<Seckill> list = database.selectSeckills();
+        Collections.sort(list, new Comparator<Seckill>() {
+            @Override
+            public int compare(Seckill o1, Seckill o2) {
+                return o2.getCreateTime().compareTo(o1.getCreateTime());
+            }
+        });
+        int from = Math.min(offet, list.size());
+        return list.subList(from, Math.min(from + limit, list.size()));
+    }
+
+    @Override
+    public List<Seckill> queryPage(Date afterTime, long afterId, int limit) {
+        List<Seckill> list = new ArrayList<Seckill>();
+        for (Seckill seckill : database.selectSeckills()){
+            if (afterTime == null || seckill.getCreateTime().before(afterTime)
+                    || (seckill.getCreateTime().equals(afterTime) && seckill.getSeckillId() < afterId)){
+                list.add(seckill);
+            }
+        }
+        Collections.sort(list, new Comparator<Seckill>() {
+            @Override
+            public int compare(Seckill o1, Seckill o2) {
+                int c = o2.getCreateTime().compareTo(o1.getCreateTime());
+                return c != 0 ? c : Long.compare(o2.getSeckillId(), o1.getSeckillId());
+            }
+        });
+        return list.subList(0, Math.min(limit, list.size()));
+    }
+
+    @Override
+    public List<Seckill> queryStartingBetween(Date from, Date to, int limit) {
+        List<Seckill> list = new ArrayList<Seckill>();
+        for (Seckill seckill : database.selectSeckills()){
+            if (!seckill.getStartTime().before(from) && seckill.getStartTime().before(to)){
+                list.add(seckill);
+            }
+        }
+        Collections.sort(list, new Comparator<Seckill>() {
+            @Override
+            public int compare(Seckill o1, Seckill o2) {
+                return o1.getStartTime().compareTo(o2.getStartTime());
+            }
+        });
+        return list.subList(0, Math.min(limit, list.size()));
+    }
+
+    @Override
+    public Seckill queryByIdForUpdate(long seckillId) {
+        return database.selectSeckillForUpdate(seckillId);
+    }
+
+    /**
+     * 分片行的插入和商品行的清零在LocalDatabase中一次完成
+     */
+    @Override
+    public int insertStockShards(long seckillId, List<Integer> numbers) {
+        return database.splitStock(seckillId, numbers) ? numbers.size() : 0;
+    }
+
+    @Override
+    public int markStockSharded(long seckillId, int shards) {
+        //已在insertStockShards中完成
+        return 1;
+    }
+
+    @Override
+    public int reduceShardBy(long seckillId, int shardNo, int count) {
+        return database.reduceShard(seckillId, shardNo, count);
+    }
+
+    @Override
+    public List<SeckillStock> queryStockShards(long seckillId) {
+        return database.selectStockShards(seckillId);
+    }
+
+    /**
+     * 与存储过程execute_seckill相同的逻辑：insert ignore，成功再减库存，减库存失败则撤销插入
+     * result：1 成功，0 秒杀结束，-1 重复秒杀
+     */
+    @Override
+    public void killPyProcedure(Map<String, Object> paramMap) {
+        long seckillId = (Long) paramMap.get("seckillId");
+        long userPhone = (Long) paramMap.get("userPhone");
+        Date killTime = (Date) paramMap.get("killTime");
+        if (!database.insertSuccessKilled(seckillId, userPhone)){
+            paramMap.put("result", -1);
+        } else if (database.reduceNumber(seckillId, killTime, 1) == 0){
+            database.deleteSuccessKilled(seckillId, userPhone);
+            paramMap.put("result", 0);
+        } else {
+            paramMap.put("result", 1);
+        }
+    }
+
+    /**
+     * 与存储过程execute_seckill_sharded相同的逻辑：校验秒杀时间，insert ignore，
+     * 从用户分配的分片开始依次扣减，都售完则撤销插入
+     */
+    @Override
+    public void killByShardedProcedure(Map<String, Object> paramMap) {
+        long seckillId = (Long) paramMap.get("seckillId");
+        long userPhone = (Long) paramMap.get("userPhone");
+        Date killTime = (Date) paramMap.get("killTime");
+        int shards = (Integer) paramMap.get("shards");
+        int home = (Integer) paramMap.get("home");
+        Seckill seckill = database.selectSeckill(seckillId);
+        if (seckill == null || killTime.before(seckill.getStartTime()) || killTime.after(seckill.getEndTime())){
+            paramMap.put("result", 0);
+            return;
+        }
+        if (!database.insertSuccessKilled(seckillId, userPhone)){
+            paramMap.put("result", -1);
+            return;
+        }
+        for (int i = 0; i < shards; i++) {
+            if (database.reduceShard(seckillId, (home + i) % shards, 1) > 0){
+                paramMap.put("result", 1);
+                return;
+            }
+        }
+        database.deleteSuccessKilled(seckillId, userPhone);
+        paramMap.put("result", 0);
+    }
+}
@@ -0,0 +1,84 @@
+package org.seckill.perf.load;
+
+import org.seckill.dao.SuccessKilledDao;
+import org.seckill.entity.SuccessKilled;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 基于LocalDatabase的SuccessKilledDao
+ */
+public class LocalSuccessKilledDao implements SuccessKilledDao {
+
+    private final LocalDatabase database;
+
+    public LocalSuccessKilledDao(LocalDatabase database) {
+        this.database = database;
+    }
+
+    @Override
+    public int insertSuccessKilled(long seckillId, long userPhone) {
+        return database.insertSuccessKilled(seckillId, userPhone) ? 1 : 0;
+    }
+
+    @Override
+    public int insertSuccessKilledBatch(long seckillId, List<Long> userPhones) {
+        int inserted = 0;
+        for (Long userPhone : userPhones){
+            if (database.insertSuccessKilled(seckillId, userPhone)){
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    @Override
+    public SuccessKilled queryByIdWithSeckill(long seckillId, long userPhone) {
+        if (!database.existsSuccessKilled(seckillId, userPhone)){
+            return null;
+        }
+        SuccessKilled successKilled = new SuccessKilled();
+        successKilled.setSeckillId(seckillId);
+        successKilled.setUserPhone(userPhone);
+        successKilled.setCreateTime(new Date());
+        successKilled.setSeckill(database.selectSeckill(seckillId));
+        return successKilled;
+    }
+
+    @Override
+    public List<SuccessKilled> queryByIdsWithSeckill(long seckillId, List<Long> userPhones) {
+        List<SuccessKilled> list = new ArrayList<SuccessKilled>(userPhones.size());
+        for (Long userPhone : userPhones){
+            SuccessKilled successKilled = queryByIdWithSeckill(seckillId, userPhone);
+            if (successKilled != null){
+                list.add(successKilled);
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public List<Long> queryUserPhones(long seckillId, List<Long> userPhones) {
+        List<Long> list = new ArrayList<Long>();
+        for (Long userPhone : userPhones){
+            if (database.existsSuccessKilled(seckillId, userPhone)){
+                list.add(userPhone);
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public int deleteSuccessKilledBatch(long seckillId, List<Long> userPhones) {
+        int deleted = 0;
+        for (Long userPhone : userPhones){
+            if (database.existsSuccessKilled(seckillId, userPhone)){
+                database.deleteSuccessKilled(seckillId, userPhone);
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+}
@@ -0,0 +1,47 @@
+package org.seckill.perf.load;
+
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * LocalDatabase的事务管理器
+ * 只负责事务同步：LocalDatabase在事务中登记回滚动作，回滚时由事务同步回调撤销
+ * REQUIRES_NEW时挂起外层事务的同步回调，内层事务单独提交
+ */
+public class LocalTransactionManager extends AbstractPlatformTransactionManager {
+
+    private static final Object EXISTING = new Object();
+
+    @Override
+    protected Object doGetTransaction() {
+        return TransactionSynchronizationManager.isSynchronizationActive() ? EXISTING : new Object();
+    }
+
+    @Override
+    protected boolean isExistingTransaction(Object transaction) {
+        return transaction == EXISTING;
+    }
+
+    @Override
+    protected Object doSuspend(Object transaction) {
+        return transaction;
+    }
+
+    @Override
+    protected void doResume(Object transaction, Object suspendedResources) {
+    }
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+    }
+
+    @Override
+    protected void doCommit(DefaultTransactionStatus status) {
+    }
+
+    @Override
+    protected void doRollback(DefaultTransactionStatus status) {
+    }
+}
@@ -0,0 +1,104 @@
+package org.seckill.perf.support;
+
+import org.seckill.dao.SeckillDao;
+import org.seckill.dao.SuccessKilledDao;
+import org.seckill.dao.cache.RedisDao;
+import org.seckill.dao.cache.RedisEventBus;
+import org.seckill.dao.cache.SeckillCache;
+import org.seckill.entity.Seckill;
+import org.seckill.metrics.MetricsRegistry;
+import org.seckill.service.impl.SeckillServiceImpl;
+import org.seckill.service.impl.TokenServiceImpl;
+import org.seckill.service.journal.OrderJournal;
+import org.seckill.service.queue.ConsumerScheduler;
+import org.seckill.service.support.CombinedKillWriter;
+import org.seckill.service.support.KillCombiner;
+import org.seckill.service.support.ShardedStock;
+import org.seckill.service.support.SoldOutFlags;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+
+/**
+ * 基准测试用的数据和对象装配，不启动Spring容器
+ */
+public final class Fixtures {
+
+    public static final long SECKILL_ID = 1000L;
+
+    public static final long USER_PHONE = 13502171125L;
+
+    private Fixtures() {
+    }
+
+    /**
+     * 正在进行中的秒杀商品
+     */
+    public static Seckill seckill(long seckillId, int number){
+        long now = System.currentTimeMillis();
+        Seckill seckill = new Seckill();
+        seckill.setSeckillId(seckillId);
+        seckill.setName(number + "元秒杀iphone6");
+        seckill.setNumber(number);
+        seckill.setStartTime(new Date(now - 60 * 60 * 1000L));
+        seckill.setEndTime(new Date(now + 60 * 60 * 1000L));
+        seckill.setCreateTime(new Date(now));
+        return seckill;
+    }
+
+    public static TokenServiceImpl tokenService(){
+        TokenServiceImpl tokenService = new TokenServiceImpl();
+        ReflectionTestUtils.setField(tokenService, "secret", "wadgydg&d9*(*2q5~war3waef");
+        //窗口足够长，基准测试期间令牌不会过期
+        ReflectionTestUtils.setField(tokenService, "windowSeconds", 24 * 60 * 60L);
+        return tokenService;
+    }
+
+    /**
+     * 用内存中的dao和redis装配秒杀服务，事务注解不生效
+     */
+    public static SeckillServiceImpl seckillService(SeckillDao seckillDao, SuccessKilledDao successKilledDao,
+                                                    RedisDao redisDao){
+        RedisEventBus redisEventBus = new RedisEventBus(redisDao);
+        SoldOutFlags soldOutFlags = new SoldOutFlags();
+        ReflectionTestUtils.setField(soldOutFlags, "redisEventBus", redisEventBus);
+        soldOutFlags.init();
+
+        ShardedStock shardedStock = new ShardedStock();
+        ReflectionTestUtils.setField(shardedStock, "seckillDao", seckillDao);
+
+        //合并窗口为0，单线程基准测试中每批只有一个请求
+        CombinedKillWriter killWriter = new CombinedKillWriter();
+        ReflectionTestUtils.setField(killWriter, "seckillDao", seckillDao);
+        ReflectionTestUtils.setField(killWriter, "successKilledDao", successKilledDao);
+        ReflectionTestUtils.setField(killWriter, "shardedStock", shardedStock);
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        KillCombiner killCombiner = new KillCombiner();
+        ReflectionTestUtils.setField(killCombiner, "killWriter", killWriter);
+        ReflectionTestUtils.setField(killCombiner, "seckillDao", seckillDao);
+        ReflectionTestUtils.setField(killCombiner, "metricsRegistry", metricsRegistry);
+        ReflectionTestUtils.setField(killCombiner, "maxBatch", 100);
+        killCombiner.init();
+
+        SeckillServiceImpl seckillService = new SeckillServiceImpl();
+        ReflectionTestUtils.setField(seckillService, "seckillDao", seckillDao);
+        ReflectionTestUtils.setField(seckillService, "successKilledDao", successKilledDao);
+        ReflectionTestUtils.setField(seckillService, "redisDao", redisDao);
+        ReflectionTestUtils.setField(seckillService, "seckillCache",
+                new SeckillCache(redisDao, redisEventBus, 10000, 60));
+        ReflectionTestUtils.setField(seckillService, "soldOutFlags", soldOutFlags);
+        //未启动的调度器，不消费排队队列
+        ReflectionTestUtils.setField(seckillService, "consumerScheduler", new ConsumerScheduler());
+        ReflectionTestUtils.setField(seckillService, "tokenService", tokenService());
+        ReflectionTestUtils.setField(seckillService, "killCombiner", killCombiner);
+        ReflectionTestUtils.setField(seckillService, "shardedStock", shardedStock);
+        //未开启的订单日志，追加直接返回
+        ReflectionTestUtils.setField(seckillService, "orderJournal", new OrderJournal());
+        ReflectionTestUtils.setField(seckillService, "metricsRegistry", metricsRegistry);
+        ReflectionTestUtils.setField(seckillService, "limiterInitialLimit", 20);
+        ReflectionTestUtils.setField(seckillService, "limiterMinLimit", 5);
+        ReflectionTestUtils.setField(seckillService, "limiterMaxLimit", 200);
+        seckillService.init();
+        return seckillService;
+    }
+}
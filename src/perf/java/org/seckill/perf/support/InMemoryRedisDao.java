@@ -0,0 +1,107 @@
+package org.seckill.perf.support;
+
+import org.seckill.dao.cache.CachedSeckill;
+import org.seckill.dao.cache.RedisDao;
+import org.seckill.dao.cache.SeckillCodec;
+import org.seckill.entity.Seckill;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内存中的RedisDao，不连接redis
+ * 商品缓存仍然以protostuff字节保存，保留序列化的开销；准入只扣减库存计数，不判重
+ */
+public class InMemoryRedisDao extends RedisDao {
+
+    private final ConcurrentMap<Long, byte[]> seckills = new ConcurrentHashMap<Long, byte[]>();
+
+    private final ConcurrentMap<Long, AtomicLong> stocks = new ConcurrentHashMap<Long, AtomicLong>();
+
+    public InMemoryRedisDao() {
+        //连接池只在取连接时才建立连接
+        super("127.0.0.1", 6379);
+    }
+
+    @Override
+    public Seckill getSeckill(long seckillId) {
+        byte[] bytes = seckills.get(seckillId);
+        return bytes == null ? null : SeckillCodec.decode(bytes);
+    }
+
+    /**
+     * 内存中的商品缓存不过期
+     */
+    @Override
+    public CachedSeckill getSeckillEntry(long seckillId) {
+        byte[] bytes = seckills.get(seckillId);
+        return bytes == null ? null : new CachedSeckill(SeckillCodec.decode(bytes), Long.MAX_VALUE);
+    }
+
+    @Override
+    public String pubSeckill(Seckill seckill) {
+        seckills.put(seckill.getSeckillId(), SeckillCodec.encode(seckill));
+        return "OK";
+    }
+
+    @Override
+    public Map<Long, Seckill> getSeckills(List<Long> seckillIds) {
+        Map<Long, Seckill> map = new HashMap<Long, Seckill>();
+        for (Long seckillId : seckillIds){
+            byte[] bytes = seckills.get(seckillId);
+            if (bytes != null){
+                map.put(seckillId, SeckillCodec.decode(bytes));
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public void pubSeckills(List<Seckill> list) {
+        for (Seckill seckill : list){
+            seckills.put(seckill.getSeckillId(), SeckillCodec.encode(seckill));
+        }
+    }
+
+    @Override
+    public void removeSeckill(long seckillId) {
+        seckills.remove(seckillId);
+    }
+
+    @Override
+    public boolean initStock(long seckillId, int number) {
+        return stocks.putIfAbsent(seckillId, new AtomicLong(number)) == null;
+    }
+
+    @Override
+    public int admit(long seckillId, long userPhone) {
+        AtomicLong stock = stocks.get(seckillId);
+        if (stock == null){
+            return ADMIT_NOT_INIT;
+        }
+        return stock.decrementAndGet() >= 0 ? ADMIT_SUCCESS : ADMIT_SOLD_OUT;
+    }
+
+    @Override
+    public long getStock(long seckillId) {
+        AtomicLong stock = stocks.get(seckillId);
+        return stock == null ? 0 : Math.max(0, stock.get());
+    }
+
+    @Override
+    public void addActiveItem(long seckillId) {
+    }
+
+    @Override
+    public void removeActiveItem(long seckillId) {
+    }
+
+    @Override
+    public long publish(String channel, String message) {
+        return 0;
+    }
+}
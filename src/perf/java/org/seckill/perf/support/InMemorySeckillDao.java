@@ -0,0 +1,131 @@
+package org.seckill.perf.support;
+
+import org.seckill.dao.SeckillDao;
+import org.seckill.entity.Seckill;
+import org.seckill.entity.SeckillStock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 内存中的SeckillDao，库存扣减只计数不落库，测量的是调用方代码本身的开销
+ */
+public class InMemorySeckillDao implements SeckillDao {
+
+    private final ConcurrentMap<Long, Seckill> seckills = new ConcurrentHashMap<Long, Seckill>();
+
+    public void add(Seckill seckill){
+        seckills.put(seckill.getSeckillId(), seckill);
+    }
+
+    @Override
+    public int reduceNumber(long seckillId, Date killTime) {
+        return seckills.containsKey(seckillId) ? 1 : 0;
+    }
+
+    @Override
+    public int reduceNumberBy(long seckillId, int count) {
+        return seckills.containsKey(seckillId) ? 1 : 0;
+    }
+
+    @Override
+    public Seckill queryById(long seckillId) {
+        return seckills.get(seckillId);
+    }
+
+    @Override
+    public List<Seckill> queryByIds(List<Long> seckillIds) {
+        List<Seckill> list = new ArrayList<Seckill>();
+        for (Long seckillId : seckillIds){
+            Seckill seckill = seckills.get(seckillId);
+            if (seckill != null){
+                list.add(seckill);
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public List<Seckill> queryAll(int offet, int limit) {
+        List<Seckill> list = new ArrayList<Seckill>(seckills.values());
+        int from = Math.min(offet, list.size());
+        return list.subList(from, Math.min(from + limit, list.size()));
+    }
+
+    @Override
+    public List<Seckill> queryPage(Date afterTime, long afterId, int limit) {
+        List<Seckill> list = new ArrayList<Seckill>();
+        for (Seckill seckill : new ArrayList<Seckill>(seckills.values())){
+            if (afterTime == null || seckill.getCreateTime().before(afterTime)
+                    || (seckill.getCreateTime().equals(afterTime) && seckill.getSeckillId() < afterId)){
+                list.add(seckill);
+            }
+        }
+        Collections.sort(list, new Comparator<Seckill>() {
+            @Override
+            public int compare(Seckill o1, Seckill o2) {
+                int c = o2.getCreateTime().compareTo(o1.getCreateTime());
+                return c != 0 ? c : Long.compare(o2.getSeckillId(), o1.getSeckillId());
+            }
+        });
+        return list.subList(0, Math.min(limit, list.size()));
+    }
+
+    @Override
+    public List<Seckill> queryStartingBetween(Date from, Date to, int limit) {
+        List<Seckill> list = new ArrayList<Seckill>();
+        for (Seckill seckill : new ArrayList<Seckill>(seckills.values())){
+            if (!seckill.getStartTime().before(from) && seckill.getStartTime().before(to)){
+                list.add(seckill);
+            }
+        }
+        Collections.sort(list, new Comparator<Seckill>() {
+            @Override
+            public int compare(Seckill o1, Seckill o2) {
+                return o1.getStartTime().compareTo(o2.getStartTime());
+            }
+        });
+        return list.subList(0, Math.min(limit, list.size()));
+    }
+
+    @Override
+    public Seckill queryByIdForUpdate(long seckillId) {
+        return seckills.get(seckillId);
+    }
+
+    @Override
+    public int insertStockShards(long seckillId, List<Integer> numbers) {
+        return numbers.size();
+    }
+
+    @Override
+    public int markStockSharded(long seckillId, int shards) {
+        return seckills.containsKey(seckillId) ? 1 : 0;
+    }
+
+    @Override
+    public int reduceShardBy(long seckillId, int shardNo, int count) {
+        return seckills.containsKey(seckillId) ? 1 : 0;
+    }
+
+    @Override
+    public List<SeckillStock> queryStockShards(long seckillId) {
+        return new ArrayList<SeckillStock>();
+    }
+
+    @Override
+    public void killPyProcedure(Map<String, Object> paramMap) {
+        paramMap.put("result", seckills.containsKey(paramMap.get("seckillId")) ? 1 : -1);
+    }
+
+    @Override
+    public void killByShardedProcedure(Map<String, Object> paramMap) {
+        killPyProcedure(paramMap);
+    }
+}
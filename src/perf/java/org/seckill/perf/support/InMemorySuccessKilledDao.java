@@ -0,0 +1,60 @@
+package org.seckill.perf.support;
+
+import org.seckill.dao.SeckillDao;
+import org.seckill.dao.SuccessKilledDao;
+import org.seckill.entity.SuccessKilled;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 内存中的SuccessKilledDao，不判重，每次插入都成功
+ */
+public class InMemorySuccessKilledDao implements SuccessKilledDao {
+
+    private final SeckillDao seckillDao;
+
+    public InMemorySuccessKilledDao(SeckillDao seckillDao) {
+        this.seckillDao = seckillDao;
+    }
+
+    @Override
+    public int insertSuccessKilled(long seckillId, long userPhone) {
+        return 1;
+    }
+
+    @Override
+    public int insertSuccessKilledBatch(long seckillId, List<Long> userPhones) {
+        return userPhones.size();
+    }
+
+    @Override
+    public SuccessKilled queryByIdWithSeckill(long seckillId, long userPhone) {
+        SuccessKilled successKilled = new SuccessKilled();
+        successKilled.setSeckillId(seckillId);
+        successKilled.setUserPhone(userPhone);
+        successKilled.setCreateTime(new Date());
+        successKilled.setSeckill(seckillDao.queryById(seckillId));
+        return successKilled;
+    }
+
+    @Override
+    public List<SuccessKilled> queryByIdsWithSeckill(long seckillId, List<Long> userPhones) {
+        List<SuccessKilled> list = new ArrayList<SuccessKilled>(userPhones.size());
+        for (Long userPhone : userPhones){
+            list.add(queryByIdWithSeckill(seckillId, userPhone));
+        }
+        return list;
+    }
+
+    @Override
+    public List<Long> queryUserPhones(long seckillId, List<Long> userPhones) {
+        return new ArrayList<Long>();
+    }
+
+    @Override
+    public int deleteSuccessKilledBatch(long seckillId, List<Long> userPhones) {
+        return userPhones.size();
+    }
+}
@@ -9,6 +9,7 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import javax.annotation.Resource;
 
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -39,6 +40,14 @@ public class SeckillDaoTest {
         System.out.println(seckill);
     }
 
+    @Test
+    public void queryByIds() throws Exception {
+        List<Seckill> seckillList = seckillDao.queryByIds(Arrays.asList(1000L, 1001L, 1002L));
+        for(Seckill seckill : seckillList){
+            System.out.println(seckill);
+        }
+    }
+
     @Test
     public void queryAll() throws Exception {
 
@@ -49,4 +58,27 @@ public class SeckillDaoTest {
 
     }
 
+    @Test
+    public void queryPage() throws Exception {
+        List<Seckill> first = seckillDao.queryPage(null, 0, 2);
+        System.out.println(first);
+        if (!first.isEmpty()){
+            Seckill last = first.get(first.size() - 1);
+            //从上一页最后一条之后读取
+            List<Seckill> second = seckillDao.queryPage(last.getCreateTime(), last.getSeckillId(), 2);
+            System.out.println(second);
+        }
+    }
+
+    @Test
+    public void queryStartingBetween() throws Exception {
+        Date from = new Date(0);
+        Date to = new Date(System.currentTimeMillis() + 365L * 24 * 3600 * 1000);
+        List<Seckill> seckillList = seckillDao.queryStartingBetween(from, to, 10);
+        for (int i = 1; i < seckillList.size(); i++) {
+            assertFalse(seckillList.get(i).getStartTime().before(seckillList.get(i - 1).getStartTime()));
+        }
+        System.out.println(seckillList);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,52 @@
+package org.seckill.dao.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LocalCacheTest {
+
+    @Test
+    public void getAndExpire() throws Exception {
+        LocalCache<Long, String> cache = new LocalCache<Long, String>(10, 50);
+        cache.put(1L, "a");
+        assertEquals("a", cache.get(1L));
+        Thread.sleep(100);
+        assertNull(cache.get(1L));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void evictEldest() throws Exception {
+        LocalCache<Long, String> cache = new LocalCache<Long, String>(2, 60000);
+        cache.put(1L, "a");
+        cache.put(2L, "b");
+        //覆盖不算新条目
+        cache.put(1L, "c");
+        assertEquals(2, cache.size());
+        cache.put(3L, "d");
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get(2L));
+        assertEquals("c", cache.get(1L));
+        assertEquals("d", cache.get(3L));
+    }
+
+    @Test
+    public void sweepKeepsLiveEntries() throws Exception {
+        LocalCache<Long, String> cache = new LocalCache<Long, String>(2, 60000);
+        //反复覆盖同一个key，队列中的无效条目超过2倍条目数后被清理
+        for (int i = 0; i < 100; i++) {
+            cache.put(1L, "a" + i);
+        }
+        cache.put(2L, "b");
+        assertEquals("a99", cache.get(1L));
+        cache.put(3L, "c");
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get(1L));
+        assertEquals("b", cache.get(2L));
+        assertEquals("c", cache.get(3L));
+    }
+
+}
@@ -0,0 +1,37 @@
+package org.seckill.dao.cache;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RedisKeysTest {
+
+    @Test
+    public void longMember() throws Exception {
+        for (long value : new long[]{0, 1, 13502171125L, Long.MAX_VALUE, -1}){
+            byte[] bytes = RedisKeys.encodeLong(value);
+            assertEquals(8, bytes.length);
+            assertEquals(value, RedisKeys.decodeLong(bytes));
+        }
+    }
+
+    @Test
+    public void decimalCounter() throws Exception {
+        assertEquals(100, RedisKeys.parseDecimal(RedisKeys.decimal(100)));
+        assertEquals(-3, RedisKeys.parseDecimal("-3".getBytes("US-ASCII")));
+        assertEquals(0, RedisKeys.parseDecimal("0".getBytes("US-ASCII")));
+    }
+
+    @Test
+    public void itemKeys() throws Exception {
+        RedisKeys.ItemKeys keys = RedisKeys.of(1000L);
+        //同一商品命中槽位，不重新生成
+        assertSame(keys, RedisKeys.of(1000L));
+        assertEquals(1000L, keys.seckillId);
+        assertEquals("stock:", new String(keys.stock, 0, 6, "US-ASCII"));
+        assertEquals(1000L, RedisKeys.decodeLong(Arrays.copyOfRange(keys.stock, 6, 14)));
+        assertNotEquals(new String(keys.users, "ISO-8859-1"), new String(RedisKeys.of(1001L).users, "ISO-8859-1"));
+    }
+}
@@ -0,0 +1,56 @@
+package org.seckill.dao.cache;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RedisRingTest {
+
+    private static final int ITEMS = 100000;
+
+    @Test
+    public void balanced() throws Exception {
+        RedisRing ring = new RedisRing(Arrays.asList("10.0.0.1:6379", "10.0.0.2:6379",
+                "10.0.0.3:6379", "10.0.0.4:6379"));
+        int[] counts = new int[4];
+        for (long id = 1000; id < 1000 + ITEMS; id++) {
+            counts[ring.nodeOf(id)]++;
+        }
+        for (int count : counts){
+            //每个节点约25%
+            assertTrue(Arrays.toString(counts), Math.abs(count - ITEMS / 4) < ITEMS / 4 / 5);
+        }
+    }
+
+    @Test
+    public void addNodeMovesOnlyToNewNode() throws Exception {
+        List<String> nodes = Arrays.asList("10.0.0.1:6379", "10.0.0.2:6379", "10.0.0.3:6379", "10.0.0.4:6379");
+        List<String> grown = Arrays.asList("10.0.0.1:6379", "10.0.0.2:6379", "10.0.0.3:6379", "10.0.0.4:6379",
+                "10.0.0.5:6379");
+        RedisRing before = new RedisRing(nodes);
+        RedisRing after = new RedisRing(grown);
+        int moved = 0;
+        for (long id = 1000; id < 1000 + ITEMS; id++) {
+            int node = after.nodeOf(id);
+            if (node != before.nodeOf(id)){
+                //迁移的商品都到了新节点
+                assertEquals(4, node);
+                moved++;
+            }
+        }
+        //约1/5的商品迁移
+        assertTrue(String.valueOf(moved), Math.abs(moved - ITEMS / 5) < ITEMS / 5 / 5);
+    }
+
+    @Test
+    public void independentOfOrder() throws Exception {
+        RedisRing ring = new RedisRing(Arrays.asList("10.0.0.1:6379", "10.0.0.2:6379", "10.0.0.3:6379"));
+        RedisRing reversed = new RedisRing(Arrays.asList("10.0.0.3:6379", "10.0.0.2:6379", "10.0.0.1:6379"));
+        for (long id = 1000; id < 2000; id++) {
+            assertEquals(ring.nodeOf(id), 2 - reversed.nodeOf(id));
+        }
+    }
+}
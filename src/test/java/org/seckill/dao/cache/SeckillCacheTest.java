@@ -0,0 +1,143 @@
+package org.seckill.dao.cache;
+
+import org.junit.Test;
+import org.seckill.entity.Seckill;
+
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SeckillCacheTest {
+
+    private static final long SECKILL_ID = 1000L;
+
+    @Test
+    public void singleFlight() throws Exception {
+        StubRedisDao redisDao = new StubRedisDao();
+        final SeckillCache cache = new SeckillCache(redisDao, new RedisEventBus(redisDao), 100, 60);
+        final AtomicInteger loads = new AtomicInteger();
+        final SeckillCache.Loader loader = new SeckillCache.Loader() {
+            @Override
+            public Seckill load(long seckillId) {
+                loads.incrementAndGet();
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return seckill(seckillId);
+            }
+        };
+        int threads = 16;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger found = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        if (cache.get(SECKILL_ID, loader) != null){
+                            found.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        assertEquals(threads, found.get());
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getLoads());
+        assertTrue(cache.getLoadWaits() > 0);
+    }
+
+    @Test
+    public void refreshBeforeExpire() throws Exception {
+        StubRedisDao redisDao = new StubRedisDao();
+        SeckillCache cache = new SeckillCache(redisDao, new RedisEventBus(redisDao), 100, 60);
+        final AtomicInteger loads = new AtomicInteger();
+        SeckillCache.Loader loader = new SeckillCache.Loader() {
+            @Override
+            public Seckill load(long seckillId) {
+                loads.incrementAndGet();
+                return seckill(seckillId);
+            }
+        };
+
+        //还有一小时过期，直接使用redis中的值
+        redisDao.entries.put(SECKILL_ID, new CachedSeckill(seckill(SECKILL_ID), System.currentTimeMillis() + 3600 * 1000L));
+        assertNotNull(cache.get(SECKILL_ID, loader));
+        assertEquals(0, loads.get());
+
+        //在本地缓存的存活时间内就会过期，提前刷新
+        cache.getLocal().invalidate(SECKILL_ID);
+        redisDao.entries.put(SECKILL_ID, new CachedSeckill(seckill(SECKILL_ID), System.currentTimeMillis() + 1000));
+        assertNotNull(cache.get(SECKILL_ID, loader));
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getEarlyRefreshes());
+    }
+
+    @Test
+    public void staleOnRefreshFailure() throws Exception {
+        StubRedisDao redisDao = new StubRedisDao();
+        SeckillCache cache = new SeckillCache(redisDao, new RedisEventBus(redisDao), 100, 60);
+        Seckill cached = seckill(SECKILL_ID);
+        redisDao.entries.put(SECKILL_ID, new CachedSeckill(cached, System.currentTimeMillis() + 1000));
+        Seckill seckill = cache.get(SECKILL_ID, new SeckillCache.Loader() {
+            @Override
+            public Seckill load(long seckillId) {
+                throw new IllegalStateException("database down");
+            }
+        });
+        assertSame(cached, seckill);
+    }
+
+    private static Seckill seckill(long seckillId){
+        Seckill seckill = new Seckill();
+        seckill.setSeckillId(seckillId);
+        seckill.setName("1000元秒杀iphone6");
+        seckill.setNumber(100);
+        seckill.setStartTime(new Date());
+        seckill.setEndTime(new Date());
+        seckill.setCreateTime(new Date());
+        return seckill;
+    }
+
+    /**
+     * 不连接redis，商品缓存保存在内存中
+     */
+    private static final class StubRedisDao extends RedisDao {
+
+        final ConcurrentMap<Long, CachedSeckill> entries = new ConcurrentHashMap<Long, CachedSeckill>();
+
+        StubRedisDao() {
+            super("127.0.0.1", 6379);
+        }
+
+        @Override
+        public CachedSeckill getSeckillEntry(long seckillId) {
+            return entries.get(seckillId);
+        }
+
+        @Override
+        public String pubSeckill(Seckill seckill) {
+            entries.put(seckill.getSeckillId(), new CachedSeckill(seckill, System.currentTimeMillis() + 3600 * 1000L));
+            return "OK";
+        }
+
+        @Override
+        public long publish(String channel, String message) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.seckill.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void labeledGauges() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.gauge(MetricsRegistry.name("queue_depth", "seckill_id", "1000"), new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                return 3;
+            }
+        });
+        registry.gauge(MetricsRegistry.name("queue_depth", "seckill_id", "1001"), new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                return 5;
+            }
+        });
+        String text = registry.scrape();
+        //同名指标只有一行TYPE
+        assertEquals(text.indexOf("# TYPE queue_depth gauge"), text.lastIndexOf("# TYPE queue_depth gauge"));
+        assertTrue(text.contains("queue_depth{seckill_id=\"1000\"} 3\n"));
+        assertTrue(text.contains("queue_depth{seckill_id=\"1001\"} 5\n"));
+
+        registry.removeGauge(MetricsRegistry.name("queue_depth", "seckill_id", "1000"));
+        assertFalse(registry.scrape().contains("seckill_id=\"1000\""));
+    }
+
+    @Test
+    public void labeledHistogram() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        StageTimer timer = new StageTimer(registry, "stage_micros", "redis", "token", "total");
+        timer.lap(0, System.nanoTime());
+        String text = registry.scrape();
+        assertTrue(text.contains("# TYPE stage_micros histogram\n"));
+        assertTrue(text.contains("stage_micros_bucket{strategy=\"redis\",stage=\"token\",le=\"+Inf\"} 1\n"));
+        assertTrue(text.contains("stage_micros_count{strategy=\"redis\",stage=\"total\"} 0\n"));
+        assertEquals(text.indexOf("# TYPE stage_micros_max gauge"), text.lastIndexOf("# TYPE stage_micros_max gauge"));
+    }
+}
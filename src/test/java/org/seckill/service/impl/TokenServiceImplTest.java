@@ -0,0 +1,41 @@
+package org.seckill.service.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.*;
+
+public class TokenServiceImplTest {
+
+    private TokenServiceImpl tokenService;
+
+    @Before
+    public void setUp() throws Exception {
+        tokenService = new TokenServiceImpl();
+        ReflectionTestUtils.setField(tokenService, "secret", "test-secret");
+        ReflectionTestUtils.setField(tokenService, "windowSeconds", 300L);
+    }
+
+    @Test
+    public void issueAndVerify() throws Exception {
+        String token = tokenService.issue(1000L, 13502171125L);
+        assertEquals(16, token.length());
+        assertTrue(tokenService.verify(1000L, 13502171125L, token));
+    }
+
+    @Test
+    public void rejectOtherUserOrItem() throws Exception {
+        String token = tokenService.issue(1000L, 13502171125L);
+        assertFalse(tokenService.verify(1000L, 13502171126L, token));
+        assertFalse(tokenService.verify(1001L, 13502171125L, token));
+    }
+
+    @Test
+    public void rejectMalformed() throws Exception {
+        String token = tokenService.issue(1000L, 13502171125L);
+        assertFalse(tokenService.verify(1000L, 13502171125L, null));
+        assertFalse(tokenService.verify(1000L, 13502171125L, token.substring(1)));
+        assertFalse(tokenService.verify(1000L, 13502171125L, token.toUpperCase().replace('0', 'G')));
+    }
+}
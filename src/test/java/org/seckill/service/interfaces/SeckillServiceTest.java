@@ -47,10 +47,10 @@ public class SeckillServiceTest {
     @Test
     public void exportSeckillUrl() throws Exception {
         long id = 1001L;
-        Exposer exposer = seckillService.exportSeckillUrl(id);
+        long phone = 13502171125L;
+        Exposer exposer = seckillService.exportSeckillUrl(id, phone);
         if(exposer.isExposed()){
             logger.info("exposer={}", exposer);
-            long phone = 13502171125L;
             String md5 = exposer.getMd5();
             try {
                 SeckillExecution execution = seckillService.executeSeckill(id, phone,md5);
@@ -70,7 +70,7 @@ public class SeckillServiceTest {
     public void executeSeckillProcedure() throws Exception {
         long seckillId = 1002;
         long phone = 13007611111L;
-        Exposer exposer = seckillService.exportSeckillUrl(seckillId);
+        Exposer exposer = seckillService.exportSeckillUrl(seckillId, phone);
         if (exposer.isExposed()){
             String md5 = exposer.getMd5();
             SeckillExecution execution = seckillService.executeSeckillProcedure(seckillId,phone,md5);
@@ -83,7 +83,7 @@ public class SeckillServiceTest {
 
         long seckillId = 1002;
         long phone = 13007611111L;
-        Exposer exposer = seckillService.exportSeckillUrl(seckillId);
+        Exposer exposer = seckillService.exportSeckillUrl(seckillId, phone);
         if (exposer.isExposed()){
             String md5 = exposer.getMd5();
             SeckillExecution execution = seckillService.executeSeckillByRedis(seckillId,phone,md5);
@@ -91,4 +91,14 @@ public class SeckillServiceTest {
             logger.debug("execution={}",execution);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void warmup() throws Exception {
+        long seckillId = 1003;
+        Seckill seckill = seckillService.warmup(seckillId);
+        logger.info("seckill={}", seckill);
+        //重复预热不会重新初始化库存
+        seckillService.warmup(seckillId);
+        assertNull(seckillService.warmup(-1L));
+    }
+}
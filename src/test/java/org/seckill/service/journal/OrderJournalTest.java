@@ -0,0 +1,139 @@
+package org.seckill.service.journal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.seckill.metrics.MetricsRegistry;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class OrderJournalTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("order-journal").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null){
+            for (File file : files){
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void groupCommit() throws Exception {
+        final OrderJournal journal = journal(300);
+        final AtomicInteger durable = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int t = 0; t < 8; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100; i++) {
+                        if (journal.append(1000L, thread * 1000 + i)){
+                            durable.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        assertEquals(800, durable.get());
+        //写满的段封闭，所有记录都能读到
+        assertEquals(800, readAll(journal).size());
+        assertFalse(journal.sealedSegments(Long.MAX_VALUE).isEmpty());
+        journal.shutdown();
+    }
+
+    @Test
+    public void reopen() throws Exception {
+        OrderJournal journal = journal(1000);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(journal.append(1000L + i % 2, 13000000000L + i));
+        }
+        journal.shutdown();
+
+        //重启后上次的段视为已封闭，可以读取和删除
+        OrderJournal reopened = journal(1000);
+        List<Long> sealed = reopened.sealedSegments(0);
+        assertEquals(1, sealed.size());
+        final List<Long> phones = new ArrayList<Long>();
+        reopened.read(sealed.get(0), new OrderJournal.Visitor() {
+            @Override
+            public void visit(long seckillId, long userPhone) {
+                assertEquals(1000L + (userPhone - 13000000000L) % 2, seckillId);
+                phones.add(userPhone);
+            }
+        });
+        assertEquals(10, phones.size());
+        reopened.release(sealed.get(0));
+        assertTrue(reopened.sealedSegments(0).isEmpty());
+        assertFalse(new File(dir, JournalSegment.fileName(sealed.get(0))).exists());
+        reopened.shutdown();
+    }
+
+    @Test
+    public void tornTail() throws Exception {
+        OrderJournal journal = journal(1000);
+        for (int i = 0; i < 5; i++) {
+            journal.append(1000L, 13000000000L + i);
+        }
+        journal.shutdown();
+        //最后一条记录只写了一半
+        RandomAccessFile raf = new RandomAccessFile(new File(dir, JournalSegment.fileName(0)), "rw");
+        raf.seek(4 * JournalSegment.RECORD_SIZE + 16);
+        raf.writeInt(0);
+        raf.close();
+
+        OrderJournal reopened = journal(1000);
+        final AtomicInteger count = new AtomicInteger();
+        reopened.read(0, new OrderJournal.Visitor() {
+            @Override
+            public void visit(long seckillId, long userPhone) {
+                count.incrementAndGet();
+            }
+        });
+        assertEquals(4, count.get());
+        reopened.shutdown();
+    }
+
+    private OrderJournal journal(int segmentRecords) throws Exception {
+        OrderJournal journal = new OrderJournal();
+        ReflectionTestUtils.setField(journal, "metricsRegistry", new MetricsRegistry());
+        ReflectionTestUtils.setField(journal, "enabled", true);
+        ReflectionTestUtils.setField(journal, "dir", dir.getPath());
+        ReflectionTestUtils.setField(journal, "segmentRecords", segmentRecords);
+        ReflectionTestUtils.setField(journal, "syncTimeoutMs", 5000L);
+        journal.init();
+        return journal;
+    }
+
+    private List<Long> readAll(OrderJournal journal){
+        final List<Long> phones = new ArrayList<Long>();
+        journal.readAll(new OrderJournal.Visitor() {
+            @Override
+            public void visit(long seckillId, long userPhone) {
+                phones.add(userPhone);
+            }
+        });
+        return phones;
+    }
+}
@@ -0,0 +1,59 @@
+package org.seckill.service.support;
+
+import org.junit.Test;
+import org.seckill.metrics.MetricsRegistry;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveLimiterTest {
+
+    @Test
+    public void rejectOverLimit() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(new MetricsRegistry(), "test", 3, 1, 10);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        limiter.release(System.nanoTime());
+        assertTrue(limiter.tryAcquire());
+        assertEquals(3, limiter.getInflight());
+    }
+
+    @Test
+    public void followLatency() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(new MetricsRegistry(), "test", 10, 2, 100);
+        //并发打满且耗时平稳，上限增加
+        for (int i = 0; i < 3; i++) {
+            window(limiter, 1);
+        }
+        int grown = limiter.getLimit();
+        assertTrue("limit " + grown, grown > 10);
+
+        //耗时上升到20倍，上限减小
+        for (int i = 0; i < 3; i++) {
+            window(limiter, 20);
+        }
+        assertTrue("limit " + limiter.getLimit(), limiter.getLimit() < grown);
+    }
+
+    /**
+     * 一个采样窗口：反复占满当前上限直到达到窗口的最少样本数，每个请求的耗时为rttMillis
+     */
+    private static void window(AdaptiveLimiter limiter, long rttMillis) throws Exception {
+        Thread.sleep(110);
+        int samples = 0;
+        while (samples < 10){
+            int acquired = 0;
+            while (limiter.tryAcquire()){
+                acquired++;
+            }
+            long start = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(rttMillis);
+            for (int i = 0; i < acquired; i++) {
+                limiter.release(start);
+            }
+            samples += acquired;
+        }
+    }
+}
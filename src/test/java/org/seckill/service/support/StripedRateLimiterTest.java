@@ -0,0 +1,59 @@
+package org.seckill.service.support;
+
+import org.junit.Test;
+import org.seckill.metrics.MetricsRegistry;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StripedRateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void burstThenRate() throws Exception {
+        //每秒2个令牌，最多突发5个
+        StripedRateLimiter limiter = new StripedRateLimiter(new MetricsRegistry(), "test", 1024, 2, 5);
+        long now = SECOND;
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire(13502171125L, now));
+        }
+        assertFalse(limiter.tryAcquire(13502171125L, now));
+        //被拒绝的请求不消耗令牌，半秒后恢复一个
+        assertFalse(limiter.tryAcquire(13502171125L, now + SECOND / 4));
+        assertTrue(limiter.tryAcquire(13502171125L, now + SECOND / 2));
+        assertFalse(limiter.tryAcquire(13502171125L, now + SECOND / 2));
+        assertEquals(3, limiter.getRejected());
+        //其他用户不受影响
+        assertTrue(limiter.tryAcquire(13502171126L, now));
+    }
+
+    @Test
+    public void releaseReturnsPermit() throws Exception {
+        StripedRateLimiter limiter = new StripedRateLimiter(new MetricsRegistry(), "test", 16, 1, 2);
+        long now = SECOND;
+        assertTrue(limiter.tryAcquire(1000L, now));
+        assertTrue(limiter.tryAcquire(1000L, now));
+        assertFalse(limiter.tryAcquire(1000L, now));
+        limiter.release(1000L);
+        assertTrue(limiter.tryAcquire(1000L, now));
+        assertFalse(limiter.tryAcquire(1000L, now));
+    }
+
+    @Test
+    public void idleRefillsToBurst() throws Exception {
+        StripedRateLimiter limiter = new StripedRateLimiter(new MetricsRegistry(), "test", 16, 100, 3);
+        long now = SECOND;
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire(1000L, now));
+        }
+        assertFalse(limiter.tryAcquire(1000L, now));
+        //空闲很久之后最多只能突发burst个
+        long later = now + 60 * SECOND;
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire(1000L, later));
+        }
+        assertFalse(limiter.tryAcquire(1000L, later));
+    }
+}
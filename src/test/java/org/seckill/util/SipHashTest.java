@@ -0,0 +1,16 @@
+package org.seckill.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SipHashTest {
+
+    @Test
+    public void referenceVector() throws Exception {
+        //参考实现的测试向量：密钥00..0f，输入00..0f（16字节）
+        long k0 = 0x0706050403020100L;
+        long k1 = 0x0f0e0d0c0b0a0908L;
+        assertEquals(0x3f2acc7f57c29bdbL, SipHash.hash(k0, k1, k0, k1));
+    }
+}